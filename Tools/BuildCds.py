@@ -0,0 +1,98 @@
+import os
+import re
+import shutil
+import stat
+import subprocess
+import sys
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+# Runs a tool of the JDK, from $JAVA_HOME if set and from the PATH otherwise.
+def tool(name):
+    home = os.environ.get("JAVA_HOME")
+    if home and os.path.exists(os.path.join(home, "bin", name)):
+        return os.path.join(home, "bin", name)
+    return name
+
+
+# jlox needs JDK 21, for the pattern switches over the sealed AST and the virtual threads of the daemon.
+JAVA_VERSION = 21
+
+
+# Exits with a message unless javac is of JAVA_VERSION or later, which it reports as "javac 21.0.1".
+def check_java_version():
+    try:
+        result = subprocess.run([tool("javac"), "-version"], capture_output=True, text=True)
+    except FileNotFoundError:
+        result = None
+    match = result and re.search(r"javac (\d+)", result.stdout + result.stderr)
+    if not match or int(match.group(1)) < JAVA_VERSION:
+        found = match.group(0) if match else "no javac"
+        eprint(f"jlox needs JDK {JAVA_VERSION} or later, found {found}: set JAVA_HOME to a JDK {JAVA_VERSION}")
+        sys.exit(1)
+
+
+def run(command):
+    print(" ".join(command))
+    if subprocess.run(command, stdout=subprocess.DEVNULL).returncode != 0:
+        eprint(f"{command[0]} failed")
+        sys.exit(1)
+
+
+# The Java files under a directory, in a stable order.
+def java_sources(root):
+    sources = []
+    for directory, _, files in os.walk(root):
+        sources += [os.path.join(directory, file) for file in files if file.endswith(".java")]
+    return sorted(sources)
+
+
+# Runs jlox from the jar with the archive, the JVM falls back to loading the classes if it was built by another
+# JDK. Further JVM options can be passed in $JLOX_JAVA_OPTIONS.
+LAUNCHER = """#!/bin/sh
+dir=$(dirname "$0")
+exec "${JAVA_HOME:+$JAVA_HOME/bin/}java" -XX:SharedArchiveFile="$dir/jlox.jsa" -Xshare:auto $JLOX_JAVA_OPTIONS \\
+    -jar "$dir/jlox.jar" "$@"
+"""
+
+
+# Builds jlox.jar, an AppCDS archive of the classes it loads while running Tools/CdsTraining.lox, and a jlox
+# launcher that uses both. Class data sharing needs the classes in a jar, it does not archive directories.
+def main():
+    if len(sys.argv) != 2:
+        eprint(f"Usage: python {sys.argv[0]} <output directory>")
+        return
+    check_java_version()
+    root = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+    output = os.path.abspath(sys.argv[1])
+    classes = os.path.join(output, "classes")
+    shutil.rmtree(classes, ignore_errors=True)
+    os.makedirs(classes)
+
+    run([tool("javac"), "-encoding", "UTF-8", "-d", classes] + java_sources(os.path.join(root, "src")))
+    # the scanner only uses the Vector API when jlox is run with `--add-modules jdk.incubator.vector`, which can be
+    # passed in $JLOX_JAVA_OPTIONS, so the classes that use it are compiled on their own with the module
+    run([tool("javac"), "-encoding", "UTF-8", "--add-modules", "jdk.incubator.vector", "-cp", classes, "-d", classes]
+        + java_sources(os.path.join(root, "incubator")))
+    shutil.copytree(os.path.join(root, "src", "META-INF"), os.path.join(classes, "META-INF"))
+
+    jar = os.path.join(output, "jlox.jar")
+    run([tool("jar"), "--create", "--file", jar, "--main-class", "com.craftinginterpreters.lox.Lox",
+         "-C", classes, "."])
+
+    archive = os.path.join(output, "jlox.jsa")
+    run([tool("java"), f"-XX:ArchiveClassesAtExit={archive}", "-jar", jar,
+         os.path.join(root, "Tools", "CdsTraining.lox")])
+
+    launcher = os.path.join(output, "jlox")
+    with open(launcher, "w") as file:
+        file.write(LAUNCHER)
+    os.chmod(launcher, os.stat(launcher).st_mode | stat.S_IXUSR | stat.S_IXGRP | stat.S_IXOTH)
+    print(f"wrote {launcher}")
+
+
+if __name__ == "__main__":
+    main()
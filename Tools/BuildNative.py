@@ -0,0 +1,76 @@
+import os
+import re
+import shutil
+import subprocess
+import sys
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+# Runs a tool of the JDK, from $JAVA_HOME or $GRAALVM_HOME if set and from the PATH otherwise.
+def tool(name):
+    for home in (os.environ.get("GRAALVM_HOME"), os.environ.get("JAVA_HOME")):
+        if home and os.path.exists(os.path.join(home, "bin", name)):
+            return os.path.join(home, "bin", name)
+    return name
+
+
+# jlox needs JDK 21, for the pattern switches over the sealed AST and the virtual threads of the daemon.
+JAVA_VERSION = 21
+
+
+# Exits with a message unless javac is of JAVA_VERSION or later, which it reports as "javac 21.0.1".
+def check_java_version():
+    try:
+        result = subprocess.run([tool("javac"), "-version"], capture_output=True, text=True)
+    except FileNotFoundError:
+        result = None
+    match = result and re.search(r"javac (\d+)", result.stdout + result.stderr)
+    if not match or int(match.group(1)) < JAVA_VERSION:
+        found = match.group(0) if match else "no javac"
+        eprint(f"jlox needs JDK {JAVA_VERSION} or later, found {found}: set GRAALVM_HOME to a GraalVM for JDK {JAVA_VERSION}")
+        sys.exit(1)
+
+
+def run(command):
+    print(" ".join(command))
+    try:
+        result = subprocess.run(command)
+    except FileNotFoundError:
+        eprint(f"{command[0]} not found, set GRAALVM_HOME to a GraalVM installation")
+        sys.exit(1)
+    if result.returncode != 0:
+        eprint(f"{command[0]} failed")
+        sys.exit(1)
+
+
+# Compiles jlox and builds a native executable of com.craftinginterpreters.lox.Lox with GraalVM native-image.
+# The configuration native-image needs (the native libraries are loaded with a ServiceLoader) is read from
+# src/META-INF/native-image, which is copied to the class path with the classes.
+def main():
+    if len(sys.argv) != 2:
+        eprint(f"Usage: python {sys.argv[0]} <output directory>")
+        return
+    check_java_version()
+    root = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+    output = os.path.abspath(sys.argv[1])
+    classes = os.path.join(output, "classes")
+    shutil.rmtree(classes, ignore_errors=True)
+    os.makedirs(classes)
+
+    sources = []
+    # the classes under incubator use the Vector API, which native images do not have, so the scanner uses its
+    # scalar loops
+    for directory, _, files in os.walk(os.path.join(root, "src")):
+        sources += [os.path.join(directory, file) for file in files if file.endswith(".java")]
+    run([tool("javac"), "-encoding", "UTF-8", "-d", classes] + sorted(sources))
+    shutil.copytree(os.path.join(root, "src", "META-INF"), os.path.join(classes, "META-INF"))
+
+    run([tool("native-image"), "-cp", classes, "-o", os.path.join(output, "jlox"),
+         "com.craftinginterpreters.lox.Lox"])
+
+
+if __name__ == "__main__":
+    main()
@@ -9,14 +9,37 @@ def write_line(file, line=""):
     file.write(f"{line}\n")
 
 
-def define_type(file, baseName, className, fieldList):
-    write_line(file)
-    write_line(file, f"  static class {className} extends {baseName} {{")
-    # constructor
-    write_line(file, f"    {className}({fieldList}) {{")
+def split_fields(fieldList):
     fields = fieldList.split(",")
     if len(fields) == 1 and len(fields[0].strip()) == 0:
         fields = []
+    return fields
+
+
+def field_type(field):
+    return field.strip().rsplit(" ", 1)[0]
+
+
+def field_name(field):
+    return field.strip().rsplit(" ", 1)[1]
+
+
+def read_field(field):
+    type = field_type(field)
+    if type == "double":
+        return "in.readDouble()"
+    # read() already returns an Object, casting it to one would only be a redundant cast
+    if type == "Object":
+        return "in.read()"
+    return f"({type})in.read()"
+
+
+def define_type(file, baseName, className, kind, fieldList, annotationList):
+    write_line(file)
+    write_line(file, f"  static final class {className} extends {baseName} {{")
+    # constructor
+    write_line(file, f"    {className}({fieldList}) {{")
+    fields = split_fields(fieldList)
     for field in fields:
         name = field.strip().split(" ")[1]
         write_line(file, f"      this.{name} = {name};")
@@ -29,10 +52,32 @@ def define_type(file, baseName, className, fieldList):
     write_line(file, f"      return visitor.visit{className}{baseName}(this);")
     write_line(file, "    }")
 
+    # snapshot encoding, read back by the read() method of the base class; transient annotations are derived
+    # from the others and not part of a snapshot
+    annotations = [a for a in split_fields(annotationList) if not a.strip().startswith("transient ")]
+    write_line(file)
+    write_line(file, "    @Override")
+    write_line(file, "    void write(SnapshotWriter out) throws IOException {")
+    write_line(file, f"      out.writeKind({kind});")
+    for field in fields + annotations:
+        method = "writeDouble" if field_type(field) == "double" else "write"
+        write_line(file, f"      out.{method}({field_name(field)});")
+    write_line(file, "    }")
+
     # fields
+    # child expressions are not final so that the rewriting passes can replace them with fused nodes
     write_line(file)
     for field in fields:
-        write_line(file, f"    final {field.strip()};")
+        modifier = "" if field.strip().split(" ")[0] == "Expr" else "final "
+        write_line(file, f"    {modifier}{field.strip()};")
+
+    # annotations are filled in by the parser or the passes that run after it
+    annotations = split_fields(annotationList)
+    if len(annotations) > 0:
+        write_line(file)
+        write_line(file, "    // not part of the syntax, set by the parser or the passes that run after it")
+    for annotation in annotations:
+        write_line(file, f"    {annotation.strip()};")
     write_line(file, "  }")
 
 
@@ -46,28 +91,71 @@ def define_visitor(file, baseName, types):
     write_line(file, "  }")
 
 
-def define_ast(outputDir, baseName, types):
+def define_read(file, baseName, types):
+    write_line(file)
+    write_line(file, "  @SuppressWarnings(\"unchecked\")")
+    write_line(file, f"  static {baseName} read(SnapshotReader in) throws IOException {{")
+    write_line(file, "    final var kind = in.readKind();")
+    write_line(file, "    switch (kind) {")
+    for kind, type in enumerate(types):
+        parts = type.split(":")
+        className = parts[0].strip()
+        fields = split_fields(parts[1].strip())
+        annotations = split_fields(parts[2].strip()) if len(parts) > 2 else []
+        # the arguments are evaluated from left to right, in the order write() wrote them
+        arguments = ", ".join(read_field(field) for field in fields)
+        write_line(file, f"      case {kind}: {{")
+        write_line(file, f"        final var node = new {className}({arguments});")
+        for annotation in annotations:
+            if not annotation.strip().startswith("transient "):
+                write_line(file, f"        node.{field_name(annotation)} = {read_field(annotation)};")
+        write_line(file, "        return node;")
+        write_line(file, "      }")
+    write_line(file, "      default:")
+    write_line(file, f"        throw new StreamCorruptedException(\"unknown kind of {baseName}: \" + kind);")
+    write_line(file, "    }")
+    write_line(file, "  }")
+
+
+def define_ast(outputDir, baseName, resolution, types):
     path = f"{outputDir}/{baseName}.java"
     with open(path, "w") as file:
         write_line(file, "package com.craftinginterpreters.lox;")
         write_line(file)
         write_line(file, "import javax.annotation.processing.Generated;")
+        write_line(file, "import java.io.IOException;")
+        write_line(file, "import java.io.StreamCorruptedException;")
+        write_line(file, "import java.nio.file.Path;")
         write_line(file, "import java.util.List;")
         write_line(file)
         write_line(file, "@Generated(\"Tools/GenerateAst.py\")")
-        write_line(file, f"abstract class {baseName} {{")
+        # Sealed, with the node classes below as its only subclasses, so that a switch over the patterns of the
+        # node classes is exhaustive without a default, see PatternInterpreter.
+        write_line(file, f"abstract sealed class {baseName} {{")
         define_visitor(file, baseName, types)
 
+        # The resolution of every node lives with the node, so that it is dropped together with the AST.
+        write_line(file)
+        write_line(file, f"  // {resolution[0]}")
+        write_line(file, f"  {resolution[1]};")
+
         # The AST classes
-        for type in types:
-            className = type.split(":")[0].strip()
-            fields = type.split(":")[1].strip()
-            define_type(file, baseName, className, fields)
+        for kind, type in enumerate(types):
+            parts = type.split(":")
+            className = parts[0].strip()
+            fields = parts[1].strip()
+            annotations = parts[2].strip() if len(parts) > 2 else ""
+            define_type(file, baseName, className, kind, fields, annotations)
 
         # The base accept() method.
         write_line(file)
         write_line(file, "  abstract <R> R accept(Visitor<R> visitor);")
 
+        # The snapshot encoding, see Snapshot.
+        write_line(file)
+        write_line(file, "  abstract void write(SnapshotWriter out) throws IOException;")
+        define_read(file, baseName, types)
+
         write_line(file)
         write_line(file, "}")
 
@@ -77,33 +165,39 @@ def main():
         eprint(f"Usage: python {sys.argv[0]} <output directory>")
     else:
         outputDir = sys.argv[1]
-        define_ast(outputDir, "Expr", [
-            "Assign      : Token name, Expr value",
-            "Binary      : Expr left, Token operator, Expr right",
+        define_ast(outputDir, "Expr", ("the local variable the expression refers to, set by the Resolver", "Binding binding"), [
+            "Assign      : Token name, Expr value : transient Environment.Global global",
+            "Binary      : Expr left, Token operator, Expr right : StaticType operandType",
             "Logical     : Expr left, Token operator, Expr right",
-            "Call        : Expr callee, Token paren, List<Expr> arguments",
-            "Get         : Expr object, Token name",
-            "Set         : Expr object, Token name, Expr value",
+            "Call        : Expr callee, Token paren, List<Expr> arguments : transient Interpreter.ConstantCallee constantCallee",
+            "Get         : Expr object, Token name : ScalarField scalarField",
+            "Set         : Expr object, Token name, Expr value : ScalarField scalarField",
             "This        : Token keyword",
-            "Super       : Token keyword, Token method",
+            "Super       : Token keyword, Token method : transient Binding receiver",
             "Grouping    : Expr expression",
             "Literal     : Object value",
-            "Unary       : Token operator, Expr right",
+            "Unary       : Token operator, Expr right : StaticType operandType",
             "Conditional : Expr condition, Expr thenBranch, Expr elseBranch",
-            "Variable    : Token name"
+            "Variable    : Token name : StaticType type, transient Environment.Global global",
+            "IncrementLocal      : Expr.Assign original, Binding binding, double amount",
+            "CompareLocalToConst : Expr.Binary original, Binding binding, double constant",
+            "IncrementField      : Expr.Set original, Expr.Get field, double amount",
+            "InvokeMethod        : Expr.Call original, Expr.Get method"
         ])
-        define_ast(outputDir, "Stmt", [
+        define_ast(outputDir, "Stmt", ("the local variable the statement declares, set by the Resolver", "LocalVariable variable"), [
             "Expression  : Expr expression",
             "If          : Expr condition, Stmt thenBranch, Stmt elseBranch",
-            "While       : Expr loopCondition, Stmt loopBody",
+            "While       : Token keyword, Expr loopCondition, Stmt loopBody",
+            "For         : Token keyword, Stmt initializer, Expr loopCondition, Expr increment, Stmt loopBody",
             "Print       : Expr expression",
             "Block       : List<Stmt> statements",
             "Break       :",
             "Continue    :",
             "Return      : Expr value",
-            "Var         : Token name, Expr initializer",
-            "Fun         : Token name, List<Token> parameters, List<Stmt> functionBody",
-            "Class       : Token name, Expr.Variable superclass, List<Stmt.Fun> methods"
+            "Var         : Token name, Expr initializer : ScalarObject scalar",
+            "Fun         : Token name, List<Token> parameters, List<Stmt> functionBody : Parser.LazyBody lazyBody, FieldInitializer fieldInitializer, transient Executor compiledBody, transient FrameLayout layout",
+            "Class       : Token name, Expr.Variable superclass, List<Stmt.Fun> methods",
+            "Import      : Token keyword, Token path : transient Path module"
         ])
 
 
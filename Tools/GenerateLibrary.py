@@ -0,0 +1,73 @@
+import sys
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+def write_line(file, line=""):
+    file.write(f"{line}\n")
+
+
+# A function of about 20 lines with a loop, a branch and some arithmetic.
+def define_function(file, index):
+    write_line(file, f"fun function{index}(n) {{")
+    write_line(file, "    var sum = 0;")
+    write_line(file, "    for (var i = 0; i < n; i = i + 1) {")
+    write_line(file, "        if (i / 2 == 0) {")
+    write_line(file, f"            sum = sum + i * {index};")
+    write_line(file, "        } else {")
+    write_line(file, f"            sum = sum - {index};")
+    write_line(file, "        }")
+    write_line(file, "    }")
+    for line in range(8):
+        write_line(file, f"    sum = sum + {line} * n - (sum / {line + 2});")
+    write_line(file, "    return sum;")
+    write_line(file, "}")
+    write_line(file)
+
+
+# A class of about 20 lines with an initializer and two methods.
+def define_class(file, index):
+    write_line(file, f"class Class{index} {{")
+    write_line(file, "    init(x, y) {")
+    write_line(file, "        this.x = x;")
+    write_line(file, "        this.y = y;")
+    write_line(file, "    }")
+    write_line(file)
+    write_line(file, "    length() {")
+    write_line(file, "        return this.x * this.x + this.y * this.y;")
+    write_line(file, "    }")
+    write_line(file)
+    write_line(file, "    scale(factor) {")
+    write_line(file, "        var result = this;")
+    write_line(file, "        for (var i = 0; i < factor; i = i + 1) {")
+    write_line(file, f"            result = Class{index}(result.x * 2, result.y * 2);")
+    write_line(file, "        }")
+    write_line(file, "        return result;")
+    write_line(file, "    }")
+    write_line(file, "}")
+    write_line(file)
+
+
+def main():
+    if len(sys.argv) != 3:
+        eprint(f"Usage: python {sys.argv[0]} <lines> <output file>")
+        return
+    lines = int(sys.argv[1])
+    # every pair of a function and a class takes 39 lines
+    count = max(1, lines // 39)
+    with open(sys.argv[2], "w") as file:
+        write_line(file, f"// Generated by Tools/GenerateLibrary.py: {count} functions and {count} classes,")
+        write_line(file, "// of which the script at the end only uses a few.")
+        for index in range(count):
+            define_function(file, index)
+            define_class(file, index)
+        write_line(file, "var start = clock();")
+        write_line(file, "print function0(10) + function1(10);")
+        write_line(file, "print Class0(3, 4).length();")
+        write_line(file, "print Class1(1, 1).scale(3).length();")
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,67 @@
+import getpass
+import os
+import socket
+import struct
+import sys
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+EXIT = 0
+STDOUT = 1
+STDERR = 2
+
+
+def receive(connection, count):
+    data = bytearray()
+    while len(data) < count:
+        chunk = connection.recv(count - len(data))
+        if not chunk:
+            raise ConnectionError("the daemon closed the connection")
+        data += chunk
+    return bytes(data)
+
+
+def encode(value):
+    return struct.pack(">i", len(value)) + value
+
+
+# Runs a script on a jlox daemon (`jlox --daemon`) with the same arguments, output and exit code as jlox, see
+# LoxDaemon for the protocol. The socket is $JLOX_SOCKET, or the default socket of the daemon.
+def main():
+    arguments = [argument if argument.startswith("--") else os.path.abspath(argument) for argument in sys.argv[1:]]
+    has_script = any(not argument.startswith("--") for argument in sys.argv[1:])
+    stdin = b"" if has_script else sys.stdin.buffer.read()
+    path = os.environ.get("JLOX_SOCKET", f"/tmp/jlox-{getpass.getuser()}.sock")
+
+    with socket.socket(socket.AF_UNIX, socket.SOCK_STREAM) as connection:
+        try:
+            connection.connect(path)
+        except OSError as error:
+            eprint(f"Could not connect to the jlox daemon at {path}: {error}")
+            sys.exit(69)
+        request = struct.pack(">i", len(arguments))
+        for argument in arguments:
+            request += encode(argument.encode("utf-8"))
+        connection.sendall(request + encode(stdin))
+
+        while True:
+            kind = receive(connection, 1)[0]
+            value = struct.unpack(">i", receive(connection, 4))[0]
+            if kind == EXIT:
+                sys.stdout.flush()
+                sys.exit(value)
+            data = receive(connection, value)
+            if kind == STDOUT:
+                sys.stdout.buffer.write(data)
+            else:
+                # what the script printed before comes first
+                sys.stdout.buffer.flush()
+                sys.stderr.buffer.write(data)
+                sys.stderr.buffer.flush()
+
+
+if __name__ == "__main__":
+    main()
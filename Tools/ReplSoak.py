@@ -0,0 +1,81 @@
+import itertools
+import re
+import subprocess
+import sys
+import threading
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+# Lines a REPL session keeps evaluating: blocks with locals, closures and classes of their own, expressions and
+# assignments to a few globals, so that every kind of resolution is made over and over.
+SNIPPETS = [
+    "{{ var a = {i}; var b = a * 2; total = total + b; }}",
+    "{{ fun add(x) {{ return x + {i}; }} total = add(total) - {i}; }}",
+    "{{ var n = {i}; fun counter() {{ n = n + 1; return n; }} counter(); counter(); }}",
+    "{{ class P {{ init(x) {{ this.x = x; }} get() {{ return this.x; }} }} total = total + P({i}).get() - {i}; }}",
+    "{{ class Q < Base {{ get() {{ return super.get() + 1; }} }} total = total + Q().get() - 2; }}",
+    "total + {i} * 2",
+    "name = \"line \" + {i};",
+]
+PRELUDE = [
+    "var total = 0;",
+    "var name = nil;",
+    "class Base { get() { return 1; } }",
+]
+MARKER = "soak checkpoint"
+
+
+# the number and the size in kilobytes of the live objects, a class histogram collects the garbage first
+def live_objects(pid):
+    histogram = subprocess.run(["jcmd", str(pid), "GC.class_histogram"], capture_output=True, text=True,
+                               check=True).stdout
+    total = re.search(r"^Total\s+(\d+)\s+(\d+)", histogram, re.M)
+    return int(total.group(1)), int(total.group(2)) // 1024
+
+
+# Feeds a million lines to `jlox` without a script and prints the live heap after each hundred thousand,
+# which stays flat unless the REPL keeps something of every line. The command running jlox is given as the
+# arguments, for example `python Tools/ReplSoak.py java -cp build com.craftinginterpreters.lox.Lox`.
+def main():
+    if len(sys.argv) < 2:
+        eprint(f"Usage: python {sys.argv[0]} [--lines=<count>] <jlox command>...")
+        return
+    lines = 1_000_000
+    command = sys.argv[1:]
+    if command[0].startswith("--lines="):
+        lines = int(command[0][len("--lines="):])
+        command = command[1:]
+    checkpoint = max(lines // 10, 1)
+
+    process = subprocess.Popen(command, stdin=subprocess.PIPE, stdout=subprocess.PIPE, text=True, bufsize=1)
+    reached = threading.Semaphore(0)
+
+    # errors go to stderr, which is left to the console
+    def drain():
+        for line in process.stdout:
+            if MARKER in line:
+                reached.release()
+    threading.Thread(target=drain, daemon=True).start()
+
+    for line in PRELUDE:
+        process.stdin.write(line + "\n")
+    print(f"{'lines':>9} {'live objects':>14} {'live heap':>12}")
+    snippets = itertools.cycle(SNIPPETS)
+    for i in range(1, lines + 1):
+        process.stdin.write(next(snippets).format(i=i % 1000) + "\n")
+        if i % checkpoint == 0:
+            process.stdin.write(f"print \"{MARKER}\";\n")
+            process.stdin.flush()
+            # the heap is measured once the REPL has evaluated every line written so far
+            reached.acquire()
+            objects, kilobytes = live_objects(process.pid)
+            print(f"{i:>9} {objects:>14} {kilobytes:>10}KB", flush=True)
+    process.stdin.close()
+    process.wait()
+
+
+if __name__ == "__main__":
+    main()
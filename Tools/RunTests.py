@@ -0,0 +1,157 @@
+import os
+import re
+import shutil
+import subprocess
+import sys
+import tempfile
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+# Runs a tool of the JDK, from $JAVA_HOME if set and from the PATH otherwise.
+def tool(name):
+    home = os.environ.get("JAVA_HOME")
+    if home and os.path.exists(os.path.join(home, "bin", name)):
+        return os.path.join(home, "bin", name)
+    return name
+
+
+# jlox needs JDK 21, for the pattern switches over the sealed AST and the virtual threads of the daemon.
+JAVA_VERSION = 21
+
+
+# Exits with a message unless javac is of JAVA_VERSION or later, which it reports as "javac 21.0.1".
+def check_java_version():
+    try:
+        result = subprocess.run([tool("javac"), "-version"], capture_output=True, text=True)
+    except FileNotFoundError:
+        result = None
+    match = result and re.search(r"javac (\d+)", result.stdout + result.stderr)
+    if not match or int(match.group(1)) < JAVA_VERSION:
+        found = match.group(0) if match else "no javac"
+        eprint(f"jlox needs JDK {JAVA_VERSION} or later, found {found}: set JAVA_HOME to a JDK {JAVA_VERSION}")
+        sys.exit(1)
+
+
+ENGINES = ["tree", "closures", "patterns"]
+TIMEOUT_SECONDS = 60
+
+# What a test expects is written in comments:
+#   // expect: <line>         the next line the script prints to stdout
+#   // expect stderr: <line>  the next line it writes to stderr
+#   // expect exit: <code>    the exit code, 0 if there is none
+#   // args: <options>        options passed to jlox before the script
+# A file without any of them is not a test but a module the tests import.
+EXPECT = re.compile(r"// expect: ?(.*)$")
+EXPECT_STDERR = re.compile(r"// expect stderr: ?(.*)$")
+EXPECT_EXIT = re.compile(r"// expect exit: (\d+)")
+ARGS = re.compile(r"// args: (.*)$")
+
+
+class Test:
+    def __init__(self, path):
+        self.path = path
+        self.stdout = []
+        self.stderr = []
+        self.exit = None
+        self.args = []
+        with open(path, encoding="utf-8") as file:
+            for line in file:
+                if match := EXPECT.search(line):
+                    self.stdout.append(match.group(1))
+                elif match := EXPECT_STDERR.search(line):
+                    self.stderr.append(match.group(1))
+                elif match := EXPECT_EXIT.search(line):
+                    self.exit = int(match.group(1))
+                elif match := ARGS.search(line):
+                    self.args += match.group(1).split()
+
+    def is_test(self):
+        return bool(self.stdout or self.stderr or self.exit is not None)
+
+    # Runs the script from its own directory, so that the modules it imports are named relative to it. The
+    # differences to what it expected, empty if there are none.
+    def run(self, classes, engine):
+        command = [tool("java"), "-cp", classes, "com.craftinginterpreters.lox.Lox", f"--engine={engine}"] \
+            + self.args + [os.path.basename(self.path)]
+        try:
+            result = subprocess.run(command, cwd=os.path.dirname(self.path), capture_output=True, text=True,
+                                    timeout=TIMEOUT_SECONDS)
+        except subprocess.TimeoutExpired:
+            return [f"did not finish within {TIMEOUT_SECONDS} seconds"]
+        failures = compare("stdout", self.stdout, result.stdout.splitlines())
+        failures += compare("stderr", self.stderr, result.stderr.splitlines())
+        expected_exit = self.exit if self.exit is not None else 0
+        if result.returncode != expected_exit:
+            failures.append(f"expected exit code {expected_exit}, got {result.returncode}")
+        return failures
+
+
+def compare(stream, expected, actual):
+    failures = []
+    for i in range(max(len(expected), len(actual))):
+        want = expected[i] if i < len(expected) else None
+        got = actual[i] if i < len(actual) else None
+        if want != got:
+            failures.append(f"{stream} line {i + 1}: expected {want!r}, got {got!r}")
+    return failures
+
+
+def find_tests(paths):
+    tests = []
+    for path in paths:
+        if os.path.isdir(path):
+            for directory, _, files in os.walk(path):
+                tests += [os.path.join(directory, file) for file in files if file.endswith(".lox")]
+        else:
+            tests.append(path)
+    return [test for test in map(Test, sorted(os.path.abspath(path) for path in tests)) if test.is_test()]
+
+
+# Compiles jlox and runs the tests under test/, or the given tests and directories of tests, with every engine,
+# which all have to print the same. --engine=<name> only runs them with one.
+def main():
+    arguments = sys.argv[1:]
+    engines = ENGINES
+    if arguments and arguments[0].startswith("--engine="):
+        engines = [arguments[0][len("--engine="):]]
+        arguments = arguments[1:]
+        if engines[0] not in ENGINES:
+            eprint(f"Usage: python {sys.argv[0]} [--engine=tree|closures|patterns] [test...]")
+            sys.exit(64)
+    root = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+    tests = find_tests(arguments or [os.path.join(root, "test")])
+    check_java_version()
+
+    classes = tempfile.mkdtemp(prefix="jlox-tests-")
+    try:
+        sources = []
+        for directory, _, files in os.walk(os.path.join(root, "src")):
+            sources += [os.path.join(directory, file) for file in files if file.endswith(".java")]
+        if subprocess.run([tool("javac"), "-encoding", "UTF-8", "-d", classes] + sorted(sources)).returncode != 0:
+            eprint("javac failed")
+            sys.exit(1)
+        shutil.copytree(os.path.join(root, "src", "META-INF"), os.path.join(classes, "META-INF"))
+
+        failed = 0
+        for test in tests:
+            for engine in engines:
+                failures = test.run(classes, engine)
+                if failures:
+                    failed += 1
+                    print(f"FAIL {os.path.relpath(test.path, root)} with --engine={engine}")
+                    for failure in failures:
+                        print(f"  {failure}")
+    finally:
+        shutil.rmtree(classes, ignore_errors=True)
+
+    runs = len(tests) * len(engines)
+    print(f"{runs - failed} of {runs} runs passed ({len(tests)} tests, {len(engines)} engines)")
+    if failed:
+        sys.exit(1)
+
+
+if __name__ == "__main__":
+    main()
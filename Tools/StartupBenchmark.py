@@ -0,0 +1,82 @@
+import os
+import re
+import statistics
+import subprocess
+import sys
+import tempfile
+import time
+
+
+def eprint(*args, **kwargs):
+    print(*args, file=sys.stderr, **kwargs)
+
+
+# the workloads that need a deeper stack than the default one
+DEEP_WORKLOADS = {"deep_recursion.lox", "deep_tree.lox"}
+
+
+# Seconds until the first line of output and until the process exited.
+def measure(command):
+    start = time.perf_counter()
+    process = subprocess.Popen(command, stdout=subprocess.PIPE, stderr=subprocess.DEVNULL, text=True)
+    first_line = process.stdout.readline()
+    first_output = time.perf_counter() - start
+    rest = process.stdout.read()
+    process.wait()
+    return first_output, time.perf_counter() - start, first_line + rest
+
+
+# the sum of the times the benchmark scripts report themselves, which leaves out startup
+def reported_elapsed(output):
+    return sum(float(match) for match in re.findall(r"^[a-z ]+: ([0-9.eE+-]+)$", output, re.MULTILINE))
+
+
+# Compares the startup latency and the throughput of several jlox launchers, e.g. a JVM and a native executable:
+#   python Tools/StartupBenchmark.py 5 "jit=java -cp build/classes com.craftinginterpreters.lox.Lox" \
+#       native=build/jlox
+# --startup-only skips the benchmarks.
+def main():
+    arguments = sys.argv[1:]
+    startup_only = bool(arguments) and arguments[0] == "--startup-only"
+    if startup_only:
+        arguments = arguments[1:]
+    if len(arguments) < 2:
+        eprint(f"Usage: python {sys.argv[0]} [--startup-only] <repetitions> <name>=<command>...")
+        return
+    repetitions = int(arguments[0])
+    launchers = [argument.split("=", 1) for argument in arguments[1:]]
+    root = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+    benchmarks = os.path.join(root, "benchmarks")
+
+    with tempfile.NamedTemporaryFile("w", suffix=".lox", delete=False) as hello:
+        hello.write('print "hello";\n')
+    try:
+        print("time to first output of a one-line script, median of", repetitions, "runs")
+        for name, command in launchers:
+            times = [measure(command.split() + [hello.name])[0] for _ in range(repetitions)]
+            print(f"  {name:<10} {statistics.median(times) * 1000:8.1f} ms")
+    finally:
+        os.unlink(hello.name)
+    if startup_only:
+        return
+
+    print()
+    print("benchmarks, median of", repetitions, "runs: wall time / time reported by the script (s)")
+    print(f"  {'':<20}" + "".join(f"{name:>22}" for name, _ in launchers))
+    for workload in sorted(os.listdir(benchmarks)):
+        if not workload.endswith(".lox"):
+            continue
+        row = f"  {workload:<20}"
+        for name, command in launchers:
+            arguments = command.split()
+            if workload in DEEP_WORKLOADS:
+                arguments.append("--stack-size=4096")
+            runs = [measure(arguments + [os.path.join(benchmarks, workload)]) for _ in range(repetitions)]
+            wall = statistics.median(run[1] for run in runs)
+            reported = statistics.median(reported_elapsed(run[2]) for run in runs)
+            row += f"{wall:>13.2f} / {reported:>5.2f}"
+        print(row)
+
+
+if __name__ == "__main__":
+    main()
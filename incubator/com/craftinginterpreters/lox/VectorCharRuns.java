@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// CharRuns with the Vector API: compares as many characters as fit in a vector register at once and takes the
+// first one that ends the run from the mask of the comparison. What is left at the end of the source, less than
+// a vector, is scanned by the loops of CharRuns.
+//
+// Kept out of src, so that jlox compiles with plain javac: Tools/BuildCds.py compiles it on its own, against the
+// classes of src and with `--add-modules jdk.incubator.vector`. Only used when the JVM was started with the module
+// too, see CharRuns.create().
+final class VectorCharRuns extends CharRuns {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // Most blanks, identifiers and numbers are shorter than this, and the scalar loop finds their end sooner than
+    // loading a vector would. Only longer runs go on with vectors.
+    private static final int SHORT_RUN = 16;
+
+    @Override
+    int blankEnd(char[] chars, int from) {
+        final var i = blankEnd(chars, from, Math.min(from + SHORT_RUN, chars.length));
+        return i < from + SHORT_RUN ? i : vectorBlankEnd(chars, i);
+    }
+
+    private int vectorBlankEnd(char[] chars, int from) {
+        var i = from;
+        for (; i <= chars.length - LANES; i += LANES) {
+            final var vector = ShortVector.fromCharArray(SPECIES, chars, i);
+            final var end = vector.eq((short)' ').or(vector.eq((short)'\t')).or(vector.eq((short)'\r')).not();
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+        return super.blankEnd(chars, i);
+    }
+
+    @Override
+    int identifierEnd(char[] chars, int from) {
+        final var i = identifierEnd(chars, from, Math.min(from + SHORT_RUN, chars.length));
+        return i < from + SHORT_RUN ? i : vectorIdentifierEnd(chars, i);
+    }
+
+    private int vectorIdentifierEnd(char[] chars, int from) {
+        var i = from;
+        for (; i <= chars.length - LANES; i += LANES) {
+            final var vector = ShortVector.fromCharArray(SPECIES, chars, i);
+            // Setting the 0x20 bit turns upper case letters into lower case ones, and nothing else into a letter.
+            // Characters from 0x8000 up are negative shorts, which are below every range compared with.
+            final var lowerCase = vector.or((short)0x20);
+            final var letter = lowerCase.compare(VectorOperators.GE, 'a')
+                    .and(lowerCase.compare(VectorOperators.LE, 'z'));
+            final var digit = vector.compare(VectorOperators.GE, '0').and(vector.compare(VectorOperators.LE, '9'));
+            final var end = letter.or(digit).or(vector.eq((short)'_')).not();
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+        return super.identifierEnd(chars, i);
+    }
+
+    @Override
+    int digitsEnd(char[] chars, int from) {
+        final var i = digitsEnd(chars, from, Math.min(from + SHORT_RUN, chars.length));
+        return i < from + SHORT_RUN ? i : vectorDigitsEnd(chars, i);
+    }
+
+    private int vectorDigitsEnd(char[] chars, int from) {
+        var i = from;
+        for (; i <= chars.length - LANES; i += LANES) {
+            final var vector = ShortVector.fromCharArray(SPECIES, chars, i);
+            final var end = vector.compare(VectorOperators.LT, '0').or(vector.compare(VectorOperators.GT, '9'));
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+        return super.digitsEnd(chars, i);
+    }
+
+    @Override
+    int lineEnd(char[] chars, int from) {
+        final var i = lineEnd(chars, from, Math.min(from + SHORT_RUN, chars.length));
+        return i < from + SHORT_RUN ? i : vectorLineEnd(chars, i);
+    }
+
+    private int vectorLineEnd(char[] chars, int from) {
+        var i = from;
+        for (; i <= chars.length - LANES; i += LANES) {
+            final var end = ShortVector.fromCharArray(SPECIES, chars, i).eq((short)'\n');
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+        return super.lineEnd(chars, i);
+    }
+
+    @Override
+    int stringEnd(char[] chars, int from) {
+        final var i = stringEnd(chars, from, Math.min(from + SHORT_RUN, chars.length));
+        return i < from + SHORT_RUN ? i : vectorStringEnd(chars, i);
+    }
+
+    private int vectorStringEnd(char[] chars, int from) {
+        var i = from;
+        for (; i <= chars.length - LANES; i += LANES) {
+            final var vector = ShortVector.fromCharArray(SPECIES, chars, i);
+            final var end = vector.eq((short)'"').or(vector.eq((short)'\n'));
+            if (end.anyTrue()) {
+                return i + end.firstTrue();
+            }
+        }
+        return super.stringEnd(chars, i);
+    }
+}
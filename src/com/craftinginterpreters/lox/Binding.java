@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+// Where a resolved local variable lives at run time: either in a slot of the current frame or in one of
+// the cells captured by the currently executing closure.
+class Binding {
+    final LocalVariable local;
+    final int upvalue;
+
+    private Binding(LocalVariable local, int upvalue) {
+        this.local = local;
+        this.upvalue = upvalue;
+    }
+
+    static Binding local(LocalVariable local) {
+        return new Binding(local, -1);
+    }
+
+    static Binding upvalue(int index) {
+        return new Binding(null, index);
+    }
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+// Raised at the loop back edge or function call at which a run used up its step or time budget, see
+// Interpreter.limit(), or where it allocated more memory than HeapAccount.limit() allows.
+class BudgetExceeded extends RuntimeError {
+    BudgetExceeded(Token token, String message) {
+        super(token, message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+// Boxes a local variable that is captured by a closure, so that the frame declaring the variable and all
+// closures referring to it share the same storage.
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+// Finds where the runs of characters that the Scanner passes over in one go end: blanks, identifiers, digits,
+// the rest of a line comment and the characters of a string. The loops here look at one character at a time,
+// VectorCharRuns looks at a vector of them at once.
+class CharRuns {
+    // the characters of identifiers after the first, by character code
+    private static final boolean[] IDENTIFIER = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; ++c) {
+            IDENTIFIER[c] = true;
+            IDENTIFIER[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            IDENTIFIER[c] = true;
+        }
+        IDENTIFIER['_'] = true;
+    }
+
+    // The Vector API is an incubator module, which the JVM only resolves when it is started with
+    // `--add-modules jdk.incubator.vector`, and warns about when it does. VectorCharRuns is compiled apart from src
+    // and loaded reflectively, so that jlox builds and runs without the module, and only uses it when asked to.
+    static CharRuns create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (CharRuns)Class.forName("com.craftinginterpreters.lox.VectorCharRuns")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not compiled or not on the class path, the loops here find the same ends
+            }
+        }
+        return new CharRuns();
+    }
+
+    // the index of the first character from the given one that is not a space, tab or carriage return
+    int blankEnd(char[] chars, int from) {
+        return blankEnd(chars, from, chars.length);
+    }
+
+    final int blankEnd(char[] chars, int from, int to) {
+        var i = from;
+        while (i < to && (chars[i] == ' ' || chars[i] == '\t' || chars[i] == '\r')) {
+            ++i;
+        }
+        return i;
+    }
+
+    // the index of the first character from the given one that is not a letter, digit or underscore
+    int identifierEnd(char[] chars, int from) {
+        return identifierEnd(chars, from, chars.length);
+    }
+
+    final int identifierEnd(char[] chars, int from, int to) {
+        var i = from;
+        while (i < to && chars[i] < 128 && IDENTIFIER[chars[i]]) {
+            ++i;
+        }
+        return i;
+    }
+
+    // the index of the first character from the given one that is not a digit
+    int digitsEnd(char[] chars, int from) {
+        return digitsEnd(chars, from, chars.length);
+    }
+
+    final int digitsEnd(char[] chars, int from, int to) {
+        var i = from;
+        while (i < to && chars[i] >= '0' && chars[i] <= '9') {
+            ++i;
+        }
+        return i;
+    }
+
+    // the index of the next newline from the given index, the length if there is none
+    int lineEnd(char[] chars, int from) {
+        return lineEnd(chars, from, chars.length);
+    }
+
+    final int lineEnd(char[] chars, int from, int to) {
+        var i = from;
+        while (i < to && chars[i] != '\n') {
+            ++i;
+        }
+        return i;
+    }
+
+    // the index of the next quote or newline from the given index, the length if there is none
+    int stringEnd(char[] chars, int from) {
+        return stringEnd(chars, from, chars.length);
+    }
+
+    final int stringEnd(char[] chars, int from, int to) {
+        var i = from;
+        while (i < to && chars[i] != '"' && chars[i] != '\n') {
+            ++i;
+        }
+        return i;
+    }
+}
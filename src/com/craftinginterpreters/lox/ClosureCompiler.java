@@ -0,0 +1,795 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Compiles the resolved AST into a tree of closures, an alternative to walking the AST with the visitors of
+// the Interpreter. Everything the tree-walker looks up or decides on each visit is decided once here: the
+// operator of a binary expression selects a closure specialized for it, operands proven to be numbers are
+// evaluated unboxed, and frame slots, upvalue indices and global names are baked into the closures that
+// access them. The compiled code runs on the frames and cells of the Interpreter, so the few statements
+// that execute rarely (class declarations and the instantiation of scalar-replaced objects) are simply
+// handed to the tree-walker. The bodies of functions are compiled along with the code that declares them.
+public class ClosureCompiler implements Expr.Visitor<Evaluator>, Stmt.Visitor<Executor> {
+    // a compiled expression that is proven to produce a number
+    private interface NumberEvaluator {
+        double evaluate(Interpreter interpreter);
+    }
+
+    private interface Store {
+        void store(Interpreter interpreter, Object value);
+    }
+
+    private static final Evaluator[] NO_ARGUMENTS = new Evaluator[0];
+
+    // the interpreter holds the results of the resolver and is only consulted while compiling
+    private final Interpreter resolutions;
+
+    public ClosureCompiler(Interpreter interpreter) {
+        this.resolutions = interpreter;
+    }
+
+    Executor compile(List<Stmt> statements) {
+        final var executors = new Executor[statements.size()];
+        for (int i = 0; i < executors.length; ++i) {
+            executors[i] = compile(statements.get(i));
+        }
+        if (executors.length == 1) {
+            return executors[0];
+        }
+        return interpreter -> {
+            for (final var executor : executors) {
+                executor.execute(interpreter);
+            }
+        };
+    }
+
+    private Executor compile(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    private Evaluator compile(Expr expression) {
+        return expression.accept(this);
+    }
+
+    private Evaluator[] compileAll(List<Expr> expressions) {
+        if (expressions.isEmpty()) {
+            return NO_ARGUMENTS;
+        }
+        final var evaluators = new Evaluator[expressions.size()];
+        for (int i = 0; i < evaluators.length; ++i) {
+            evaluators[i] = compile(expressions.get(i));
+        }
+        return evaluators;
+    }
+
+    private static Object[] evaluateAll(Evaluator[] evaluators, Interpreter interpreter) {
+        final var values = new Object[evaluators.length];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = evaluators[i].evaluate(interpreter);
+        }
+        return values;
+    }
+
+    // the compiled counterpart of evaluateNumber() in the Interpreter
+    private NumberEvaluator compileNumber(Expr expression) {
+        if (expression instanceof Expr.Literal) {
+            final var value = (double)((Expr.Literal)expression).value;
+            return interpreter -> value;
+        }
+        if (expression instanceof Expr.Grouping) {
+            return compileNumber(((Expr.Grouping)expression).expression);
+        }
+        if (expression instanceof Expr.Variable && ((Expr.Variable)expression).type == StaticType.NUMBER) {
+            final var binding = resolutions.binding(expression);
+            if (binding != null && binding.local != null && !binding.local.captured) {
+                final var slot = binding.local.slot;
+                return interpreter -> (double)interpreter.frame[slot];
+            }
+        }
+        if (expression instanceof Expr.Unary) {
+            final var unary = (Expr.Unary)expression;
+            if (unary.operator.type == TokenType.MINUS && unary.operandType == StaticType.NUMBER) {
+                final var operand = compileNumber(unary.right);
+                return interpreter -> -operand.evaluate(interpreter);
+            }
+        }
+        if (expression instanceof Expr.Binary) {
+            final var binary = (Expr.Binary)expression;
+            if (binary.operandType == StaticType.NUMBER) {
+                final var left = compileNumber(binary.left);
+                final var right = compileNumber(binary.right);
+                switch (binary.operator.type) {
+                    case MINUS:
+                        return interpreter -> left.evaluate(interpreter) - right.evaluate(interpreter);
+                    case STAR:
+                        return interpreter -> left.evaluate(interpreter) * right.evaluate(interpreter);
+                    case PLUS:
+                        return interpreter -> left.evaluate(interpreter) + right.evaluate(interpreter);
+                    case SLASH: {
+                        final var operator = binary.operator;
+                        return interpreter -> {
+                            final var dividend = left.evaluate(interpreter);
+                            final var divisor = right.evaluate(interpreter);
+                            if (divisor == 0.0) {
+                                throw new RuntimeError(operator, "Division by 0.");
+                            }
+                            return dividend / divisor;
+                        };
+                    }
+                }
+            }
+        }
+        final var evaluator = compile(expression);
+        return interpreter -> (double)evaluator.evaluate(interpreter);
+    }
+
+    private static Evaluator read(Binding binding) {
+        if (binding.local == null) {
+            final var index = binding.upvalue;
+            return interpreter -> interpreter.upvalues[index].value;
+        }
+        final var slot = binding.local.slot;
+        if (binding.local.captured) {
+            return interpreter -> ((Cell)interpreter.frame[slot]).value;
+        }
+        return interpreter -> interpreter.frame[slot];
+    }
+
+    private static Store write(Binding binding) {
+        if (binding.local == null) {
+            final var index = binding.upvalue;
+            return (interpreter, value) -> interpreter.upvalues[index].value = value;
+        }
+        final var slot = binding.local.slot;
+        if (binding.local.captured) {
+            return (interpreter, value) -> ((Cell)interpreter.frame[slot]).value = value;
+        }
+        return (interpreter, value) -> interpreter.frame[slot] = value;
+    }
+
+    // stores the value of a declaration, creating the cell of a captured local
+    private Store define(Stmt declaration, Token name) {
+        final var variable = resolutions.declaration(declaration);
+        if (variable == null) {
+            return (interpreter, value) -> interpreter.globals.define(name, value);
+        }
+        final var slot = variable.slot;
+        if (variable.captured) {
+            return (interpreter, value) -> interpreter.frame[slot] = new Cell(value);
+        }
+        return (interpreter, value) -> interpreter.frame[slot] = value;
+    }
+
+    private Evaluator variable(Expr expression, Token name) {
+        final var binding = resolutions.binding(expression);
+        if (binding != null) {
+            return read(binding);
+        }
+        if (expression instanceof Expr.Variable) {
+            final var variable = (Expr.Variable)expression;
+            return interpreter -> interpreter.readGlobal(variable);
+        }
+        return interpreter -> {
+            if (!interpreter.globals.contains(name)) {
+                throw new RuntimeError(name, "Use of undeclared variable '" + name.lexeme + "'.");
+            }
+            return interpreter.globals.get(name);
+        };
+    }
+
+    private static Object call(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        if (callee instanceof NativeFunction) {
+            final var function = (NativeFunction)callee;
+            if (function.arity == arguments.length && function.arity <= NativeFunction.MAX_FAST_ARITY) {
+                return interpreter.callNative(paren, function,
+                        function.arity > 0 ? arguments[0] : null,
+                        function.arity > 1 ? arguments[1] : null,
+                        function.arity > 2 ? arguments[2] : null);
+            }
+        }
+        return interpreter.call(paren, callee, Arrays.asList(arguments));
+    }
+
+    // calls a native through its fixed-arity entry point with as many arguments as it takes
+    private static Object callNative(Interpreter interpreter, Token paren, NativeFunction function,
+                                     Evaluator[] arguments) {
+        final var first = arguments.length > 0 ? arguments[0].evaluate(interpreter) : null;
+        final var second = arguments.length > 1 ? arguments[1].evaluate(interpreter) : null;
+        final var third = arguments.length > 2 ? arguments[2].evaluate(interpreter) : null;
+        return interpreter.callNative(paren, function, first, second, third);
+    }
+
+    @Override
+    public Evaluator visitAssignExpr(Expr.Assign expr) {
+        final var value = compile(expr.value);
+        final var binding = resolutions.binding(expr);
+        if (binding != null) {
+            final var store = write(binding);
+            return interpreter -> {
+                final var result = value.evaluate(interpreter);
+                store.store(interpreter, result);
+                return result;
+            };
+        }
+        return interpreter -> {
+            final var result = value.evaluate(interpreter);
+            interpreter.assignGlobal(expr, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Evaluator visitBinaryExpr(Expr.Binary expr) {
+        final var operator = expr.operator;
+        if (expr.operandType == StaticType.NUMBER && operator.type != TokenType.COMMA) {
+            return numberBinary(expr);
+        }
+        final var left = compile(expr.left);
+        final var right = compile(expr.right);
+        switch (operator.type) {
+            case COMMA:
+                return interpreter -> {
+                    left.evaluate(interpreter);
+                    return right.evaluate(interpreter);
+                };
+            case BANG_EQUAL:
+                return interpreter -> !Interpreter.isEqual(left.evaluate(interpreter), right.evaluate(interpreter));
+            case EQUAL_EQUAL:
+                return interpreter -> Interpreter.isEqual(left.evaluate(interpreter), right.evaluate(interpreter));
+            case GREATER:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    return (double)first > (double)second;
+                };
+            case GREATER_EQUAL:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    return (double)first >= (double)second;
+                };
+            case LESS:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    return (double)first < (double)second;
+                };
+            case LESS_EQUAL:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    return (double)first <= (double)second;
+                };
+            case MINUS:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    return (double)first - (double)second;
+                };
+            case SLASH:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    if ((double)second == 0.0) {
+                        throw new RuntimeError(operator, "Division by 0.");
+                    }
+                    return (double)first / (double)second;
+                };
+            case STAR:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    Interpreter.checkNumberOperands(operator, first, second);
+                    return (double)first * (double)second;
+                };
+            case PLUS:
+                return interpreter -> {
+                    final var first = left.evaluate(interpreter);
+                    final var second = right.evaluate(interpreter);
+                    if (first instanceof Double && second instanceof Double) {
+                        return (double)first + (double)second;
+                    }
+                    if (first instanceof String || second instanceof String) {
+                        // "1" + true = "1true"
+                        return interpreter.heap.string(Interpreter.stringify(first) + Interpreter.stringify(second),
+                                operator);
+                    }
+                    throw new RuntimeError(operator, "Operator '+' is only supported for numbers and strings.");
+                };
+            default:
+                throw new IllegalStateException("unexpected binary operator " + operator.type);
+        }
+    }
+
+    private Evaluator numberBinary(Expr.Binary expr) {
+        final var left = compileNumber(expr.left);
+        final var right = compileNumber(expr.right);
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                return interpreter -> left.evaluate(interpreter) != right.evaluate(interpreter);
+            case EQUAL_EQUAL:
+                return interpreter -> left.evaluate(interpreter) == right.evaluate(interpreter);
+            case GREATER:
+                return interpreter -> left.evaluate(interpreter) > right.evaluate(interpreter);
+            case GREATER_EQUAL:
+                return interpreter -> left.evaluate(interpreter) >= right.evaluate(interpreter);
+            case LESS:
+                return interpreter -> left.evaluate(interpreter) < right.evaluate(interpreter);
+            case LESS_EQUAL:
+                return interpreter -> left.evaluate(interpreter) <= right.evaluate(interpreter);
+            default:
+                // arithmetic operators are specialized by compileNumber()
+                final var number = compileNumber(expr);
+                return interpreter -> number.evaluate(interpreter);
+        }
+    }
+
+    @Override
+    public Evaluator visitLogicalExpr(Expr.Logical expr) {
+        final var left = compile(expr.left);
+        final var right = compile(expr.right);
+        if (expr.operator.type == TokenType.AND) {
+            return interpreter -> {
+                final var value = left.evaluate(interpreter);
+                return Interpreter.isTruthy(value) ? right.evaluate(interpreter) : value;
+            };
+        }
+        return interpreter -> {
+            final var value = left.evaluate(interpreter);
+            return Interpreter.isTruthy(value) ? value : right.evaluate(interpreter);
+        };
+    }
+
+    @Override
+    public Evaluator visitCallExpr(Expr.Call expr) {
+        final var callee = compile(expr.callee);
+        final var arguments = compileAll(expr.arguments);
+        final var paren = expr.paren;
+        return interpreter -> {
+            final var constant = interpreter.constantCallee(expr);
+            if (constant != null) {
+                if (constant.function != null) {
+                    return interpreter.callFunction(paren, constant.function, constant.function.receiver, arguments);
+                }
+                return callNative(interpreter, paren, constant.nativeFunction, arguments);
+            }
+            final var function = callee.evaluate(interpreter);
+            interpreter.speculate(expr, function);
+            if (function instanceof LoxFunction) {
+                final var loxFunction = (LoxFunction)function;
+                if (Interpreter.canCallDirectly(loxFunction, arguments.length)) {
+                    return interpreter.callFunction(paren, loxFunction, loxFunction.receiver, arguments);
+                }
+            }
+            return call(interpreter, paren, function, evaluateAll(arguments, interpreter));
+        };
+    }
+
+    @Override
+    public Evaluator visitGetExpr(Expr.Get expr) {
+        final var object = compile(expr.object);
+        final var name = expr.name;
+        final var field = expr.scalarField;
+        if (field == null) {
+            return interpreter -> interpreter.property(name, object.evaluate(interpreter));
+        }
+        return interpreter -> {
+            if (interpreter.frame[field.object.classSlot] != null) {
+                final var value = interpreter.frame[field.slot];
+                if (value != ScalarObject.UNSET) {
+                    return value;
+                }
+                // not a field, so it is a method (which needs the instance to bind to) or an error
+                interpreter.materialize(field.object, name);
+            }
+            return interpreter.property(name, object.evaluate(interpreter));
+        };
+    }
+
+    @Override
+    public Evaluator visitSetExpr(Expr.Set expr) {
+        final var object = compile(expr.object);
+        final var value = compile(expr.value);
+        final var name = expr.name;
+        final var field = expr.scalarField;
+        return interpreter -> {
+            final var result = value.evaluate(interpreter);
+            if (field != null && interpreter.frame[field.object.classSlot] != null) {
+                interpreter.frame[field.slot] = result;
+                return result;
+            }
+            final var instance = object.evaluate(interpreter);
+            if (instance instanceof LoxInstance) {
+                ((LoxInstance)instance).set(name, result);
+                return result;
+            }
+            throw new RuntimeError(name, "Expression does not evaluate to an instance of an object.");
+        };
+    }
+
+    @Override
+    public Evaluator visitThisExpr(Expr.This expr) {
+        return variable(expr, expr.keyword);
+    }
+
+    @Override
+    public Evaluator visitSuperExpr(Expr.Super expr) {
+        final var superclass = read(resolutions.binding(expr));
+        final var receiver = read(resolutions.receiver(expr));
+        final var method = expr.method;
+        return interpreter -> {
+            final var function = ((LoxClass)superclass.evaluate(interpreter)).findMethod(method.lexeme);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+            return function.bind((LoxInstance)receiver.evaluate(interpreter));
+        };
+    }
+
+    @Override
+    public Evaluator visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Evaluator visitLiteralExpr(Expr.Literal expr) {
+        final var value = expr.value;
+        return interpreter -> value;
+    }
+
+    @Override
+    public Evaluator visitUnaryExpr(Expr.Unary expr) {
+        final var operator = expr.operator;
+        if (operator.type == TokenType.MINUS) {
+            if (expr.operandType == StaticType.NUMBER) {
+                final var number = compileNumber(expr);
+                return interpreter -> number.evaluate(interpreter);
+            }
+            final var operand = compile(expr.right);
+            return interpreter -> {
+                final var value = operand.evaluate(interpreter);
+                Interpreter.checkNumberOperand(operator, value);
+                return -(double)value;
+            };
+        }
+        final var operand = compile(expr.right);
+        return interpreter -> !Interpreter.isTruthy(operand.evaluate(interpreter));
+    }
+
+    @Override
+    public Evaluator visitConditionalExpr(Expr.Conditional expr) {
+        final var condition = compile(expr.condition);
+        final var thenBranch = compile(expr.thenBranch);
+        final var elseBranch = compile(expr.elseBranch);
+        return interpreter -> Interpreter.isTruthy(condition.evaluate(interpreter))
+                ? thenBranch.evaluate(interpreter)
+                : elseBranch.evaluate(interpreter);
+    }
+
+    @Override
+    public Evaluator visitVariableExpr(Expr.Variable expr) {
+        return variable(expr, expr.name);
+    }
+
+    @Override
+    public Evaluator visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        final var read = read(expr.binding);
+        final var store = write(expr.binding);
+        final var amount = expr.amount;
+        final var original = compile(expr.original);
+        final var statistics = resolutions.fusionStatistics();
+        return interpreter -> {
+            final var value = read.evaluate(interpreter);
+            if (value instanceof Double) {
+                if (statistics != null) {
+                    statistics.hit(NodeFusion.Pattern.INCREMENT_LOCAL);
+                }
+                final Object result = (double)value + amount;
+                store.store(interpreter, result);
+                return result;
+            }
+            if (statistics != null) {
+                statistics.fallback(NodeFusion.Pattern.INCREMENT_LOCAL);
+            }
+            return original.evaluate(interpreter);
+        };
+    }
+
+    @Override
+    public Evaluator visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        final var read = read(expr.binding);
+        final var constant = expr.constant;
+        final var original = compile(expr.original);
+        final var statistics = resolutions.fusionStatistics();
+        switch (expr.original.operator.type) {
+            case GREATER:
+                return interpreter -> {
+                    final var value = read.evaluate(interpreter);
+                    if (value instanceof Double) {
+                        hit(statistics);
+                        return (double)value > constant;
+                    }
+                    return fallback(interpreter, original, statistics);
+                };
+            case GREATER_EQUAL:
+                return interpreter -> {
+                    final var value = read.evaluate(interpreter);
+                    if (value instanceof Double) {
+                        hit(statistics);
+                        return (double)value >= constant;
+                    }
+                    return fallback(interpreter, original, statistics);
+                };
+            case LESS:
+                return interpreter -> {
+                    final var value = read.evaluate(interpreter);
+                    if (value instanceof Double) {
+                        hit(statistics);
+                        return (double)value < constant;
+                    }
+                    return fallback(interpreter, original, statistics);
+                };
+            default:
+                return interpreter -> {
+                    final var value = read.evaluate(interpreter);
+                    if (value instanceof Double) {
+                        hit(statistics);
+                        return (double)value <= constant;
+                    }
+                    return fallback(interpreter, original, statistics);
+                };
+        }
+    }
+
+    private static void hit(NodeFusion.Statistics statistics) {
+        if (statistics != null) {
+            statistics.hit(NodeFusion.Pattern.COMPARE_LOCAL_TO_CONST);
+        }
+    }
+
+    // the local is not a number, so the original comparison reports the error
+    private static Object fallback(Interpreter interpreter, Evaluator original, NodeFusion.Statistics statistics) {
+        if (statistics != null) {
+            statistics.fallback(NodeFusion.Pattern.COMPARE_LOCAL_TO_CONST);
+        }
+        return original.evaluate(interpreter);
+    }
+
+    @Override
+    public Evaluator visitIncrementFieldExpr(Expr.IncrementField expr) {
+        final var object = compile(expr.field.object);
+        final var name = expr.original.name;
+        final var amount = expr.amount;
+        final var original = compile(expr.original);
+        final var statistics = resolutions.fusionStatistics();
+        return interpreter -> {
+            final var target = object.evaluate(interpreter);
+            if (target instanceof LoxInstance) {
+                final var instance = (LoxInstance)target;
+                final var value = instance.field(name.lexeme);
+                if (value instanceof Double) {
+                    if (statistics != null) {
+                        statistics.hit(NodeFusion.Pattern.INCREMENT_FIELD);
+                    }
+                    final Object result = (double)value + amount;
+                    instance.set(name, result);
+                    return result;
+                }
+            }
+            if (statistics != null) {
+                statistics.fallback(NodeFusion.Pattern.INCREMENT_FIELD);
+            }
+            return original.evaluate(interpreter);
+        };
+    }
+
+    @Override
+    public Evaluator visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        final var object = compile(expr.method.object);
+        final var name = expr.method.name;
+        final var arguments = compileAll(expr.original.arguments);
+        final var paren = expr.original.paren;
+        final var statistics = resolutions.fusionStatistics();
+        return interpreter -> {
+            final var target = object.evaluate(interpreter);
+            if (target instanceof LoxInstance) {
+                final var instance = (LoxInstance)target;
+                if (!instance.hasField(name.lexeme)) {
+                    final var method = instance.klass.findMethod(name.lexeme);
+                    if (method != null) {
+                        if (statistics != null) {
+                            statistics.hit(NodeFusion.Pattern.INVOKE_METHOD);
+                        }
+                        if (Interpreter.canCallDirectly(method, arguments.length)) {
+                            return interpreter.callFunction(paren, method, instance, arguments);
+                        }
+                        return interpreter.invoke(paren, method, instance,
+                                Arrays.asList(evaluateAll(arguments, interpreter)));
+                    }
+                }
+            }
+            if (statistics != null) {
+                statistics.fallback(NodeFusion.Pattern.INVOKE_METHOD);
+            }
+            final var callee = interpreter.property(name, target);
+            return call(interpreter, paren, callee, evaluateAll(arguments, interpreter));
+        };
+    }
+
+    @Override
+    public Executor visitExpressionStmt(Stmt.Expression stmt) {
+        final var expression = compile(stmt.expression);
+        return expression::evaluate;
+    }
+
+    @Override
+    public Executor visitIfStmt(Stmt.If stmt) {
+        final var condition = compile(stmt.condition);
+        final var thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return interpreter -> {
+                if (Interpreter.isTruthy(condition.evaluate(interpreter))) {
+                    thenBranch.execute(interpreter);
+                }
+            };
+        }
+        final var elseBranch = compile(stmt.elseBranch);
+        return interpreter -> {
+            if (Interpreter.isTruthy(condition.evaluate(interpreter))) {
+                thenBranch.execute(interpreter);
+            } else {
+                elseBranch.execute(interpreter);
+            }
+        };
+    }
+
+    @Override
+    public Executor visitWhileStmt(Stmt.While stmt) {
+        final var condition = compile(stmt.loopCondition);
+        final var body = compile(stmt.loopBody);
+        final var keyword = stmt.keyword;
+        return interpreter -> {
+            while (Interpreter.isTruthy(condition.evaluate(interpreter))) {
+                interpreter.step(keyword);
+                try {
+                    body.execute(interpreter);
+                } catch (Interpreter.LoopBreak e) {
+                    break;
+                } catch (Interpreter.LoopContinue e) {
+                    continue;
+                }
+            }
+        };
+    }
+
+    @Override
+    public Executor visitForStmt(Stmt.For stmt) {
+        final Executor initializer = stmt.initializer != null ? compile(stmt.initializer) : interpreter -> {};
+        final Evaluator condition = stmt.loopCondition != null ? compile(stmt.loopCondition) : interpreter -> true;
+        final Evaluator increment = stmt.increment != null ? compile(stmt.increment) : interpreter -> null;
+        final var body = compile(stmt.loopBody);
+        final var keyword = stmt.keyword;
+        return interpreter -> {
+            initializer.execute(interpreter);
+            while (Interpreter.isTruthy(condition.evaluate(interpreter))) {
+                interpreter.step(keyword);
+                try {
+                    body.execute(interpreter);
+                } catch (Interpreter.LoopBreak e) {
+                    break;
+                } catch (Interpreter.LoopContinue e) {
+                    // the increment still runs after a continue
+                }
+                increment.evaluate(interpreter);
+            }
+        };
+    }
+
+    @Override
+    public Executor visitPrintStmt(Stmt.Print stmt) {
+        final var expression = compile(stmt.expression);
+        return interpreter -> interpreter.out.println(Interpreter.stringify(expression.evaluate(interpreter)));
+    }
+
+    @Override
+    public Executor visitBlockStmt(Stmt.Block stmt) {
+        return compile(stmt.statements);
+    }
+
+    @Override
+    public Executor visitBreakStmt(Stmt.Break stmt) {
+        return interpreter -> {
+            throw Interpreter.LOOP_BREAK;
+        };
+    }
+
+    @Override
+    public Executor visitContinueStmt(Stmt.Continue stmt) {
+        return interpreter -> {
+            throw Interpreter.LOOP_CONTINUE;
+        };
+    }
+
+    @Override
+    public Executor visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return interpreter -> {
+                throw interpreter.returning(null);
+            };
+        }
+        final var value = compile(stmt.value);
+        return interpreter -> {
+            throw interpreter.returning(value.evaluate(interpreter));
+        };
+    }
+
+    @Override
+    public Executor visitVarStmt(Stmt.Var stmt) {
+        if (stmt.scalar != null) {
+            // the tree-walker instantiates scalar-replaced objects directly into their slots
+            return stmt::accept;
+        }
+        final var name = stmt.name;
+        if (stmt.initializer == null && resolutions.declaration(stmt) == null) {
+            return interpreter -> interpreter.globals.define(name);
+        }
+        final var store = define(stmt, name);
+        if (stmt.initializer == null) {
+            return interpreter -> store.store(interpreter, null);
+        }
+        final var initializer = compile(stmt.initializer);
+        return interpreter -> store.store(interpreter, initializer.evaluate(interpreter));
+    }
+
+    // a deferred body is compiled once it has been parsed, see Parser.LazyBody
+    void compileBody(Stmt.Fun function) {
+        if (function.lazyBody == null) {
+            function.compiledBody = compile(function.functionBody);
+        }
+    }
+
+    @Override
+    public Executor visitFunStmt(Stmt.Fun stmt) {
+        compileBody(stmt);
+        final var variable = resolutions.declaration(stmt);
+        final var name = stmt.name;
+        // the function is defined before its closure is created so that it can capture itself
+        if (variable == null) {
+            return interpreter -> {
+                interpreter.globals.define(name, null);
+                interpreter.globals.initialize(name, interpreter.makeFunction(stmt, false, null));
+            };
+        }
+        final var slot = variable.slot;
+        if (variable.captured) {
+            return interpreter -> {
+                final var cell = new Cell(null);
+                interpreter.frame[slot] = cell;
+                cell.value = interpreter.makeFunction(stmt, false, null);
+            };
+        }
+        return interpreter -> interpreter.frame[slot] = interpreter.makeFunction(stmt, false, null);
+    }
+
+    @Override
+    public Executor visitClassStmt(Stmt.Class stmt) {
+        for (final var method : stmt.methods) {
+            compileBody(method);
+        }
+        // runs once per declaration, the methods created by the tree-walker execute their compiled bodies
+        return stmt::accept;
+    }
+
+    @Override
+    public Executor visitImportStmt(Stmt.Import stmt) {
+        // the module is compiled on its own, see ModuleLoader
+        return stmt::accept;
+    }
+}
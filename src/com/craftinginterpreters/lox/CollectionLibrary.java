@@ -0,0 +1,71 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import static com.craftinginterpreters.lox.NativeFunction.index;
+
+public class CollectionLibrary implements NativeLibrary {
+    @Override
+    public List<NativeFunction> functions() {
+        return List.of(
+                NativeFunction.of("List", (interpreter) -> new LoxList(interpreter.heap)),
+                NativeFunction.of("Map", (interpreter) -> new LoxMap(interpreter.heap)),
+                NativeFunction.of("len", (interpreter, value) -> {
+                    if (value instanceof String) {
+                        return (double)((String)value).length();
+                    }
+                    if (value instanceof LoxList) {
+                        return (double)((LoxList)value).size();
+                    }
+                    if (value instanceof LoxMap) {
+                        return (double)((LoxMap)value).size();
+                    }
+                    throw new NativeError("Argument to 'len' must be a string, a list or a map.");
+                }),
+                NativeFunction.of("push", (interpreter, list, value) -> {
+                    list("push", list).add(value);
+                    return value;
+                }),
+                NativeFunction.of("pop", (interpreter, list) -> {
+                    final var elements = list("pop", list);
+                    if (elements.size() == 0) {
+                        throw new NativeError("Cannot pop from an empty list.");
+                    }
+                    return elements.removeLast();
+                }),
+                NativeFunction.of("get", (interpreter, collection, key) -> {
+                    if (collection instanceof LoxList) {
+                        final var list = (LoxList)collection;
+                        return list.get(index("get", key, list.size()));
+                    }
+                    return map("get", collection).lookUp(key);
+                }),
+                NativeFunction.of("set", (interpreter, collection, key, value) -> {
+                    if (collection instanceof LoxList) {
+                        final var list = (LoxList)collection;
+                        list.set(index("set", key, list.size()), value);
+                    } else {
+                        map("set", collection).put(key, value);
+                    }
+                    return value;
+                }),
+                NativeFunction.of("has", (interpreter, map, key) -> map("has", map).has(key)),
+                NativeFunction.of("remove", (interpreter, map, key) -> map("remove", map).remove(key)),
+                NativeFunction.of("keys", (interpreter, map) -> map("keys", map).keys())
+        );
+    }
+
+    private static LoxList list(String function, Object value) {
+        if (value instanceof LoxList) {
+            return (LoxList)value;
+        }
+        throw new NativeError("Argument to '" + function + "' must be a list.");
+    }
+
+    private static LoxMap map(String function, Object value) {
+        if (value instanceof LoxMap) {
+            return (LoxMap)value;
+        }
+        throw new NativeError("Argument to '" + function + "' must be a map.");
+    }
+}
@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// How the analyzed AST is run, selected with --engine.
+enum Engine {
+    // walks the AST with the visitors of the Interpreter
+    TREE,
+    // runs the closures the ClosureCompiler compiles the AST to
+    CLOSURES,
+    // Walks the AST with the switches of the PatternInterpreter. It is slower than TREE on every benchmark, as its
+    // type switches cost more than accept() calls, and is kept to measure that dispatch against the visitors'.
+    PATTERNS;
+
+    // the engine of the given --engine name, null if there is none
+    static Engine named(String name) {
+        switch (name) {
+            case "tree":
+                return TREE;
+            case "closures":
+                return CLOSURES;
+            case "patterns":
+                return PATTERNS;
+            default:
+                return null;
+        }
+    }
+
+    // the compiled script, null if the engine walks the AST itself
+    Executor compile(Interpreter interpreter, List<Stmt> statements) {
+        switch (this) {
+            case CLOSURES:
+                return new ClosureCompiler(interpreter).compile(statements);
+            case PATTERNS:
+                return PatternInterpreter.compile(statements);
+            default:
+                return null;
+        }
+    }
+
+    // compiles a body that was parsed after the script, see Parser.LazyBody
+    void compileBody(Interpreter interpreter, Stmt.Fun function) {
+        switch (this) {
+            case CLOSURES:
+                new ClosureCompiler(interpreter).compileBody(function);
+                break;
+            case PATTERNS:
+                PatternInterpreter.compileBody(function);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -1,100 +1,126 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+// Holds the global variables. Locals are resolved to frame slots and never live in an Environment.
+//
+// Every global lives in a cell of its own that stays the same once it is defined, so the expressions reading
+// and assigning a global look its cell up once and keep it, see Expr.Variable.global.
 public class Environment {
-    private static class Uninitialized {
-    }
+    // the value of a global that is declared but not initialized yet
+    static final Object UNINITIALIZED = new Object();
+
+    static final class Global {
+        final Environment owner;
+        final String name;
+        Object value;
+        // Whether the global still has the value it was initialized with. Calls of a constant global can skip
+        // evaluating the callee, see Interpreter.visitCallExpr(); assigning the global clears it for good.
+        boolean constant = true;
+        // Whether a declaration of the same name may replace the global, which holds for the native functions
+        // only, so that scripts can declare functions and variables with the names of the natives.
+        boolean redefinable = false;
+
+        private Global(Environment owner, String name, Object value) {
+            this.owner = owner;
+            this.name = name;
+            this.value = value;
+        }
 
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+        Object get(Token name) {
+            final var value = this.value;
+            if (value == UNINITIALIZED) {
+                throw new RuntimeError(name, "Variable '" + name.lexeme + "' cannot be used before it is initialized.");
+            }
+            return value;
+        }
 
-    Environment() {
-        enclosing = null;
+        void assign(Object value) {
+            this.value = value;
+            constant = false;
+        }
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
+    private final Map<String, Global> values = new HashMap<>();
 
     void define(Token name) {
-        define(name, new Uninitialized());
+        define(name, UNINITIALIZED);
     }
 
+    // A declaration that replaces a native function keeps its cell, which expressions may have looked up
+    // already, and counts as an assignment, so that call sites that took the native for a constant let go of it.
     void define(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
+        final var global = values.get(name.lexeme);
+        if (global == null) {
+            values.put(name.lexeme, new Global(this, name.lexeme, value));
+        } else if (global.redefinable) {
+            global.assign(value);
+            global.redefinable = false;
+        } else {
             throw new RuntimeError(name, "A variable named '" + name.lexeme +  "' has already been declared before.");
         }
-        values.put(name.lexeme, value);
     }
 
+    // defines a native function, which declarations of the script may replace
     void defineByName(String name, Object value) {
         assert !values.containsKey(name);
-        values.put(name, value);
-    }
-
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        final var global = new Global(this, name, value);
+        global.redefinable = true;
+        values.put(name, global);
     }
 
-    private Environment ancestor(int distance) {
-        var current = this;
-        for (int i = 0; i < distance; ++i) {
-            assert current != null;
-            current = current.enclosing;
+    // sets a global restored from a snapshot, which may replace a native function of the same name
+    void restore(String name, Object value) {
+        final var global = values.get(name);
+        if (global != null) {
+            global.value = value;
+            global.redefinable = false;
+        } else {
+            values.put(name, new Global(this, name, value));
         }
-        assert current != null;
-        return current;
     }
 
-    boolean contains(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return true;
+    // the value of every global by name
+    Map<String, Object> values() {
+        final var values = new LinkedHashMap<String, Object>();
+        for (final var global : this.values.values()) {
+            values.put(global.name, global.value);
         }
+        return values;
+    }
 
-        if (enclosing != null) {
-            return enclosing.contains(name);
-        }
+    // the cell of a global, null if there is no such global
+    Global global(Token name) {
+        return values.get(name.lexeme);
+    }
 
-        return false;
+    boolean contains(Token name) {
+        return values.containsKey(name.lexeme);
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            final var value = values.get(name.lexeme);
-            if (value instanceof Uninitialized) {
-                throw new RuntimeError(name, "Variable '" + name.lexeme + "' cannot be used before it is initialized.");
-            }
-            return value;
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
+        final var global = values.get(name.lexeme);
+        if (global != null) {
+            return global.get(name);
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        final var global = values.get(name.lexeme);
+        if (global != null) {
+            global.assign(value);
             return;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        final var environment = ancestor(distance);
-        if (!environment.values.containsKey(name.lexeme)) {
-            throw new RuntimeError(name, "Trying to assign to an undefined variable '" + name.lexeme + "'.");
-        }
-        environment.values.put(name.lexeme, value);
+    // sets the value of a declaration that was defined before it was evaluated, which keeps it a constant
+    void initialize(Token name, Object value) {
+        values.get(name.lexeme).value = value;
     }
 }
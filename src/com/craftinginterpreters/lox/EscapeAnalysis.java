@@ -0,0 +1,392 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Finds local variables initialized with a call like 'var p = Point(1, 2);' whose value is only ever used
+// to read or write fields, e.g. 'p.x'. Such variables are scalar-replaced: if the callee turns out to be a
+// class with a trivial initializer, the interpreter keeps the fields in frame slots instead of allocating
+// a LoxInstance. Passing the value anywhere, returning it, reassigning the variable, calling a method on it
+// or capturing it in a closure makes it escape.
+public class EscapeAnalysis implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Candidate {
+        final Stmt.Var declaration;
+        final LocalVariable variable;
+        final FrameLayout layout;
+        final Set<String> fields = new LinkedHashSet<>();
+        final List<Expr> uses = new ArrayList<>();
+        boolean escapes = false;
+
+        Candidate(Stmt.Var declaration, LocalVariable variable, FrameLayout layout) {
+            this.declaration = declaration;
+            this.variable = variable;
+            this.layout = layout;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Map<LocalVariable, Candidate> candidates = new LinkedHashMap<>();
+    private FrameLayout currentLayout;
+
+    public EscapeAnalysis(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.currentLayout = interpreter.scriptLayout();
+    }
+
+    void analyze(List<Stmt> statements) {
+        analyzeAll(statements);
+        for (final var candidate : candidates.values()) {
+            if (!candidate.escapes) {
+                replace(candidate);
+            }
+        }
+    }
+
+    // analyzes the body of a function that was parsed on first use, see Parser.LazyBody
+    void analyzeBody(Stmt.Fun function, boolean isInitializer) {
+        analyzeFunction(function);
+        for (final var candidate : candidates.values()) {
+            if (!candidate.escapes) {
+                replace(candidate);
+            }
+        }
+        if (isInitializer) {
+            function.fieldInitializer = fieldInitializerOf(function);
+        }
+    }
+
+    private void replace(Candidate candidate) {
+        final var layout = candidate.layout;
+        final var classSlot = layout.slotCount++;
+        final var fieldSlots = new HashMap<String, Integer>();
+        for (final var field : candidate.fields) {
+            fieldSlots.put(field, layout.slotCount++);
+        }
+        final var object = new ScalarObject(candidate.variable.slot, classSlot, fieldSlots);
+        candidate.declaration.scalar = object;
+        for (final var use : candidate.uses) {
+            if (use instanceof Expr.Get) {
+                final var get = (Expr.Get)use;
+                get.scalarField = new ScalarField(object, fieldSlots.get(get.name.lexeme));
+            } else {
+                final var set = (Expr.Set)use;
+                set.scalarField = new ScalarField(object, fieldSlots.get(set.name.lexeme));
+            }
+        }
+    }
+
+    private void analyzeAll(List<Stmt> statements) {
+        for (final var statement : statements) {
+            analyze(statement);
+        }
+    }
+
+    private void analyze(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void analyze(Expr expression) {
+        expression.accept(this);
+    }
+
+    // returns the candidate the expression refers to if it is a plain read of a candidate variable
+    private Candidate candidateOf(Expr expression) {
+        if (!(expression instanceof Expr.Variable)) {
+            return null;
+        }
+        final var binding = interpreter.binding(expression);
+        if (binding == null || binding.local == null) {
+            return null;
+        }
+        return candidates.get(binding.local);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        final var binding = interpreter.binding(expr);
+        if (binding != null && binding.local != null && candidates.containsKey(binding.local)) {
+            candidates.get(binding.local).escapes = true;
+        }
+        analyze(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // calling a method passes the instance as 'this'
+            final var candidate = candidateOf(((Expr.Get)expr.callee).object);
+            if (candidate != null) {
+                candidate.escapes = true;
+            }
+        }
+        analyze(expr.callee);
+        for (final var argument : expr.arguments) {
+            analyze(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        final var candidate = candidateOf(expr.object);
+        if (candidate == null) {
+            analyze(expr.object);
+            return null;
+        }
+        candidate.fields.add(expr.name.lexeme);
+        candidate.uses.add(expr);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        final var candidate = candidateOf(expr.object);
+        if (candidate == null) {
+            analyze(expr.object);
+        } else {
+            candidate.fields.add(expr.name.lexeme);
+            candidate.uses.add(expr);
+        }
+        analyze(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        analyze(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        analyze(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        analyze(expr.condition);
+        analyze(expr.thenBranch);
+        analyze(expr.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        final var candidate = candidateOf(expr);
+        if (candidate != null) {
+            candidate.escapes = true;
+        }
+        return null;
+    }
+
+    // fused nodes are only created after this pass has run, each one stands for the node it replaced
+    @Override
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        analyze(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        analyze(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementFieldExpr(Expr.IncrementField expr) {
+        analyze(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        analyze(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        analyze(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        analyze(stmt.condition);
+        analyze(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            analyze(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        analyze(stmt.loopCondition);
+        analyze(stmt.loopBody);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            analyze(stmt.initializer);
+        }
+        if (stmt.loopCondition != null) {
+            analyze(stmt.loopCondition);
+        }
+        if (stmt.increment != null) {
+            analyze(stmt.increment);
+        }
+        analyze(stmt.loopBody);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        analyze(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        analyzeAll(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            analyze(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            analyze(stmt.initializer);
+        }
+        final var variable = interpreter.declaration(stmt);
+        if (variable != null && !variable.captured && stmt.initializer instanceof Expr.Call
+                && ((Expr.Call)stmt.initializer).callee instanceof Expr.Variable) {
+            candidates.put(variable, new Candidate(stmt, variable, currentLayout));
+        }
+        return null;
+    }
+
+    private void analyzeFunction(Stmt.Fun function) {
+        final var enclosingLayout = currentLayout;
+        currentLayout = interpreter.layout(function);
+        analyzeAll(function.functionBody);
+        currentLayout = enclosingLayout;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        analyzeFunction(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        for (final var method : stmt.methods) {
+            analyzeFunction(method);
+            // the field initializer of a deferred body is computed once it has been parsed
+            if (method.name.lexeme.equals("init") && method.lazyBody == null) {
+                method.fieldInitializer = fieldInitializerOf(method);
+            }
+        }
+        return null;
+    }
+
+    private FieldInitializer fieldInitializerOf(Stmt.Fun initializer) {
+        final var parameters = interpreter.layout(initializer).parameters;
+        final var fields = new LinkedHashMap<String, Expr>();
+        for (final var statement : initializer.functionBody) {
+            if (!(statement instanceof Stmt.Expression)
+                    || !(((Stmt.Expression)statement).expression instanceof Expr.Set)) {
+                return null;
+            }
+            final var set = (Expr.Set)((Stmt.Expression)statement).expression;
+            if (!(set.object instanceof Expr.This)) {
+                return null;
+            }
+            // a later store to the same field wins
+            fields.remove(set.name.lexeme);
+            fields.put(set.name.lexeme, set.value);
+        }
+
+        final var names = new String[fields.size()];
+        final var sources = new int[fields.size()];
+        final var literals = new Object[fields.size()];
+        var i = 0;
+        for (final var field : fields.entrySet()) {
+            names[i] = field.getKey();
+            final var value = field.getValue();
+            if (value instanceof Expr.Literal) {
+                sources[i] = -1;
+                literals[i] = ((Expr.Literal)value).value;
+            } else {
+                final var binding = value instanceof Expr.Variable ? interpreter.binding(value) : null;
+                if (binding == null || binding.local == null || !parameters.contains(binding.local)) {
+                    return null;
+                }
+                sources[i] = parameters.indexOf(binding.local);
+            }
+            ++i;
+        }
+        return new FieldInitializer(parameters.size(), names, sources, literals);
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+}
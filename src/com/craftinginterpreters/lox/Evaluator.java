@@ -0,0 +1,6 @@
+package com.craftinginterpreters.lox;
+
+// A compiled expression, see ClosureCompiler.
+interface Evaluator {
+    Object evaluate(Interpreter interpreter);
+}
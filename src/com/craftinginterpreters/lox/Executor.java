@@ -0,0 +1,6 @@
+package com.craftinginterpreters.lox;
+
+// A compiled statement, see ClosureCompiler.
+interface Executor {
+    void execute(Interpreter interpreter);
+}
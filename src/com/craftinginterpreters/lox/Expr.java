@@ -1,10 +1,13 @@
 package com.craftinginterpreters.lox;
 
 import javax.annotation.processing.Generated;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Path;
 import java.util.List;
 
 @Generated("Tools/GenerateAst.py")
-abstract class Expr {
+abstract sealed class Expr {
 
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
@@ -20,9 +23,16 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitConditionalExpr(Conditional expr);
     R visitVariableExpr(Variable expr);
+    R visitIncrementLocalExpr(IncrementLocal expr);
+    R visitCompareLocalToConstExpr(CompareLocalToConst expr);
+    R visitIncrementFieldExpr(IncrementField expr);
+    R visitInvokeMethodExpr(InvokeMethod expr);
   }
 
-  static class Assign extends Expr {
+  // the local variable the expression refers to, set by the Resolver
+  Binding binding;
+
+  static final class Assign extends Expr {
     Assign(Token name, Expr value) {
       this.name = name;
       this.value = value;
@@ -33,11 +43,21 @@ abstract class Expr {
       return visitor.visitAssignExpr(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(0);
+      out.write(name);
+      out.write(value);
+    }
+
     final Token name;
-    final Expr value;
+    Expr value;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    transient Environment.Global global;
   }
 
-  static class Binary extends Expr {
+  static final class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -49,12 +69,24 @@ abstract class Expr {
       return visitor.visitBinaryExpr(this);
     }
 
-    final Expr left;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(1);
+      out.write(left);
+      out.write(operator);
+      out.write(right);
+      out.write(operandType);
+    }
+
+    Expr left;
     final Token operator;
-    final Expr right;
+    Expr right;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    StaticType operandType;
   }
 
-  static class Logical extends Expr {
+  static final class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -66,12 +98,20 @@ abstract class Expr {
       return visitor.visitLogicalExpr(this);
     }
 
-    final Expr left;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(2);
+      out.write(left);
+      out.write(operator);
+      out.write(right);
+    }
+
+    Expr left;
     final Token operator;
-    final Expr right;
+    Expr right;
   }
 
-  static class Call extends Expr {
+  static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
       this.paren = paren;
@@ -83,12 +123,23 @@ abstract class Expr {
       return visitor.visitCallExpr(this);
     }
 
-    final Expr callee;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(3);
+      out.write(callee);
+      out.write(paren);
+      out.write(arguments);
+    }
+
+    Expr callee;
     final Token paren;
     final List<Expr> arguments;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    transient Interpreter.ConstantCallee constantCallee;
   }
 
-  static class Get extends Expr {
+  static final class Get extends Expr {
     Get(Expr object, Token name) {
       this.object = object;
       this.name = name;
@@ -99,11 +150,22 @@ abstract class Expr {
       return visitor.visitGetExpr(this);
     }
 
-    final Expr object;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(4);
+      out.write(object);
+      out.write(name);
+      out.write(scalarField);
+    }
+
+    Expr object;
     final Token name;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    ScalarField scalarField;
   }
 
-  static class Set extends Expr {
+  static final class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
       this.object = object;
       this.name = name;
@@ -115,12 +177,24 @@ abstract class Expr {
       return visitor.visitSetExpr(this);
     }
 
-    final Expr object;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(5);
+      out.write(object);
+      out.write(name);
+      out.write(value);
+      out.write(scalarField);
+    }
+
+    Expr object;
     final Token name;
-    final Expr value;
+    Expr value;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    ScalarField scalarField;
   }
 
-  static class This extends Expr {
+  static final class This extends Expr {
     This(Token keyword) {
       this.keyword = keyword;
     }
@@ -130,10 +204,16 @@ abstract class Expr {
       return visitor.visitThisExpr(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(6);
+      out.write(keyword);
+    }
+
     final Token keyword;
   }
 
-  static class Super extends Expr {
+  static final class Super extends Expr {
     Super(Token keyword, Token method) {
       this.keyword = keyword;
       this.method = method;
@@ -144,11 +224,21 @@ abstract class Expr {
       return visitor.visitSuperExpr(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(7);
+      out.write(keyword);
+      out.write(method);
+    }
+
     final Token keyword;
     final Token method;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    transient Binding receiver;
   }
 
-  static class Grouping extends Expr {
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
     }
@@ -158,10 +248,16 @@ abstract class Expr {
       return visitor.visitGroupingExpr(this);
     }
 
-    final Expr expression;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(8);
+      out.write(expression);
+    }
+
+    Expr expression;
   }
 
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
     }
@@ -171,10 +267,16 @@ abstract class Expr {
       return visitor.visitLiteralExpr(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(9);
+      out.write(value);
+    }
+
     final Object value;
   }
 
-  static class Unary extends Expr {
+  static final class Unary extends Expr {
     Unary(Token operator, Expr right) {
       this.operator = operator;
       this.right = right;
@@ -185,11 +287,22 @@ abstract class Expr {
       return visitor.visitUnaryExpr(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(10);
+      out.write(operator);
+      out.write(right);
+      out.write(operandType);
+    }
+
     final Token operator;
-    final Expr right;
+    Expr right;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    StaticType operandType;
   }
 
-  static class Conditional extends Expr {
+  static final class Conditional extends Expr {
     Conditional(Expr condition, Expr thenBranch, Expr elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -201,12 +314,20 @@ abstract class Expr {
       return visitor.visitConditionalExpr(this);
     }
 
-    final Expr condition;
-    final Expr thenBranch;
-    final Expr elseBranch;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(11);
+      out.write(condition);
+      out.write(thenBranch);
+      out.write(elseBranch);
+    }
+
+    Expr condition;
+    Expr thenBranch;
+    Expr elseBranch;
   }
 
-  static class Variable extends Expr {
+  static final class Variable extends Expr {
     Variable(Token name) {
       this.name = name;
     }
@@ -216,9 +337,201 @@ abstract class Expr {
       return visitor.visitVariableExpr(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(12);
+      out.write(name);
+      out.write(type);
+    }
+
     final Token name;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    StaticType type;
+    transient Environment.Global global;
+  }
+
+  static final class IncrementLocal extends Expr {
+    IncrementLocal(Expr.Assign original, Binding binding, double amount) {
+      this.original = original;
+      this.binding = binding;
+      this.amount = amount;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIncrementLocalExpr(this);
+    }
+
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(13);
+      out.write(original);
+      out.write(binding);
+      out.writeDouble(amount);
+    }
+
+    final Expr.Assign original;
+    final Binding binding;
+    final double amount;
+  }
+
+  static final class CompareLocalToConst extends Expr {
+    CompareLocalToConst(Expr.Binary original, Binding binding, double constant) {
+      this.original = original;
+      this.binding = binding;
+      this.constant = constant;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitCompareLocalToConstExpr(this);
+    }
+
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(14);
+      out.write(original);
+      out.write(binding);
+      out.writeDouble(constant);
+    }
+
+    final Expr.Binary original;
+    final Binding binding;
+    final double constant;
+  }
+
+  static final class IncrementField extends Expr {
+    IncrementField(Expr.Set original, Expr.Get field, double amount) {
+      this.original = original;
+      this.field = field;
+      this.amount = amount;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIncrementFieldExpr(this);
+    }
+
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(15);
+      out.write(original);
+      out.write(field);
+      out.writeDouble(amount);
+    }
+
+    final Expr.Set original;
+    final Expr.Get field;
+    final double amount;
+  }
+
+  static final class InvokeMethod extends Expr {
+    InvokeMethod(Expr.Call original, Expr.Get method) {
+      this.original = original;
+      this.method = method;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitInvokeMethodExpr(this);
+    }
+
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(16);
+      out.write(original);
+      out.write(method);
+    }
+
+    final Expr.Call original;
+    final Expr.Get method;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
 
+  abstract void write(SnapshotWriter out) throws IOException;
+
+  @SuppressWarnings("unchecked")
+  static Expr read(SnapshotReader in) throws IOException {
+    final var kind = in.readKind();
+    switch (kind) {
+      case 0: {
+        final var node = new Assign((Token)in.read(), (Expr)in.read());
+        return node;
+      }
+      case 1: {
+        final var node = new Binary((Expr)in.read(), (Token)in.read(), (Expr)in.read());
+        node.operandType = (StaticType)in.read();
+        return node;
+      }
+      case 2: {
+        final var node = new Logical((Expr)in.read(), (Token)in.read(), (Expr)in.read());
+        return node;
+      }
+      case 3: {
+        final var node = new Call((Expr)in.read(), (Token)in.read(), (List<Expr>)in.read());
+        return node;
+      }
+      case 4: {
+        final var node = new Get((Expr)in.read(), (Token)in.read());
+        node.scalarField = (ScalarField)in.read();
+        return node;
+      }
+      case 5: {
+        final var node = new Set((Expr)in.read(), (Token)in.read(), (Expr)in.read());
+        node.scalarField = (ScalarField)in.read();
+        return node;
+      }
+      case 6: {
+        final var node = new This((Token)in.read());
+        return node;
+      }
+      case 7: {
+        final var node = new Super((Token)in.read(), (Token)in.read());
+        return node;
+      }
+      case 8: {
+        final var node = new Grouping((Expr)in.read());
+        return node;
+      }
+      case 9: {
+        final var node = new Literal(in.read());
+        return node;
+      }
+      case 10: {
+        final var node = new Unary((Token)in.read(), (Expr)in.read());
+        node.operandType = (StaticType)in.read();
+        return node;
+      }
+      case 11: {
+        final var node = new Conditional((Expr)in.read(), (Expr)in.read(), (Expr)in.read());
+        return node;
+      }
+      case 12: {
+        final var node = new Variable((Token)in.read());
+        node.type = (StaticType)in.read();
+        return node;
+      }
+      case 13: {
+        final var node = new IncrementLocal((Expr.Assign)in.read(), (Binding)in.read(), in.readDouble());
+        return node;
+      }
+      case 14: {
+        final var node = new CompareLocalToConst((Expr.Binary)in.read(), (Binding)in.read(), in.readDouble());
+        return node;
+      }
+      case 15: {
+        final var node = new IncrementField((Expr.Set)in.read(), (Expr.Get)in.read(), in.readDouble());
+        return node;
+      }
+      case 16: {
+        final var node = new InvokeMethod((Expr.Call)in.read(), (Expr.Get)in.read());
+        return node;
+      }
+      default:
+        throw new StreamCorruptedException("unknown kind of Expr: " + kind);
+    }
+  }
+
 }
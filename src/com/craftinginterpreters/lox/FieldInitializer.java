@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+// Summary of an initializer that does nothing but store parameters or literals into fields of 'this', e.g.
+// init(x, y) { this.x = x; this.y = y; }
+// Running it cannot observe the instance, so it can be applied to a scalar-replaced object directly.
+class FieldInitializer {
+    static final FieldInitializer EMPTY = new FieldInitializer(0, new String[0], new int[0], new Object[0]);
+
+    final int arity;
+    final String[] fields;
+    // index of the parameter whose argument is stored in the field, or -1 if it is a literal
+    final int[] parameters;
+    final Object[] literals;
+
+    FieldInitializer(int arity, String[] fields, int[] parameters, Object[] literals) {
+        this.arity = arity;
+        this.fields = fields;
+        this.parameters = parameters;
+        this.literals = literals;
+    }
+}
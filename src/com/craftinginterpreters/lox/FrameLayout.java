@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Computed by the resolver for every function (and for the top level of a script): the number of frame
+// slots needed by its locals and how a closure of it captures the cells of enclosing variables.
+class FrameLayout {
+    int slotCount = 0;
+    LocalVariable receiver;
+    LocalVariable superclass;
+    final List<LocalVariable> parameters = new ArrayList<>();
+    final List<Binding> upvalues = new ArrayList<>();
+}
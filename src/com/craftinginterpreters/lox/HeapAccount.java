@@ -0,0 +1,249 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// The memory the Lox values of an interpreter hold: instances and the fields added to them, the frames of the
+// calls in progress, strings built by '+' and by natives, lists and maps. The sizes are estimates of the JVM
+// objects behind them on a 64-bit JVM with compressed references.
+//
+// Frames are given back when their call returns. Every other value is only accounted while the account tracks
+// values, which it does once a limit is set or trackValues() is called, so that a run without either allocates
+// nothing for it. A tracked value holds a phantom reference, which the JVM enqueues once it collected the value,
+// and is given back when the account next looks at the queue. The JVM collects when it runs short of memory, not
+// when a run does, so the limit counts the garbage the JVM has not collected yet too.
+class HeapAccount {
+    static final long INSTANCE_BYTES = 72;  // LoxInstance and its empty HashMap
+    static final long FIELD_BYTES = 40;     // a HashMap node and its share of the table
+    static final long STRING_BYTES = 40;    // String and the header of its byte[], plus one byte per character
+    static final long LIST_BYTES = 24;
+    static final long MAP_BYTES = 32;
+    static final long ARRAY_BYTES = 16;     // header of an array, plus 4 bytes per reference or int and 8 per double
+    // how long to wait for the JVM to enqueue the references of what it collected, see print()
+    private static final long ENQUEUE_WAIT_MILLIS = 10;
+
+    // what one kind of value holds, the count is of the values alive or, for frames, of those in use
+    static final class Usage {
+        final String kind;
+        long count = 0;
+        long bytes = 0;
+        private final HeapAccount account;
+
+        private Usage(HeapAccount account, String kind) {
+            this.account = account;
+            this.kind = kind;
+        }
+
+        // a new frame, the token is reported if the limit is exceeded, null for natives to report
+        void allocate(long size, Token token) {
+            account.charge(size, token);
+            bytes += size;
+            ++count;
+        }
+
+        // a frame that does not take up memory anymore
+        void free(long size) {
+            --count;
+            bytes -= size;
+            account.used -= size;
+        }
+    }
+
+    // A value that holds memory until the JVM collected it. The account keeps the references in an array of its own
+    // until then, since a phantom reference that is collected itself is never enqueued.
+    static final class Tracked extends PhantomReference<Object> {
+        private final Usage usage;
+        private long bytes;
+        // where the account keeps the reference
+        private int slot;
+
+        private Tracked(Object value, Usage usage, long bytes) {
+            super(value, usage.account.collected);
+            this.usage = usage;
+            this.bytes = bytes;
+        }
+
+        // the value grew by the given number of bytes, or shrank by a negative number
+        void grow(long size, Token token) {
+            if (size > 0) {
+                usage.account.charge(size, token);
+            } else {
+                usage.account.used += size;
+            }
+            bytes += size;
+            usage.bytes += size;
+        }
+    }
+
+    final Usage frames = new Usage(this, "frames");
+    final Usage strings = new Usage(this, "strings");
+    final Usage lists = new Usage(this, "lists");
+    final Usage maps = new Usage(this, "maps");
+    // weak, so that the classes declared by the lines of a long REPL session can go away again
+    private final Map<LoxClass, Usage> classes = new WeakHashMap<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    // the values alive, in no particular order
+    private Tracked[] tracked = new Tracked[64];
+    private int alive = 0;
+    private long used = 0;
+    private long limit = Long.MAX_VALUE;
+    private boolean tracking = false;
+
+    // limits the bytes in use to the given number, 0 means no limit
+    void limit(long bytes) {
+        limit = bytes > 0 ? bytes : Long.MAX_VALUE;
+        if (bytes > 0) {
+            trackValues();
+        }
+    }
+
+    // accounts for the values created from now on, and not only for the frames
+    void trackValues() {
+        tracking = true;
+    }
+
+    long used() {
+        release();
+        return used;
+    }
+
+    // the instances of a class
+    Usage instances(LoxClass klass) {
+        // a class only ever belongs to one interpreter, unless it was restored from a snapshot by another one
+        if (klass.usage == null || klass.usage.account != this) {
+            klass.usage = classes.computeIfAbsent(klass, key -> new Usage(this, "instances of " + key.name));
+        }
+        release();
+        return klass.usage;
+    }
+
+    LoxInstance instantiate(LoxClass klass, Token token) {
+        final var instance = new LoxInstance(klass);
+        if (tracking) {
+            instance.tracked = track(instance, instances(klass), INSTANCE_BYTES, token);
+        }
+        return instance;
+    }
+
+    String string(String string, Token token) {
+        if (tracking) {
+            track(string, strings, STRING_BYTES + string.length(), token);
+        }
+        return string;
+    }
+
+    // A new value of the given size, the token is reported if it exceeds the limit, null for natives to report. Null
+    // if the account does not track values.
+    Tracked track(Object value, Usage usage, long size, Token token) {
+        if (!tracking) {
+            return null;
+        }
+        release();
+        charge(size, token);
+        final var reference = new Tracked(value, usage, size);
+        if (alive == tracked.length) {
+            tracked = Arrays.copyOf(tracked, alive * 2);
+        }
+        reference.slot = alive;
+        tracked[alive++] = reference;
+        ++usage.count;
+        usage.bytes += size;
+        return reference;
+    }
+
+    static long frameBytes(int slots) {
+        return ARRAY_BYTES + 4L * slots;
+    }
+
+    // counts the given number of bytes towards the limit, the token is reported if they exceed it, null for
+    // natives to report
+    private void charge(long size, Token token) {
+        reserve(size, token);
+        used += size;
+    }
+
+    // Fails like charge() unless the given number of bytes fit into the limit, for natives to check before they
+    // build a value that may not even fit into the memory of the JVM. The account does not have the JVM collect,
+    // which would stop every other run in the same JVM too, it only gives back what the JVM collected already.
+    void reserve(long size, Token token) {
+        if (size > limit - used) {
+            release();
+            if (size > limit - used) {
+                final var message = "Memory limit of " + limit + " bytes exceeded.";
+                if (token == null) {
+                    throw new NativeError(message);
+                }
+                throw new BudgetExceeded(token, message);
+            }
+        }
+    }
+
+    // gives back the memory of the values the JVM has collected
+    private void release() {
+        for (var reference = (Tracked)collected.poll(); reference != null; reference = (Tracked)collected.poll()) {
+            forget(reference);
+        }
+    }
+
+    // Has the JVM collect and gives back what it collected, for the statistics at the end of a run of jlox. The JVM
+    // enqueues the references on a thread of its own after the collection, so this waits until no more come in for
+    // a moment.
+    private void collect() {
+        System.gc();
+        try {
+            for (var reference = collected.remove(ENQUEUE_WAIT_MILLIS); reference != null;
+                 reference = collected.remove(ENQUEUE_WAIT_MILLIS)) {
+                forget((Tracked)reference);
+                release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forget(Tracked reference) {
+        // the last reference takes the slot of the forgotten one
+        final var last = tracked[--alive];
+        tracked[reference.slot] = last;
+        last.slot = reference.slot;
+        tracked[alive] = null;
+        --reference.usage.count;
+        reference.usage.bytes -= reference.bytes;
+        used -= reference.bytes;
+    }
+
+    // every kind that holds memory, the largest first
+    List<Usage> usages() {
+        release();
+        final var usages = new ArrayList<Usage>();
+        for (final var usage : List.of(frames, strings, lists, maps)) {
+            if (usage.count > 0 || usage.bytes > 0) {
+                usages.add(usage);
+            }
+        }
+        for (final var usage : classes.values()) {
+            if (usage.count > 0) {
+                usages.add(usage);
+            }
+        }
+        usages.sort(Comparator.comparingLong((Usage usage) -> usage.bytes).reversed());
+        return usages;
+    }
+
+    // the values alive at the end of a run, so garbage the JVM has not collected yet is collected first
+    void print() {
+        collect();
+        final var usages = usages();
+        System.err.println(String.format("%-30s %9s %12s", "kind", "alive", "bytes"));
+        for (final var usage : usages) {
+            System.err.println(String.format("%-30s %9d %12d", usage.kind, usage.count, usage.bytes));
+        }
+        System.err.println(String.format("%-30s %9s %12d", "total", "", used));
+    }
+}
@@ -1,54 +1,152 @@
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    private static class LoopBreak extends RuntimeException { }
-    private static class LoopContinue extends RuntimeException { }
+    // break and continue carry no state, so a single stackless instance of each is thrown
+    static class LoopBreak extends RuntimeException {
+        LoopBreak() {
+            super(null, null, false, false);
+        }
+    }
+    static class LoopContinue extends RuntimeException {
+        LoopContinue() {
+            super(null, null, false, false);
+        }
+    }
+    static final LoopBreak LOOP_BREAK = new LoopBreak();
+    static final LoopContinue LOOP_CONTINUE = new LoopContinue();
+    // the value travels with the exception until the call catches it right away, so every interpreter can
+    // reuse a single instance, see returning()
     public static class Return extends RuntimeException {
-        private final Object value;
+        private Object value;
 
-        public Return(Object value) {
+        Return() {
             super(null, null, false, false);
-            this.value = value;
         }
 
         public Object getValue() {
+            final var value = this.value;
+            this.value = null;
             return value;
         }
     }
 
+    // A call site whose callee is a global that was never reassigned, with the function it holds. For as long as
+    // the global stays a constant, the call takes the function from here without evaluating the callee or
+    // checking how to call it again.
+    static final class ConstantCallee {
+        final Environment.Global global;
+        // callable with callFunction(), or else a native callable through its fixed-arity entry point
+        final LoxFunction function;
+        final NativeFunction nativeFunction;
+
+        ConstantCallee(Environment.Global global, LoxFunction function, NativeFunction nativeFunction) {
+            this.global = global;
+            this.function = function;
+            this.nativeFunction = nativeFunction;
+        }
+    }
+
+    private static final Object[] EMPTY_FRAME = new Object[0];
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+    // frames of calls deeper than this are not pooled, so deep recursion does not pin its frames for good
+    private static final int MAX_POOLED_DEPTH = 1024;
+    // how many steps may run between two looks at the clock when a run has a time limit
+    private static final int STEPS_PER_CLOCK_CHECK = 1024;
+
     final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final HashMap<Expr, Integer> locals = new HashMap<>();
+    // the frame and the captured cells of the executing function, shared by the tree-walker and compiled code
+    Object[] frame = EMPTY_FRAME;
+    Cell[] upvalues = NO_UPVALUES;
+    // where print statements write to
+    final PrintStream out = Lox.runState().out;
+    // the memory the values of this interpreter take up
+    final HeapAccount heap = new HeapAccount();
+    // how the script and the bodies parsed later are run
+    Engine engine = Engine.TREE;
+    // The layout of the frame of the top-level code. Everything else the Resolver finds out is kept by the
+    // nodes of the AST, so that it goes away together with the code, see resolve().
+    private FrameLayout scriptLayout;
+    // the modules the code may import, by path, and the ones it has imported, see visitImportStmt()
+    private final Map<Path, LoxModule> modules = new HashMap<>();
+    private final Set<Path> importedModules = new HashSet<>();
+    // the functions of the native libraries by name, also when a global of the same name was reassigned
+    private final HashMap<String, NativeFunction> natives = new HashMap<>();
+    // Frames of calls that have returned, indexed by call depth. A frame never outlives its call: captured
+    // variables live in cells and the frame only holds a reference to them, so it can be reused right away.
+    private Object[][] framePool = new Object[16][];
+    private int callDepth = 0;
+    private final Return returnSignal = new Return();
+    // counts how the fused nodes execute, null unless the statistics were requested
+    private NodeFusion.Statistics fusionStatistics = null;
+    // The budget of a run, see limit(). Every loop iteration and call is a step that counts down stepsUntilCheck,
+    // and only when that runs out does checkBudget() look at the limits and hand out the next batch of steps.
+    // Without limits a batch is as large as it gets, so the steps cost a decrement and a branch that is never
+    // taken.
+    private int stepsUntilCheck = Integer.MAX_VALUE;
+    private long maxSteps = Long.MAX_VALUE;
+    private long stepsLeft = Long.MAX_VALUE;
+    private long deadline = 0;
+    private long timeLimit = 0;
 
     Interpreter() {
-        globals.defineByName("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        this(new FrameLayout());
+        defineNatives();
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    // A new interpreter for another run of the script the given one has resolved. The resolution of the AST is
+    // not modified anymore once the script was analyzed, unless bodies are parsed lazily.
+    Interpreter(Interpreter resolved) {
+        this(resolved.scriptLayout);
+        engine = resolved.engine;
+        defineNatives();
+    }
+
+    private Interpreter(FrameLayout scriptLayout) {
+        this.scriptLayout = scriptLayout;
+    }
+
+    // An interpreter that only analyzes code for others to run, see ModuleLoader. It has no native functions:
+    // the analysis does not look at globals, and loading the libraries takes longer than analyzing a module.
+    static Interpreter analyzer(Engine engine) {
+        final var interpreter = new Interpreter(new FrameLayout());
+        interpreter.engine = engine;
+        return interpreter;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
+    private void defineNatives() {
+        for (final var library : ServiceLoader.load(NativeLibrary.class, Interpreter.class.getClassLoader())) {
+            for (final var function : library.functions()) {
+                globals.defineByName(function.name, function);
+                natives.put(function.name, function);
             }
-        });
+        }
     }
 
     public void interpret(List<Stmt> statements) {
         try {
-            for (final var statement : statements) {
-                execute(statement);
-            }
+            executeBody(statements, new Object[scriptLayout.slotCount], NO_UPVALUES);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    void interpret(Executor script) {
+        try {
+            executeBody(script, new Object[scriptLayout.slotCount], NO_UPVALUES);
         } catch (RuntimeError error) {
             Lox.runtimeError(error);
         }
@@ -68,18 +166,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         final var value = evaluate(expr.value);
 
-        final var distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        final var binding = expr.binding;
+        if (binding != null) {
+            write(binding, value);
         } else {
-            globals.assign(expr.name, value);
+            assignGlobal(expr, value);
         }
 
         return value;
     }
 
+    // assigns a global variable, whose cell the expression keeps for the next time
+    void assignGlobal(Expr.Assign expr, Object value) {
+        var global = expr.global;
+        if (global == null || global.owner != globals) {
+            global = globals.global(expr.name);
+            if (global == null) {
+                throw new RuntimeError(expr.name, "Undefined variable '" + expr.name.lexeme + "'.");
+            }
+            expr.global = global;
+        }
+        global.assign(value);
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.operandType == StaticType.NUMBER) {
+            return numberBinary(expr);
+        }
         final var left = evaluate(expr.left);
         final var right = evaluate(expr.right);
 
@@ -120,17 +234,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
 
                 if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                    return heap.string((String) left + (String) right, expr.operator);
                 }
 
                 if (left instanceof String) {
                     // "1" + true = "1true"
-                    return (String)left + stringify(right);
+                    return heap.string((String)left + stringify(right), expr.operator);
                 }
 
                 if (right instanceof String) {
                     // 1 + "true" = "1true"
-                    return stringify(left) + (String)right;
+                    return heap.string(stringify(left) + (String)right, expr.operator);
                 }
 
                 throw new RuntimeError(expr.operator, "Operator '+' is only supported for numbers and strings.");
@@ -139,6 +253,75 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    // both operands are proven to be numbers, so they are evaluated unboxed and without type checks
+    private Object numberBinary(Expr.Binary expr) {
+        final var left = evaluateNumber(expr.left);
+        final var right = evaluateNumber(expr.right);
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                return left != right;
+            case EQUAL_EQUAL:
+                return left == right;
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            case LESS_EQUAL:
+                return left <= right;
+            case MINUS:
+                return left - right;
+            case SLASH:
+                if (right == 0.0) {
+                    throw new RuntimeError(expr.operator, "Division by 0.");
+                }
+                return left / right;
+            case STAR:
+                return left * right;
+            case PLUS:
+                return left + right;
+            default:
+                return null; // unreachable
+        }
+    }
+
+    // evaluates an expression that is proven to produce a number, staying unboxed where the types allow it
+    private double evaluateNumber(Expr expression) {
+        if (expression instanceof Expr.Literal) {
+            return (double)((Expr.Literal)expression).value;
+        }
+        if (expression instanceof Expr.Binary) {
+            final var binary = (Expr.Binary)expression;
+            if (binary.operandType == StaticType.NUMBER) {
+                switch (binary.operator.type) {
+                    case MINUS:
+                        return evaluateNumber(binary.left) - evaluateNumber(binary.right);
+                    case STAR:
+                        return evaluateNumber(binary.left) * evaluateNumber(binary.right);
+                    case PLUS:
+                        return evaluateNumber(binary.left) + evaluateNumber(binary.right);
+                    case SLASH: {
+                        final var left = evaluateNumber(binary.left);
+                        final var right = evaluateNumber(binary.right);
+                        if (right == 0.0) {
+                            throw new RuntimeError(binary.operator, "Division by 0.");
+                        }
+                        return left / right;
+                    }
+                }
+            }
+        } else if (expression instanceof Expr.Unary) {
+            final var unary = (Expr.Unary)expression;
+            if (unary.operator.type == TokenType.MINUS && unary.operandType == StaticType.NUMBER) {
+                return -evaluateNumber(unary.right);
+            }
+        } else if (expression instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping)expression).expression);
+        }
+        return (double)evaluate(expression);
+    }
+
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         final var leftEvaluated = evaluate(expr.left);
@@ -161,38 +344,266 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        final var constant = constantCallee(expr);
+        if (constant != null) {
+            if (constant.function != null) {
+                return callFunction(expr.paren, constant.function, constant.function.receiver, expr.arguments);
+            }
+            return callNative(expr, constant.nativeFunction);
+        }
         final var callee = evaluate(expr.callee);
+        speculate(expr, callee);
+        return callValue(expr, callee);
+    }
+
+    // what the call site found its callee to be, null unless that is still a constant of this interpreter
+    ConstantCallee constantCallee(Expr.Call expr) {
+        final var constant = expr.constantCallee;
+        if (constant != null && constant.global.constant && constant.global.owner == globals) {
+            return constant;
+        }
+        return null;
+    }
+
+    // remembers the callee of the call site if it is a constant global that can be called directly
+    void speculate(Expr.Call expr, Object callee) {
+        if (!(expr.callee instanceof Expr.Variable)) {
+            return;
+        }
+        final var global = ((Expr.Variable)expr.callee).global;
+        if (global == null || !global.constant || global.owner != globals) {
+            return;
+        }
+        final var arity = expr.arguments.size();
+        if (callee instanceof LoxFunction && canCallDirectly((LoxFunction)callee, arity)) {
+            expr.constantCallee = new ConstantCallee(global, (LoxFunction)callee, null);
+        } else if (callee instanceof NativeFunction && ((NativeFunction)callee).arity == arity
+                && arity <= NativeFunction.MAX_FAST_ARITY) {
+            expr.constantCallee = new ConstantCallee(global, null, (NativeFunction)callee);
+        }
+    }
 
-        final var arguments = new ArrayList<Object>();
-        for (final var expression : expr.arguments) {
-            arguments.add(evaluate(expression));
+    private Object callValue(Expr.Call expr, Object callee) {
+        if (callee instanceof LoxFunction) {
+            final var function = (LoxFunction)callee;
+            if (canCallDirectly(function, expr.arguments.size())) {
+                return callFunction(expr.paren, function, function.receiver, expr.arguments);
+            }
         }
+        if (callee instanceof NativeFunction) {
+            final var function = (NativeFunction)callee;
+            if (function.arity == expr.arguments.size() && function.arity <= NativeFunction.MAX_FAST_ARITY) {
+                return callNative(expr, function);
+            }
+        }
+        return call(expr, callee);
+    }
+
+    private Object callNative(Expr.Call expr, NativeFunction function) {
+        final var arguments = expr.arguments;
+        final var first = function.arity > 0 ? evaluate(arguments.get(0)) : null;
+        final var second = function.arity > 1 ? evaluate(arguments.get(1)) : null;
+        final var third = function.arity > 2 ? evaluate(arguments.get(2)) : null;
+        return callNative(expr.paren, function, first, second, third);
+    }
+
+    // calls a native function through its fixed-arity entry point, arguments beyond its arity are ignored
+    Object callNative(Token paren, NativeFunction function, Object first, Object second, Object third) {
+        try {
+            switch (function.arity) {
+                case 0:
+                    return ((NativeFunction.Arity0)function).call0(this);
+                case 1:
+                    return ((NativeFunction.Arity1)function).call1(this, first);
+                case 2:
+                    return ((NativeFunction.Arity2)function).call2(this, first, second);
+                default:
+                    return ((NativeFunction.Arity3)function).call3(this, first, second, third);
+            }
+        } catch (NativeError e) {
+            throw new RuntimeError(paren, e.getMessage());
+        }
+    }
+
+    private Object call(Expr.Call expr, Object callee) {
+        return call(expr.paren, callee, evaluateAll(expr.arguments));
+    }
 
+    Object call(Token paren, Object callee, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
         final var function = (LoxCallable)callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments, got "
-                    + arguments.size() + ".");
+        final var arity = function.arity();
+        if (arguments.size() != arity) {
+            throw new RuntimeError(paren, "Expected " + arity + " arguments, got " + arguments.size() + ".");
+        }
+        try {
+            return function.call(this, arguments);
+        } catch (NativeError e) {
+            throw new RuntimeError(paren, e.getMessage());
+        } catch (StackOverflowError e) {
+            // the innermost call site that observes the overflow reports it, all outer ones just unwind
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    // calls a method on its receiver directly instead of first binding it to the receiver
+    Object invoke(Token paren, LoxFunction method, LoxInstance receiver, List<Object> arguments) {
+        final var arity = method.arity();
+        if (arguments.size() != arity) {
+            throw new RuntimeError(paren, "Expected " + arity + " arguments, got " + arguments.size() + ".");
+        }
+        try {
+            return method.call(this, arguments, receiver);
+        } catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+    }
+
+    // calls a Lox function with its arguments evaluated straight into its frame, without collecting them first
+    private Object callFunction(Token paren, LoxFunction function, LoxInstance receiver, List<Expr> arguments) {
+        final var frame = function.enter(this);
+        try {
+            for (int i = 0; i < arguments.size(); ++i) {
+                function.bindParameter(frame, i, evaluate(arguments.get(i)));
+            }
+            try {
+                return function.execute(this, frame, receiver);
+            } catch (StackOverflowError e) {
+                throw new RuntimeError(paren, "Stack overflow.");
+            }
+        } finally {
+            function.leave(this, frame);
+        }
+    }
+
+    // the same for compiled code
+    Object callFunction(Token paren, LoxFunction function, LoxInstance receiver, Evaluator[] arguments) {
+        final var frame = function.enter(this);
+        try {
+            for (int i = 0; i < arguments.length; ++i) {
+                function.bindParameter(frame, i, arguments[i].evaluate(this));
+            }
+            try {
+                return function.execute(this, frame, receiver);
+            } catch (StackOverflowError e) {
+                throw new RuntimeError(paren, "Stack overflow.");
+            }
+        } finally {
+            function.leave(this, frame);
+        }
+    }
+
+    // whether callFunction() can call the function with that many arguments: the arity matches and the body is
+    // parsed already, so that the arguments are evaluated before any error is reported, just like on a call()
+    static boolean canCallDirectly(LoxFunction function, int argumentCount) {
+        return function.declaration.lazyBody == null && function.arity() == argumentCount;
+    }
+
+    // A cleared frame of at least the given size for the next call, to be released once the call returned. Its
+    // size is charged to the frames until then, the token is reported if that exceeds the memory limit.
+    Object[] acquireFrame(int size, Token token) {
+        heap.frames.allocate(HeapAccount.frameBytes(size), token);
+        if (callDepth >= MAX_POOLED_DEPTH) {
+            ++callDepth;
+            return new Object[size];
+        }
+        if (callDepth == framePool.length) {
+            framePool = Arrays.copyOf(framePool, callDepth * 2);
+        }
+        var frame = framePool[callDepth];
+        if (frame == null || frame.length < size) {
+            frame = new Object[size];
+            framePool[callDepth] = frame;
+        }
+        ++callDepth;
+        return frame;
+    }
+
+    // Limits the runs that follow to the given number of steps and nanoseconds, 0 means no limit. The steps are
+    // the iterations of loops and the calls of functions.
+    void limit(long maxSteps, long timeLimit) {
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.timeLimit = timeLimit;
+        stepsLeft = this.maxSteps;
+        deadline = System.nanoTime() + timeLimit;
+        stepsUntilCheck = 0;
+    }
+
+    // a loop back edge or a function call, the token is reported if the budget is used up
+    void step(Token token) {
+        if (--stepsUntilCheck < 0) {
+            checkBudget(token);
+        }
+    }
+
+    private void checkBudget(Token token) {
+        if (timeLimit > 0 && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceeded(token, "Time limit of " + timeLimit / 1_000_000 + " ms exceeded.");
+        }
+        if (stepsLeft == 0) {
+            throw new BudgetExceeded(token, "Step limit of " + maxSteps + " exceeded.");
         }
-        return function.call(this, arguments);
+        final var batch = Math.min(stepsLeft, timeLimit > 0 ? STEPS_PER_CLOCK_CHECK : Integer.MAX_VALUE);
+        stepsLeft -= batch;
+        // this step is the first of the batch
+        stepsUntilCheck = (int)batch - 1;
+    }
+
+    void releaseFrame(Object[] frame, int size) {
+        heap.frames.free(HeapAccount.frameBytes(size));
+        --callDepth;
+        // clears the values so that the next call starts from empty slots and nothing is kept alive
+        Arrays.fill(frame, 0, size, null);
+    }
+
+    Return returning(Object value) {
+        returnSignal.value = value;
+        return returnSignal;
+    }
+
+    private List<Object> evaluateAll(List<Expr> expressions) {
+        final var values = new ArrayList<Object>(expressions.size());
+        for (final var expression : expressions) {
+            values.add(evaluate(expression));
+        }
+        return values;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
+        if (expr.scalarField != null && frame[expr.scalarField.object.classSlot] != null) {
+            final var value = frame[expr.scalarField.slot];
+            if (value != ScalarObject.UNSET) {
+                return value;
+            }
+            // not a field, so it is a method (which needs the instance to bind to) or an error
+            materialize(expr.scalarField.object, expr.name);
+        }
+
         // myObject.getOtherObject().property
-        final var object = evaluate(expr.object);
+        return property(expr.name, evaluate(expr.object));
+    }
+
+    Object property(Token name, Object object) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance)object).get(expr.name);
+            return ((LoxInstance)object).get(name);
+        }
+        if (object instanceof NativeObject) {
+            return ((NativeObject)object).get(name);
         }
 
-        throw new RuntimeError(expr.name, "Cannot access property on non-class-instance.");
+        throw new RuntimeError(name, "Cannot access property on non-class-instance.");
     }
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         final var value = evaluate(expr.value);
+        if (expr.scalarField != null && frame[expr.scalarField.object.classSlot] != null) {
+            frame[expr.scalarField.slot] = value;
+            return value;
+        }
         final var object = evaluate(expr.object);
 
         if (object instanceof LoxInstance) {
@@ -211,9 +622,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        final var distance = locals.get(expr);
-        final var superclass = (LoxClass)environment.getAt(distance, "super");
-        final var object = (LoxInstance)environment.getAt(distance - 1, "this");
+        final var superclass = (LoxClass)read(expr.binding);
+        final var object = (LoxInstance)read(expr.receiver);
         final var method = superclass.findMethod(expr.method.lexeme);
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
@@ -233,6 +643,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS && expr.operandType == StaticType.NUMBER) {
+            return -evaluateNumber(expr.right);
+        }
         final var evaluated = evaluate(expr.right);
         switch (expr.operator.type) {
             case MINUS:
@@ -252,13 +665,121 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        final var binding = expr.binding;
+        if (binding != null) {
+            return read(binding);
+        }
+        return readGlobal(expr);
+    }
+
+    // the value of a global variable, whose cell the expression keeps for the next time
+    Object readGlobal(Expr.Variable expr) {
+        var global = expr.global;
+        if (global == null || global.owner != globals) {
+            global = globals.global(expr.name);
+            if (global == null) {
+                throw new RuntimeError(expr.name, "Use of undeclared variable '" + expr.name.lexeme + "'.");
+            }
+            expr.global = global;
+        }
+        return global.get(expr.name);
+    }
+
+    @Override
+    public Object visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        final var value = read(expr.binding);
+        if (value instanceof Double) {
+            if (fusionStatistics != null) {
+                fusionStatistics.hit(NodeFusion.Pattern.INCREMENT_LOCAL);
+            }
+            final Object result = (double)value + expr.amount;
+            write(expr.binding, result);
+            return result;
+        }
+        if (fusionStatistics != null) {
+            fusionStatistics.fallback(NodeFusion.Pattern.INCREMENT_LOCAL);
+        }
+        return visitAssignExpr(expr.original);
+    }
+
+    @Override
+    public Object visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        final var value = read(expr.binding);
+        if (value instanceof Double) {
+            if (fusionStatistics != null) {
+                fusionStatistics.hit(NodeFusion.Pattern.COMPARE_LOCAL_TO_CONST);
+            }
+            final var number = (double)value;
+            switch (expr.original.operator.type) {
+                case GREATER:
+                    return number > expr.constant;
+                case GREATER_EQUAL:
+                    return number >= expr.constant;
+                case LESS:
+                    return number < expr.constant;
+                default:
+                    return number <= expr.constant;
+            }
+        }
+        if (fusionStatistics != null) {
+            fusionStatistics.fallback(NodeFusion.Pattern.COMPARE_LOCAL_TO_CONST);
+        }
+        return visitBinaryExpr(expr.original);
+    }
+
+    @Override
+    public Object visitIncrementFieldExpr(Expr.IncrementField expr) {
+        // the object is a variable or this, so evaluating it once more on the fallback path is not observable
+        final var object = evaluate(expr.field.object);
+        if (object instanceof LoxInstance) {
+            final var instance = (LoxInstance)object;
+            final var value = instance.field(expr.field.name.lexeme);
+            if (value instanceof Double) {
+                if (fusionStatistics != null) {
+                    fusionStatistics.hit(NodeFusion.Pattern.INCREMENT_FIELD);
+                }
+                final Object result = (double)value + expr.amount;
+                instance.set(expr.original.name, result);
+                return result;
+            }
+        }
+        if (fusionStatistics != null) {
+            fusionStatistics.fallback(NodeFusion.Pattern.INCREMENT_FIELD);
+        }
+        return visitSetExpr(expr.original);
+    }
+
+    @Override
+    public Object visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        final var object = evaluate(expr.method.object);
+        if (object instanceof LoxInstance) {
+            final var instance = (LoxInstance)object;
+            final var name = expr.method.name.lexeme;
+            if (!instance.hasField(name)) {
+                final var method = instance.klass.findMethod(name);
+                if (method != null) {
+                    if (fusionStatistics != null) {
+                        fusionStatistics.hit(NodeFusion.Pattern.INVOKE_METHOD);
+                    }
+                    final var arguments = expr.original.arguments;
+                    if (canCallDirectly(method, arguments.size())) {
+                        return callFunction(expr.original.paren, method, instance, arguments);
+                    }
+                    return invoke(expr.original.paren, method, instance, evaluateAll(arguments));
+                }
+            }
+        }
+        if (fusionStatistics != null) {
+            fusionStatistics.fallback(NodeFusion.Pattern.INVOKE_METHOD);
+        }
+        // a field holding a callable, a property of a native object or an error, exactly as Expr.Get reports it
+        return callValue(expr.original, property(expr.method.name, object));
     }
 
     private Object lookUpVariable(Token name, Expr expression) {
-        final var distance = locals.get(expression);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+        final var binding = expression.binding;
+        if (binding != null) {
+            return read(binding);
         }
 
         if (!globals.contains(name)) {
@@ -267,6 +788,60 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return globals.get(name);
     }
 
+    private Object read(Binding binding) {
+        if (binding.local == null) {
+            return upvalues[binding.upvalue].value;
+        }
+        final var value = frame[binding.local.slot];
+        return binding.local.captured ? ((Cell)value).value : value;
+    }
+
+    private void write(Binding binding, Object value) {
+        if (binding.local == null) {
+            upvalues[binding.upvalue].value = value;
+        } else if (binding.local.captured) {
+            ((Cell)frame[binding.local.slot]).value = value;
+        } else {
+            frame[binding.local.slot] = value;
+        }
+    }
+
+    // creates the cells of a local declaration, or defines it in the globals if it is not local
+    private void define(Stmt declaration, Token name, Object value) {
+        final var variable = declaration.variable;
+        if (variable == null) {
+            globals.define(name, value);
+        } else {
+            frame[variable.slot] = variable.captured ? new Cell(value) : value;
+        }
+    }
+
+    // sets a declaration that was defined before its value was created, a global stays a constant
+    private void assign(Stmt declaration, Token name, Object value) {
+        final var variable = declaration.variable;
+        if (variable == null) {
+            globals.initialize(name, value);
+        } else if (variable.captured) {
+            ((Cell)frame[variable.slot]).value = value;
+        } else {
+            frame[variable.slot] = value;
+        }
+    }
+
+    private Cell[] capture(FrameLayout layout) {
+        final var cells = new Cell[layout.upvalues.size()];
+        for (int i = 0; i < cells.length; ++i) {
+            final var binding = layout.upvalues.get(i);
+            cells[i] = (binding.local != null ? (Cell)frame[binding.local.slot] : upvalues[binding.upvalue]);
+        }
+        return cells;
+    }
+
+    LoxFunction makeFunction(Stmt.Fun declaration, boolean isInitializer, LoxClass superclass) {
+        final var layout = declaration.layout;
+        return new LoxFunction(declaration, layout, capture(layout), isInitializer, superclass);
+    }
+
     private Object evaluate(Expr expression) {
         return expression.accept(this);
     }
@@ -275,11 +850,61 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         statement.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // The resolution of a node is stored in the node itself rather than in tables of the interpreter, which
+    // would keep every node ever resolved alive, such as the lines of a long REPL session.
+    void resolve(Expr expr, Binding binding) {
+        expr.binding = binding;
+    }
+
+    void resolveReceiver(Expr.Super expr, Binding binding) {
+        expr.receiver = binding;
+    }
+
+    void resolve(Stmt declaration, LocalVariable variable) {
+        declaration.variable = variable;
+    }
+
+    void resolve(Stmt.Fun function, FrameLayout layout) {
+        function.layout = layout;
+    }
+
+    void resolveScript(FrameLayout layout) {
+        scriptLayout = layout;
+    }
+
+    Binding binding(Expr expr) {
+        return expr.binding;
+    }
+
+    Binding receiver(Expr.Super expr) {
+        return expr.receiver;
+    }
+
+    LocalVariable declaration(Stmt declaration) {
+        return declaration.variable;
+    }
+
+    FrameLayout layout(Stmt.Fun function) {
+        return function.layout;
+    }
+
+    FrameLayout scriptLayout() {
+        return scriptLayout;
+    }
+
+    NativeFunction nativeFunction(String name) {
+        return natives.get(name);
+    }
+
+    void collectFusionStatistics() {
+        fusionStatistics = new NodeFusion.Statistics();
+    }
+
+    NodeFusion.Statistics fusionStatistics() {
+        return fusionStatistics;
     }
 
-    private static boolean isTruthy(Object value) {
+    static boolean isTruthy(Object value) {
         if (value == null) {
             return false;
         }
@@ -289,7 +914,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private static boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         if (left == null && right == null) {
             return true;
         }
@@ -303,7 +928,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return left.equals(right);
     }
 
-    private static String stringify(Object object) {
+    // The collections this thread is stringifying, so that a collection that holds itself prints as [...] or {...}
+    // where it appears again instead of recursing until the stack overflows.
+    private static final ThreadLocal<Set<Object>> stringifying =
+            ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // starts stringifying the elements of a collection, false if that is already in progress further up
+    static boolean beginStringify(Object collection) {
+        return stringifying.get().add(collection);
+    }
+
+    static void endStringify(Object collection) {
+        stringifying.get().remove(collection);
+    }
+
+    static String stringify(Object object) {
         if (object == null) {
             return "nil";
         }
@@ -322,14 +961,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
-    private static void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) {
             return;
         }
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private static void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) {
             return;
         }
@@ -338,23 +977,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        // locals of blocks live in slots of the enclosing frame, so a block needs no storage of its own
+        for (final var statement : stmt.statements) {
+            execute(statement);
+        }
         return null;
     }
 
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new LoopBreak();
+        throw LOOP_BREAK;
     }
 
     @Override
     public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new LoopContinue();
+        throw LOOP_CONTINUE;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
-        throw new Return(stmt.value != null ? evaluate(stmt.value) : null);
+        throw returning(stmt.value != null ? evaluate(stmt.value) : null);
     }
 
     @Override
@@ -377,6 +1019,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.loopCondition))) {
+            step(stmt.keyword);
             try {
                 execute(stmt.loopBody);
             } catch (LoopBreak e) {
@@ -388,26 +1031,103 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            execute(stmt.initializer);
+        }
+        while (stmt.loopCondition == null || isTruthy(evaluate(stmt.loopCondition))) {
+            step(stmt.keyword);
+            try {
+                execute(stmt.loopBody);
+            } catch (LoopBreak e) {
+                break;
+            } catch (LoopContinue e) {
+                // the increment still runs after a continue
+            }
+            if (stmt.increment != null) {
+                evaluate(stmt.increment);
+            }
+        }
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        System.out.println(stringify(evaluate(stmt.expression)));
+        out.println(stringify(evaluate(stmt.expression)));
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        if (stmt.initializer == null) {
-            environment.define(stmt.name);
+        if (stmt.scalar != null) {
+            instantiateScalar(stmt, stmt.scalar);
             return null;
         }
-        environment.define(stmt.name, evaluate(stmt.initializer));
+        if (stmt.initializer == null && stmt.variable == null) {
+            globals.define(stmt.name);
+            return null;
+        }
+        define(stmt, stmt.name, stmt.initializer != null ? evaluate(stmt.initializer) : null);
         return null;
     }
 
+    private void instantiateScalar(Stmt.Var stmt, ScalarObject object) {
+        final var call = (Expr.Call)stmt.initializer;
+        final var callee = evaluate(call.callee);
+        if (callee instanceof LoxClass) {
+            final var initializer = ((LoxClass)callee).findMethod("init");
+            if (initializer != null && initializer.declaration.lazyBody != null) {
+                Lox.prepareBody(this, initializer.declaration);
+            }
+            final var fields = initializer == null
+                    ? FieldInitializer.EMPTY
+                    : initializer.declaration.fieldInitializer;
+            final var slots = fields == null ? null : object.slotsOf(fields);
+            if (slots != null && fields.arity == call.arguments.size()) {
+                for (final var slot : object.fieldSlots.values()) {
+                    frame[slot] = ScalarObject.UNSET;
+                }
+                for (int i = 0; i < call.arguments.size(); ++i) {
+                    final var argument = evaluate(call.arguments.get(i));
+                    for (int j = 0; j < slots.length; ++j) {
+                        if (fields.parameters[j] == i) {
+                            frame[slots[j]] = argument;
+                        }
+                    }
+                }
+                for (int j = 0; j < slots.length; ++j) {
+                    if (fields.parameters[j] < 0) {
+                        frame[slots[j]] = fields.literals[j];
+                    }
+                }
+                frame[object.classSlot] = callee;
+                frame[object.variableSlot] = null;
+                return;
+            }
+        }
+        frame[object.classSlot] = null;
+        frame[object.variableSlot] = call(call, callee);
+    }
+
+    // the token is reported if the instance exceeds the memory limit
+    void materialize(ScalarObject object, Token token) {
+        final var instance = heap.instantiate((LoxClass)frame[object.classSlot], token);
+        for (final var field : object.fieldSlots.entrySet()) {
+            final var value = frame[field.getValue()];
+            if (value != ScalarObject.UNSET) {
+                instance.set(field.getKey(), value, token);
+            }
+        }
+        frame[object.classSlot] = null;
+        frame[object.variableSlot] = instance;
+    }
+
     @Override
     public Void visitFunStmt(Stmt.Fun stmt) {
-        final var function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name, function);
+        // the function is defined before its closure is created so that it can capture itself
+        define(stmt, stmt.name, null);
+        assign(stmt, stmt.name, makeFunction(stmt, false, null));
         return null;
     }
 
@@ -420,38 +1140,74 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name);
-
-        if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.defineByName("super", superclass);
+        if (stmt.variable != null) {
+            define(stmt, stmt.name, null);
+        } else {
+            globals.define(stmt.name);
         }
 
         final var methods = new HashMap<String, LoxFunction>();
         for (final var method : stmt.methods) {
-            final var function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            final var function = makeFunction(method, method.name.lexeme.equals("init"), (LoxClass)superclass);
             methods.put(method.name.lexeme, function);
         }
         final var klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
 
-        if (stmt.superclass != null) {
-            environment = environment.enclosing;
-        }
+        assign(stmt, stmt.name, klass);
+        return null;
+    }
 
-        environment.assign(stmt.name, klass);
+    // A module runs once per interpreter, on its first import. It counts as imported from then on, so modules
+    // that import each other do not run each other over and over, and like the functions of a script that
+    // refer to each other, they may only use what the other has defined once it is called.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        final var module = stmt.module != null ? modules.get(stmt.module) : null;
+        if (module == null) {
+            throw new RuntimeError(stmt.path, "Module " + stmt.path.lexeme + " was not loaded.");
+        }
+        if (importedModules.add(module.path)) {
+            final var frame = new Object[module.layout.slotCount];
+            if (module.compiled != null) {
+                executeBody(module.compiled, frame, NO_UPVALUES);
+            } else {
+                executeBody(module.statements, frame, NO_UPVALUES);
+            }
+        }
         return null;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    // makes the modules the ModuleLoader loaded for the code importable
+    void addModules(Map<Path, LoxModule> loaded) {
+        modules.putAll(loaded);
+    }
+
+    void executeBody(Executor body, Object[] frame, Cell[] upvalues) {
+        final var previousFrame = this.frame;
+        final var previousUpvalues = this.upvalues;
+        try {
+            this.frame = frame;
+            this.upvalues = upvalues;
+            body.execute(this);
+        } finally {
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
+        }
+    }
+
+    void executeBody(List<Stmt> statements, Object[] frame, Cell[] upvalues) {
+        final var previousFrame = this.frame;
+        final var previousUpvalues = this.upvalues;
         try {
-            this.environment = environment;
+            this.frame = frame;
+            this.upvalues = upvalues;
 
             for (final var statement : statements) {
                 execute(statement);
             }
         } finally {
-            this.environment = previous;
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
         }
     }
 }
@@ -0,0 +1,736 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates a resolved script into the Java source of a class that runs it, see LoxCompiler. The top level
+// and every function become nested classes implementing Executor, so that each gets a constant pool of its
+// own and the functions run as the compiled bodies of regular LoxFunctions. Locals become Java locals, the
+// ones captured by closures Java locals holding their Cell; only the arguments of a call arrive in a frame.
+// Operands proven to be numbers by the type inference are computed on unboxed doubles, and everything that
+// checks types or reports errors calls into LoxRuntime, so a compiled script fails exactly where and how the
+// interpreted one would.
+class JavaGenerator implements Expr.Visitor<JavaGenerator.Code>, Stmt.Visitor<Void> {
+    private enum Type {
+        OBJECT,
+        NUMBER,
+        BOOLEAN
+    }
+
+    // a Java expression and the type it evaluates to
+    static class Code {
+        final String text;
+        final Type type;
+
+        Code(String text, Type type) {
+            this.text = text;
+            this.type = type;
+        }
+    }
+
+    // the nested class of the top level or of a function
+    private static class Unit {
+        final String className;
+        final List<String> constants = new ArrayList<>();
+        final Map<String, String> tokens = new HashMap<>();
+        final Map<Double, String> numbers = new HashMap<>();
+        // the Java names of the locals declared in the unit, captured ones hold a Cell
+        final Map<LocalVariable, String> locals = new HashMap<>();
+        StringBuilder code = new StringBuilder();
+        int indent = 2;
+        int temporaries = 0;
+
+        Unit(String className) {
+            this.className = className;
+        }
+    }
+
+    // the top level is split into methods of about this many characters, a Java method is limited to 64 KB
+    private static final int MAX_PART_LENGTH = 16 * 1024;
+
+    private final Interpreter resolutions;
+    private final String className;
+    private final StringBuilder classes = new StringBuilder();
+    private Unit unit;
+    private int nextId = 0;
+
+    JavaGenerator(Interpreter interpreter, String className) {
+        this.resolutions = interpreter;
+        this.className = className;
+    }
+
+    String generate(List<Stmt> statements) {
+        unit = new Unit("Script");
+        final var parts = new ArrayList<String>();
+        for (final var statement : statements) {
+            statement.accept(this);
+            if (unit.code.length() > MAX_PART_LENGTH) {
+                parts.add(endPart());
+            }
+        }
+        parts.add(endPart());
+
+        final var script = new StringBuilder();
+        script.append("  @Override\n");
+        script.append("  public void execute(Interpreter interpreter) {\n");
+        for (int i = 0; i < parts.size(); ++i) {
+            script.append("    part").append(i).append("(interpreter);\n");
+        }
+        script.append("  }\n");
+        for (int i = 0; i < parts.size(); ++i) {
+            script.append("\n  private static void part").append(i).append("(Interpreter interpreter) {\n");
+            script.append(parts.get(i));
+            script.append("  }\n");
+        }
+        addClass(unit, script.toString());
+
+        return "package com.craftinginterpreters.lox;\n"
+                + "\n"
+                + "import javax.annotation.processing.Generated;\n"
+                + "\n"
+                + "@Generated(\"loxc\")\n"
+                + "public final class " + className + " {\n"
+                + "  public static void main(String[] args) {\n"
+                + "    LoxRuntime.run(new Script());\n"
+                + "  }\n"
+                + classes
+                + "}\n";
+    }
+
+    // the code generated for the top level so far, with the temporaries it needs
+    private String endPart() {
+        final var part = temporaries(unit) + unit.code;
+        unit.code = new StringBuilder();
+        unit.temporaries = 0;
+        return part;
+    }
+
+    private static String temporaries(Unit unit) {
+        final var declarations = new StringBuilder();
+        for (int i = 0; i < unit.temporaries; ++i) {
+            declarations.append("    Object t").append(i).append(" = null;\n");
+        }
+        return declarations.toString();
+    }
+
+    private void addClass(Unit unit, String members) {
+        classes.append("\n  static final class ").append(unit.className).append(" implements Executor {\n");
+        for (final var constant : unit.constants) {
+            classes.append("    ").append(constant).append("\n");
+        }
+        if (!unit.constants.isEmpty()) {
+            classes.append("\n");
+        }
+        classes.append(members.replaceAll("(?m)^(?=.)", "  "));
+        classes.append("  }\n");
+    }
+
+    private void emit(String line) {
+        unit.code.append("  ".repeat(unit.indent)).append(line).append("\n");
+    }
+
+    private String temporary() {
+        return "t" + unit.temporaries++;
+    }
+
+    private String token(Token token) {
+        final var key = token.type + " " + token.line + " " + token.lexeme;
+        var constant = unit.tokens.get(key);
+        if (constant == null) {
+            constant = "T" + unit.tokens.size();
+            unit.tokens.put(key, constant);
+            unit.constants.add("private static final Token " + constant + " = new Token(TokenType." + token.type
+                    + ", " + quote(token.lexeme) + ", null, " + token.line + ");");
+        }
+        return constant;
+    }
+
+    // a boxed number, created once so that the generated code does not box it on every evaluation
+    private String boxed(double value) {
+        var constant = unit.numbers.get(value);
+        if (constant == null) {
+            constant = "K" + unit.numbers.size();
+            unit.numbers.put(value, constant);
+            unit.constants.add("private static final Object " + constant + " = " + value + ";");
+        }
+        return constant;
+    }
+
+    private static String quote(String string) {
+        final var quoted = new StringBuilder("\"");
+        for (final var c : string.toCharArray()) {
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        quoted.append(String.format("\\%03o", (int)c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append("\"").toString();
+    }
+
+    // a Java identifier that keeps the Lox name readable
+    private String name(String prefix, String lexeme) {
+        return prefix + nextId++ + "_" + lexeme;
+    }
+
+    private Code expression(Expr expression) {
+        return expression.accept(this);
+    }
+
+    private String object(Expr expression) {
+        return object(expression(expression));
+    }
+
+    private static String object(Code code) {
+        return code.type == Type.OBJECT ? code.text : "(Object)" + code.text;
+    }
+
+    private String condition(Expr expression) {
+        final var code = expression(expression);
+        return code.type == Type.BOOLEAN ? code.text : "Interpreter.isTruthy(" + object(code) + ")";
+    }
+
+    // the counterpart of compileNumber() in the ClosureCompiler
+    private String number(Expr expression) {
+        if (expression instanceof Expr.Literal) {
+            return "(" + ((Expr.Literal)expression).value + ")";
+        }
+        if (expression instanceof Expr.Grouping) {
+            return number(((Expr.Grouping)expression).expression);
+        }
+        if (expression instanceof Expr.Unary) {
+            final var unary = (Expr.Unary)expression;
+            if (unary.operator.type == TokenType.MINUS && unary.operandType == StaticType.NUMBER) {
+                return "(-" + number(unary.right) + ")";
+            }
+        }
+        if (expression instanceof Expr.Binary) {
+            final var binary = (Expr.Binary)expression;
+            if (binary.operandType == StaticType.NUMBER) {
+                switch (binary.operator.type) {
+                    case MINUS:
+                        return "(" + number(binary.left) + " - " + number(binary.right) + ")";
+                    case STAR:
+                        return "(" + number(binary.left) + " * " + number(binary.right) + ")";
+                    case PLUS:
+                        return "(" + number(binary.left) + " + " + number(binary.right) + ")";
+                    case SLASH:
+                        return "LoxRuntime.divide(" + token(binary.operator) + ", " + number(binary.left) + ", "
+                                + number(binary.right) + ")";
+                }
+            }
+        }
+        final var code = expression(expression);
+        if (code.type == Type.NUMBER) {
+            return code.text;
+        }
+        return "((double)" + object(code) + ")";
+    }
+
+    private String arguments(List<Expr> arguments) {
+        final var code = new StringBuilder();
+        for (final var argument : arguments) {
+            code.append(", ").append(object(argument));
+        }
+        return code.toString();
+    }
+
+    // the Java expression reading a resolved variable, null if it is a global
+    private String read(Binding binding) {
+        if (binding == null) {
+            return null;
+        }
+        if (binding.local == null) {
+            return "upvalues[" + binding.upvalue + "].value";
+        }
+        final var name = unit.locals.get(binding.local);
+        return binding.local.captured ? name + ".value" : name;
+    }
+
+    // the cell of a captured variable, for the closure of a function
+    private String cell(Binding binding) {
+        if (binding.local == null) {
+            return "upvalues[" + binding.upvalue + "]";
+        }
+        return unit.locals.get(binding.local);
+    }
+
+    private Code variable(Expr expression, Token name) {
+        final var read = read(resolutions.binding(expression));
+        if (read != null) {
+            return new Code(read, Type.OBJECT);
+        }
+        return new Code("LoxRuntime.global(interpreter, " + token(name) + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitAssignExpr(Expr.Assign expr) {
+        final var value = object(expr.value);
+        final var write = read(resolutions.binding(expr));
+        if (write != null) {
+            return new Code("(" + write + " = " + value + ")", Type.OBJECT);
+        }
+        return new Code("LoxRuntime.assignGlobal(interpreter, " + token(expr.name) + ", " + value + ")",
+                Type.OBJECT);
+    }
+
+    @Override
+    public Code visitBinaryExpr(Expr.Binary expr) {
+        final var operator = expr.operator;
+        if (expr.operandType == StaticType.NUMBER && operator.type != TokenType.COMMA) {
+            return numberBinary(expr);
+        }
+        final var left = object(expr.left);
+        final var right = object(expr.right);
+        final var arguments = "(" + token(operator) + ", " + left + ", " + right + ")";
+        switch (operator.type) {
+            case COMMA:
+                return new Code("LoxRuntime.sequence(" + left + ", " + right + ")", Type.OBJECT);
+            case BANG_EQUAL:
+                return new Code("!Interpreter.isEqual(" + left + ", " + right + ")", Type.BOOLEAN);
+            case EQUAL_EQUAL:
+                return new Code("Interpreter.isEqual(" + left + ", " + right + ")", Type.BOOLEAN);
+            case GREATER:
+                return new Code("LoxRuntime.greater" + arguments, Type.BOOLEAN);
+            case GREATER_EQUAL:
+                return new Code("LoxRuntime.greaterEqual" + arguments, Type.BOOLEAN);
+            case LESS:
+                return new Code("LoxRuntime.less" + arguments, Type.BOOLEAN);
+            case LESS_EQUAL:
+                return new Code("LoxRuntime.lessEqual" + arguments, Type.BOOLEAN);
+            case MINUS:
+                return new Code("LoxRuntime.subtract" + arguments, Type.OBJECT);
+            case SLASH:
+                return new Code("LoxRuntime.divide" + arguments, Type.OBJECT);
+            case STAR:
+                return new Code("LoxRuntime.multiply" + arguments, Type.OBJECT);
+            case PLUS:
+                return new Code("LoxRuntime.add" + arguments, Type.OBJECT);
+            default:
+                throw new IllegalStateException("unexpected binary operator " + operator.type);
+        }
+    }
+
+    private Code numberBinary(Expr.Binary expr) {
+        final String operator;
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                operator = " != ";
+                break;
+            case EQUAL_EQUAL:
+                operator = " == ";
+                break;
+            case GREATER:
+                operator = " > ";
+                break;
+            case GREATER_EQUAL:
+                operator = " >= ";
+                break;
+            case LESS:
+                operator = " < ";
+                break;
+            case LESS_EQUAL:
+                operator = " <= ";
+                break;
+            default:
+                // arithmetic operators are generated by number()
+                return new Code(number(expr), Type.NUMBER);
+        }
+        return new Code("(" + number(expr.left) + operator + number(expr.right) + ")", Type.BOOLEAN);
+    }
+
+    @Override
+    public Code visitLogicalExpr(Expr.Logical expr) {
+        final var value = temporary();
+        final var left = "Interpreter.isTruthy(" + value + " = " + object(expr.left) + ")";
+        final var right = object(expr.right);
+        if (expr.operator.type == TokenType.AND) {
+            return new Code("(" + left + " ? " + right + " : " + value + ")", Type.OBJECT);
+        }
+        return new Code("(" + left + " ? " + value + " : " + right + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitCallExpr(Expr.Call expr) {
+        final var paren = token(expr.paren);
+        if (expr.callee instanceof Expr.Get) {
+            // the object is evaluated and the method looked up before the arguments, like in the Interpreter
+            final var method = (Expr.Get)expr.callee;
+            final var object = temporary();
+            return new Code("LoxRuntime.invoke(interpreter, " + paren + ", " + object + " = "
+                    + object(method.object) + ", LoxRuntime.method(interpreter, " + token(method.name) + ", "
+                    + object + ")" + arguments(expr.arguments) + ")", Type.OBJECT);
+        }
+        return new Code("LoxRuntime.call(interpreter, " + paren + ", " + object(expr.callee)
+                + arguments(expr.arguments) + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitGetExpr(Expr.Get expr) {
+        return new Code("interpreter.property(" + token(expr.name) + ", " + object(expr.object) + ")",
+                Type.OBJECT);
+    }
+
+    @Override
+    public Code visitSetExpr(Expr.Set expr) {
+        final var value = object(expr.value);
+        return new Code("LoxRuntime.set(" + token(expr.name) + ", " + value + ", " + object(expr.object) + ")",
+                Type.OBJECT);
+    }
+
+    @Override
+    public Code visitThisExpr(Expr.This expr) {
+        return variable(expr, expr.keyword);
+    }
+
+    @Override
+    public Code visitSuperExpr(Expr.Super expr) {
+        return new Code("LoxRuntime.superMethod(" + token(expr.method) + ", "
+                + read(resolutions.binding(expr)) + ", " + read(resolutions.receiver(expr)) + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitGroupingExpr(Expr.Grouping expr) {
+        final var code = expression(expr.expression);
+        return new Code("(" + code.text + ")", code.type);
+    }
+
+    @Override
+    public Code visitLiteralExpr(Expr.Literal expr) {
+        final var value = expr.value;
+        if (value == null) {
+            // typed, so that a single nil argument is not taken for the array of a varargs call
+            return new Code("(Object)null", Type.OBJECT);
+        }
+        if (value instanceof Boolean) {
+            return new Code((boolean)value ? "Boolean.TRUE" : "Boolean.FALSE", Type.OBJECT);
+        }
+        if (value instanceof Double) {
+            return new Code(boxed((double)value), Type.OBJECT);
+        }
+        return new Code(quote((String)value), Type.OBJECT);
+    }
+
+    @Override
+    public Code visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            if (expr.operandType == StaticType.NUMBER) {
+                return new Code(number(expr), Type.NUMBER);
+            }
+            return new Code("LoxRuntime.negate(" + token(expr.operator) + ", " + object(expr.right) + ")",
+                    Type.OBJECT);
+        }
+        return new Code("!" + condition(expr.right), Type.BOOLEAN);
+    }
+
+    @Override
+    public Code visitConditionalExpr(Expr.Conditional expr) {
+        return new Code("(" + condition(expr.condition) + " ? " + object(expr.thenBranch) + " : "
+                + object(expr.elseBranch) + ")", Type.OBJECT);
+    }
+
+    @Override
+    public Code visitVariableExpr(Expr.Variable expr) {
+        return variable(expr, expr.name);
+    }
+
+    // the fused nodes are created by NodeFusion, which does not run before code generation
+
+    @Override
+    public Code visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        return expression(expr.original);
+    }
+
+    @Override
+    public Code visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        return expression(expr.original);
+    }
+
+    @Override
+    public Code visitIncrementFieldExpr(Expr.IncrementField expr) {
+        return expression(expr.original);
+    }
+
+    @Override
+    public Code visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        return expression(expr.original);
+    }
+
+    // a statement whose block starts on the line of the statement
+    private void nested(Stmt statement) {
+        ++unit.indent;
+        if (statement instanceof Stmt.Block) {
+            for (final var inner : ((Stmt.Block)statement).statements) {
+                inner.accept(this);
+            }
+        } else {
+            statement.accept(this);
+        }
+        --unit.indent;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        emit("LoxRuntime.discard(" + object(stmt.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        emit("if (" + condition(stmt.condition) + ") {");
+        nested(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            emit("} else {");
+            nested(stmt.elseBranch);
+        }
+        emit("}");
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        emit("while (" + condition(stmt.loopCondition) + ") {");
+        nested(stmt.loopBody);
+        emit("}");
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // the block scopes the loop variable; the condition is never a constant, so code after the loop is
+        // reachable for javac even when the loop has no condition
+        emit("{");
+        ++unit.indent;
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        final var condition = stmt.loopCondition != null
+                ? condition(stmt.loopCondition)
+                : "Interpreter.isTruthy(Boolean.TRUE)";
+        final var increment = stmt.increment != null ? "LoxRuntime.discard(" + object(stmt.increment) + ")" : "";
+        emit("for (; " + condition + "; " + increment + ") {");
+        nested(stmt.loopBody);
+        emit("}");
+        --unit.indent;
+        emit("}");
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit("System.out.println(Interpreter.stringify(" + object(stmt.expression) + "));");
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        emit("{");
+        nested(stmt);
+        emit("}");
+        return null;
+    }
+
+    // `if (true)` keeps javac from rejecting the statements that follow as unreachable, which Lox allows
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        emit("if (true) break;");
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        emit("if (true) continue;");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        final var value = stmt.value != null ? object(stmt.value) : "null";
+        emit("if (true) throw interpreter.returning(" + value + ");");
+        return null;
+    }
+
+    // declares a local, or defines the global if it is not local
+    private void define(Stmt declaration, Token name, String value) {
+        final var variable = resolutions.declaration(declaration);
+        if (variable == null) {
+            emit("interpreter.globals.define(" + token(name) + ", " + value + ");");
+            return;
+        }
+        final var local = name("v", name.lexeme);
+        unit.locals.put(variable, local);
+        if (variable.captured) {
+            emit("final Cell " + local + " = new Cell(" + value + ");");
+        } else {
+            emit("Object " + local + " = " + value + ";");
+        }
+    }
+
+    private void assign(Stmt declaration, Token name, String value) {
+        final var variable = resolutions.declaration(declaration);
+        if (variable == null) {
+            emit("interpreter.globals.initialize(" + token(name) + ", " + value + ");");
+            return;
+        }
+        final var local = unit.locals.get(variable);
+        emit((variable.captured ? local + ".value" : local) + " = " + value + ";");
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null && resolutions.declaration(stmt) == null) {
+            emit("interpreter.globals.define(" + token(stmt.name) + ");");
+            return null;
+        }
+        define(stmt, stmt.name, stmt.initializer != null ? object(stmt.initializer) : "null");
+        return null;
+    }
+
+    // generates the class of a function and returns the expression creating a closure of it
+    private String function(Stmt.Fun function, boolean isInitializer, String superclass) {
+        final var layout = resolutions.layout(function);
+        final var outer = unit;
+        unit = new Unit(name("F", function.name.lexeme));
+
+        // the receiver, the superclass and the arguments are the only locals that arrive in the frame
+        final var entry = new StringBuilder();
+        var slotCount = 0;
+        final var frameVariables = new ArrayList<LocalVariable>();
+        final var frameNames = new ArrayList<String>();
+        if (layout.receiver != null) {
+            frameVariables.add(layout.receiver);
+            frameNames.add("this");
+        }
+        if (layout.superclass != null) {
+            frameVariables.add(layout.superclass);
+            frameNames.add("super");
+        }
+        for (int i = 0; i < function.parameters.size(); ++i) {
+            frameVariables.add(layout.parameters.get(i));
+            frameNames.add(function.parameters.get(i).lexeme);
+        }
+        for (int i = 0; i < frameVariables.size(); ++i) {
+            final var variable = frameVariables.get(i);
+            final var local = name("v", frameNames.get(i));
+            unit.locals.put(variable, local);
+            if (variable.captured) {
+                entry.append("    final Cell ").append(local).append(" = (Cell)frame[").append(variable.slot)
+                        .append("];\n");
+            } else {
+                entry.append("    Object ").append(local).append(" = frame[").append(variable.slot).append("];\n");
+            }
+            slotCount = Math.max(slotCount, variable.slot + 1);
+        }
+        for (final var statement : function.functionBody) {
+            statement.accept(this);
+        }
+
+        final var members = new StringBuilder();
+        members.append("  static final Stmt.Fun DECLARATION = LoxRuntime.function(").append(token(function.name))
+                .append(", new ").append(unit.className).append("()");
+        for (final var parameter : function.parameters) {
+            members.append(", ").append(token(parameter));
+        }
+        members.append(");\n");
+        members.append("  static final FrameLayout LAYOUT = LoxRuntime.layout(").append(slotCount).append(", ")
+                .append(frameLocal(layout.receiver)).append(", ").append(frameLocal(layout.superclass));
+        for (final var parameter : layout.parameters) {
+            members.append(", ").append(frameLocal(parameter));
+        }
+        members.append(");\n\n");
+        members.append("  @Override\n");
+        members.append("  public void execute(Interpreter interpreter) {\n");
+        members.append("    final var frame = interpreter.frame;\n");
+        members.append("    final var upvalues = interpreter.upvalues;\n");
+        members.append(temporaries(unit));
+        members.append(entry);
+        members.append(unit.code);
+        members.append("  }\n");
+        addClass(unit, members.toString());
+
+        final var className = unit.className;
+        unit = outer;
+        final var closure = new StringBuilder();
+        for (final var upvalue : layout.upvalues) {
+            closure.append(closure.length() == 0 ? "new Cell[] {" : ", ").append(cell(upvalue));
+        }
+        return "new LoxFunction(" + className + ".DECLARATION, " + className + ".LAYOUT, "
+                + (closure.length() == 0 ? "LoxRuntime.NO_CELLS" : closure + "}") + ", " + isInitializer + ", "
+                + superclass + ")";
+    }
+
+    private static String frameLocal(LocalVariable variable) {
+        if (variable == null) {
+            return "null";
+        }
+        return "LoxRuntime.local(" + variable.slot + ", " + variable.captured + ")";
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        // the function is defined before its closure is created so that it can capture itself
+        final var variable = resolutions.declaration(stmt);
+        if (variable == null || variable.captured) {
+            define(stmt, stmt.name, "null");
+            assign(stmt, stmt.name, function(stmt, false, "null"));
+        } else {
+            define(stmt, stmt.name, function(stmt, false, "null"));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        final var superclass = name("s", stmt.name.lexeme);
+        if (stmt.superclass != null) {
+            emit("final LoxClass " + superclass + " = LoxRuntime.superclass(" + token(stmt.superclass.name) + ", "
+                    + object(stmt.superclass) + ");");
+        } else {
+            emit("final LoxClass " + superclass + " = null;");
+        }
+        if (resolutions.declaration(stmt) != null) {
+            define(stmt, stmt.name, "null");
+        } else {
+            emit("interpreter.globals.define(" + token(stmt.name) + ");");
+        }
+
+        final var methods = name("m", stmt.name.lexeme);
+        emit("final var " + methods + " = new java.util.HashMap<String, LoxFunction>();");
+        for (final var method : stmt.methods) {
+            final var isInitializer = method.name.lexeme.equals("init");
+            emit(methods + ".put(" + quote(method.name.lexeme) + ", "
+                    + function(method, isInitializer, superclass) + ");");
+        }
+        assign(stmt, stmt.name, "new LoxClass(" + quote(stmt.name.lexeme) + ", " + superclass + ", " + methods
+                + ")");
+        return null;
+    }
+
+    // A compiled script is a single class, linking the modules it imports into it is not supported yet.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        Lox.error(stmt.keyword, "loxc can't compile scripts that import modules.");
+        return null;
+    }
+}
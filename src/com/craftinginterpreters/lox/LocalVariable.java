@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+class LocalVariable {
+    final int slot;
+    // set by the resolver as soon as a nested function refers to the variable, its slot then holds a Cell
+    boolean captured = false;
+
+    LocalVariable(int slot) {
+        this.slot = slot;
+    }
+}
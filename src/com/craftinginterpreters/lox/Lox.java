@@ -4,36 +4,248 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
 
+// The jlox command line. jlox needs JDK 21: the PatternInterpreter switches over the sealed AST, and the daemon runs
+// each request on a virtual thread.
 public class Lox {
 
+    // The output streams and the errors of the script the current thread runs. They belong to the thread because
+    // the daemon runs several scripts at once, each with streams of its own, see LoxDaemon.
+    static final class RunState {
+        final PrintStream out;
+        final PrintStream err;
+        boolean hadError = false;
+        boolean hadRuntimeError = false;
+
+        RunState(PrintStream out, PrintStream err) {
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private static final ThreadLocal<RunState> runState =
+            ThreadLocal.withInitial(() -> new RunState(System.out, System.err));
+
     static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+
+    // size in bytes of the thread stack the interpreter runs on, 0 means the default thread stack
+    private static long stackSize = 0;
+    // defer parsing the bodies of top-level functions and methods until they are first called
+    private static boolean lazyBodies = false;
+    // parse deferred bodies up front anyway, only to report their syntax errors
+    private static boolean validateBodies = false;
+    // image to restore before running the script and image to write after running it, see Snapshot
+    private static Path restorePath = null;
+    private static Path snapshotPath = null;
+    // the top-level statements run so far, only kept to be written to a snapshot
+    private static final List<Stmt> program = new ArrayList<>();
+    // the time spent in each phase of running a script, null unless --trace-startup is given
+    private static StartupTrace startupTrace = null;
+    // the budget of every run, 0 means no limit, see Interpreter.limit()
+    private static long maxSteps = 0;
+    private static long timeLimit = 0;
+    // the bytes the values of a run may take up, 0 means no limit, see HeapAccount
+    private static long memoryLimit = 0;
+    // print what the values of the script took up once it ran
+    private static boolean heapStatistics = false;
+    // serve runs of scripts on a socket instead of running one, see LoxDaemon
+    private static boolean daemon = false;
+    private static Path socketPath = LoxDaemon.defaultSocket();
 
     public static void main(final String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        final var arguments = new ArrayList<String>();
+        for (final var arg : args) {
+            if (arg.startsWith("--stack-size=")) {
+                stackSize = parseStackSize(arg.substring("--stack-size=".length()));
+            } else if (arg.startsWith("--engine=")) {
+                interpreter.engine = parseEngine(arg.substring("--engine=".length()));
+            } else if (arg.equals("--lazy")) {
+                lazyBodies = true;
+            } else if (arg.equals("--validate")) {
+                validateBodies = true;
+            } else if (arg.startsWith("--restore=")) {
+                restorePath = Paths.get(arg.substring("--restore=".length()));
+            } else if (arg.startsWith("--snapshot=")) {
+                snapshotPath = Paths.get(arg.substring("--snapshot=".length()));
+            } else if (arg.equals("--fusion-stats")) {
+                interpreter.collectFusionStatistics();
+            } else if (arg.equals("--trace-startup")) {
+                startupTrace = new StartupTrace();
+            } else if (arg.startsWith("--max-steps=")) {
+                maxSteps = parseLimit(arg.substring("--max-steps=".length()));
+            } else if (arg.startsWith("--time-limit=")) {
+                timeLimit = parseLimit(arg.substring("--time-limit=".length())) * 1_000_000;
+            } else if (arg.startsWith("--memory-limit=")) {
+                memoryLimit = parseLimit(arg.substring("--memory-limit=".length())) * 1024;
+            } else if (arg.equals("--heap-stats")) {
+                heapStatistics = true;
+            } else if (arg.equals("--daemon")) {
+                daemon = true;
+            } else if (arg.startsWith("--socket=")) {
+                socketPath = Paths.get(arg.substring("--socket=".length()));
+            } else {
+                arguments.add(arg);
+            }
+        }
+
+        if (arguments.size() > 1 || daemon && !arguments.isEmpty()) {
+            printUsage();
+        }
+        if (daemon) {
+            new LoxDaemon().serve(socketPath);
+            return;
+        }
+        final var path = arguments.isEmpty() ? null : arguments.get(0);
+        if (stackSize == 0) {
+            start(path);
+            return;
+        }
+
+        // The interpreter recurses on the Java stack for every Lox call, so the depth of the Lox call stack
+        // is bounded by the stack of the thread executing it. Running on a thread with an explicitly sized
+        // stack turns the maximum recursion depth into a configurable memory budget.
+        final var thread = new Thread(null, () -> {
+            try {
+                start(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "jlox", stackSize);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void start(final String path) throws IOException {
+        if (restorePath != null) {
+            restore();
+            trace("restoring");
+        }
+        if (path != null) {
+            runFile(path);
         } else {
             runPrompt();
         }
     }
 
+    private static void printUsage() {
+        System.out.println("Usage: jlox [--stack-size=<megabytes>] [--engine=tree|closures|patterns] "
+                + "[--lazy [--validate]] [--restore=<image>] [--snapshot=<image>] [--fusion-stats] [--trace-startup]\n"
+                + "            [--max-steps=<steps>] [--time-limit=<milliseconds>] [--memory-limit=<kilobytes>] "
+                + "[--heap-stats] [script]\n"
+                + "       jlox --daemon [--socket=<path>]");
+        System.exit(64);
+    }
+
+    private static long parseStackSize(final String megabytes) {
+        try {
+            final var size = Long.parseLong(megabytes);
+            if (size > 0) {
+                return size * 1024 * 1024;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the usage message
+        }
+        printUsage();
+        return 0;
+    }
+
+    private static long parseLimit(final String limit) {
+        try {
+            final var value = Long.parseLong(limit);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the usage message
+        }
+        printUsage();
+        return 0;
+    }
+
+    private static Engine parseEngine(final String name) {
+        final var engine = Engine.named(name);
+        if (engine == null) {
+            printUsage();
+        }
+        return engine;
+    }
+
+    private static void restore() {
+        try {
+            final var statements = Snapshot.read(interpreter, restorePath);
+            // compiled bodies are not part of the image, compiling the prelude compiles all of them again
+            interpreter.engine.compile(interpreter, statements);
+            if (snapshotPath != null) {
+                program.addAll(statements);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not restore snapshot '" + restorePath + "': " + e.getMessage());
+            System.exit(74);
+        }
+    }
+
+    private static void snapshot() {
+        try {
+            Snapshot.write(interpreter, program, snapshotPath);
+        } catch (IOException e) {
+            System.err.println("Could not write snapshot '" + snapshotPath + "': " + e.getMessage());
+            System.exit(74);
+        }
+    }
+
+    private static void execute(final List<Stmt> statements) {
+        if (snapshotPath != null) {
+            program.addAll(statements);
+        }
+        if (maxSteps > 0 || timeLimit > 0) {
+            interpreter.limit(maxSteps, timeLimit);
+        }
+        interpreter.heap.limit(memoryLimit);
+        if (heapStatistics) {
+            interpreter.heap.trackValues();
+        }
+        final var compiled = interpreter.engine.compile(interpreter, statements);
+        if (compiled != null) {
+            interpreter.interpret(compiled);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
     private static void runFile(final String path) throws IOException {
-        final byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) {
+        final var script = Paths.get(path);
+        final byte[] bytes = Files.readAllBytes(script);
+        trace("reading");
+        run(new String(bytes, Charset.defaultCharset()), script.toAbsolutePath().getParent());
+        if (startupTrace != null) {
+            startupTrace.print();
+        }
+        if (interpreter.fusionStatistics() != null) {
+            interpreter.fusionStatistics().print();
+        }
+        if (heapStatistics) {
+            interpreter.heap.print();
+        }
+        if (hadError()) {
             System.exit(65);
         }
-        if (hadRuntimeError) {
+        if (hadRuntimeError()) {
             System.exit(70);
         }
+        if (snapshotPath != null) {
+            snapshot();
+        }
     }
 
     private static void runPrompt() throws IOException {
@@ -41,38 +253,54 @@ public class Lox {
         var reader = new BufferedReader(input);
 
         while (true) {
-            hadError = false;
+            runState().hadError = false;
 
             System.out.print("> ");
-            final var scanner = new Scanner(reader.readLine());
+            final var line = reader.readLine();
+            if (line == null) {
+                // the end of the input, such as a script piped into the REPL
+                System.out.println();
+                return;
+            }
+            final var scanner = new Scanner(line);
             final var tokens = scanner.scanTokens();
-            if (hadError) {
+            if (hadError()) {
                 continue;
             }
 
             final var parser = new Parser(tokens);
-            final var syntax = parser.parseRepl();
-            if (hadError) {
+            final var statements = parser.parseRepl();
+            if (hadError()) {
                 continue;
             }
 
             final var resolver = new Resolver(interpreter);
 
-            if (syntax instanceof List) {
-                resolver.resolve((List<Stmt>)syntax);
+            if (!parser.foundExpression()) {
+                resolver.resolve(statements);
 
-                if (hadError) {
+                if (hadError()) {
                     continue;
                 }
 
-                interpreter.interpret((List<Stmt>)syntax);
+                new EscapeAnalysis(interpreter).analyze(statements);
+                new TypeInference(interpreter).infer(statements);
+                new NodeFusion(interpreter).fuse(statements);
+                // the imports of the REPL are relative to the working directory
+                final var modules = new ModuleLoader(interpreter.engine, false, false).load(Paths.get(""), statements);
+                if (modules == null) {
+                    continue;
+                }
+                interpreter.addModules(modules);
+                execute(statements);
             } else {
-                resolver.resolve((Expr)syntax);
-                if (hadError) {
+                final var expression = ((Stmt.Expression)statements.get(0)).expression;
+                resolver.resolve(expression);
+                if (hadError()) {
                     continue;
                 }
 
-                final var result = interpreter.interpret((Expr)syntax);
+                final var result = interpreter.interpret(expression);
                 if (result != null) {
                     System.out.println("= " + result);
                 }
@@ -80,34 +308,110 @@ public class Lox {
         }
     }
 
-    private static void run(final String source) {
-        final var scanner = new Scanner(source);
+    // runs a script whose imports are relative to the given directory
+    private static void run(final String source, final Path directory) {
+        final var statements = analyze(interpreter, source, null, lazyBodies, validateBodies);
+        if (statements == null) {
+            return;
+        }
+        final var modules = new ModuleLoader(interpreter.engine, lazyBodies, validateBodies).load(directory,
+                statements);
+        trace("loading modules");
+        if (modules != null) {
+            interpreter.addModules(modules);
+            execute(statements);
+            trace("executing");
+        }
+    }
+
+    // Runs the front end and the optimization passes on a script for the interpreter, null if it has errors.
+    // the module is the one the source is the code of, null for the script
+    static List<Stmt> analyze(final Interpreter interpreter, final String source, final Path module,
+                              final boolean lazyBodies, final boolean validateBodies) {
+        final var scanner = new Scanner(source, module);
         final List<Token> tokens = scanner.scanTokens();
+        trace("scanning");
 
-        if (hadError) {
-            return;
+        if (hadError()) {
+            return null;
         }
 
-        var parser = new Parser(tokens);
+        var parser = new Parser(tokens, lazyBodies);
         var statements = parser.parse();
+        if (validateBodies) {
+            parser.validateBodies();
+        }
+        trace("parsing");
 
-        if (hadError) {
-            return;
+        if (hadError()) {
+            return null;
         }
 
         final var resolver = new Resolver(interpreter);
         resolver.resolve(statements);
+        trace("resolving");
 
-        if (hadError) {
-            return;
+        if (hadError()) {
+            return null;
+        }
+
+        new EscapeAnalysis(interpreter).analyze(statements);
+        new TypeInference(interpreter).infer(statements);
+        new NodeFusion(interpreter).fuse(statements);
+        trace("optimizing");
+        return statements;
+    }
+
+    private static void trace(final String phase) {
+        if (startupTrace != null) {
+            startupTrace.mark(phase);
+        }
+    }
+
+    // Runs the front end on a function body whose parsing was deferred by --lazy, on the first call of the
+    // function. Syntax errors are reported like those found up front, and the call fails with a runtime error.
+    static void prepareBody(final Interpreter interpreter, final Stmt.Fun function) {
+        final var body = function.lazyBody;
+        function.lazyBody = null;
+        final var state = runState();
+        final var hadEarlierError = state.hadError;
+        state.hadError = false;
+        function.functionBody.addAll(Parser.parseBody(body));
+        if (!state.hadError) {
+            Resolver.resolveBody(interpreter, function);
         }
+        if (state.hadError) {
+            throw new RuntimeError(function.name, "The body of '" + function.name.lexeme + "' contains errors.");
+        }
+        state.hadError = hadEarlierError;
+
+        new EscapeAnalysis(interpreter).analyzeBody(function, body.isInitializer());
+        new TypeInference(interpreter).inferBody(function);
+        new NodeFusion(interpreter).fuse(function.functionBody);
+        interpreter.engine.compileBody(interpreter, function);
+    }
+
+    static RunState runState() {
+        return runState.get();
+    }
 
-        interpreter.interpret(statements);
+    // replaces the streams and errors of the current thread, for the next script it runs
+    static void beginRun(PrintStream out, PrintStream err) {
+        runState.set(new RunState(out, err));
+    }
+
+    static boolean hadError() {
+        return runState().hadError;
+    }
+
+    static boolean hadRuntimeError() {
+        return runState().hadRuntimeError;
     }
 
     private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error " + where + ": " + message);
-        hadError = true;
+        final var state = runState();
+        state.err.println("[line " + line + "] Error " + where + ": " + message);
+        state.hadError = true;
     }
 
     static void error(int line, String message) {
@@ -123,9 +427,15 @@ public class Lox {
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        System.err.flush();
-        hadRuntimeError = true;
+        final var state = runState();
+        // what the script printed before the error comes first
+        state.out.flush();
+        if (error.token.module != null) {
+            state.err.println(ModuleLoader.describe(error.token.module));
+        }
+        state.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        state.err.flush();
+        state.hadRuntimeError = true;
     }
 
 }
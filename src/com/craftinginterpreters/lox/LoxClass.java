@@ -7,6 +7,8 @@ public class LoxClass implements LoxCallable {
     final String name;
     final Map<String, LoxFunction> methods;
     final LoxClass superclass;
+    // what the instances of the class take up, see HeapAccount.instances()
+    HeapAccount.Usage usage = null;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
@@ -37,10 +39,10 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        final var instance = new LoxInstance(this);
+        final var instance = interpreter.heap.instantiate(this, null);
         final var initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.call(interpreter, arguments, instance);
         }
         return instance;
     }
@@ -0,0 +1,196 @@
+package com.craftinginterpreters.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import javax.tools.ToolProvider;
+
+// loxc: compiles a script ahead of time into a jar that runs it with `java -jar`. The script goes through the
+// same front end as in Lox.runFile() and is translated to Java by the JavaGenerator, which javac compiles to
+// classes. The jar holds these classes and the classes of jlox itself, which are the runtime of the script.
+public class LoxCompiler {
+    public static void main(final String[] args) throws IOException {
+        Path output = null;
+        String path = null;
+        // print the generated Java instead of compiling it
+        var emitJava = false;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = Paths.get(args[++i]);
+            } else if (args[i].equals("--emit-java")) {
+                emitJava = true;
+            } else if (path == null && !args[i].startsWith("-")) {
+                path = args[i];
+            } else {
+                printUsage();
+            }
+        }
+        if (path == null) {
+            printUsage();
+        }
+
+        final var script = Paths.get(path);
+        final var className = className(script);
+        if (output == null) {
+            output = script.resolveSibling(script.getFileName().toString().replaceFirst("\\.lox$", "") + ".jar");
+        }
+
+        final var source = generate(new String(Files.readAllBytes(script), Charset.defaultCharset()), className);
+        if (Lox.hadError()) {
+            System.exit(65);
+        }
+        if (emitJava) {
+            System.out.print(source);
+            return;
+        }
+
+        final var classes = Files.createTempDirectory("loxc");
+        try {
+            compile(source, className, classes);
+            writeJar(output, className, classes);
+        } finally {
+            delete(classes);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: loxc [-o <jar>] [--emit-java] <script>");
+        System.exit(64);
+    }
+
+    // the name of the generated class, derived from the name of the script
+    private static String className(final Path script) {
+        final var name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+        final var className = new StringBuilder();
+        var upper = true;
+        for (final var c : name.toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                className.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        if (className.length() == 0 || !Character.isJavaIdentifierStart(className.charAt(0))) {
+            className.insert(0, "Script");
+        }
+        return className.toString();
+    }
+
+    // runs the front end like Lox.run(), except for the passes that rewrite the AST for the interpreter
+    private static String generate(final String source, final String className) {
+        final var tokens = new Scanner(source).scanTokens();
+        if (Lox.hadError()) {
+            return null;
+        }
+        final var statements = new Parser(tokens).parse();
+        if (Lox.hadError()) {
+            return null;
+        }
+        final var interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+        if (Lox.hadError()) {
+            return null;
+        }
+        new TypeInference(interpreter).infer(statements);
+        return new JavaGenerator(interpreter, className).generate(statements);
+    }
+
+    private static void compile(final String source, final String className, final Path classes) throws IOException {
+        final var compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("loxc needs a JDK to run, javac was not found.");
+            System.exit(70);
+        }
+        final var file = classes.resolve(className + ".java");
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        final var result = compiler.run(null, null, null, "-nowarn", "-encoding", "UTF-8",
+                "-cp", System.getProperty("java.class.path"), "-d", classes.toString(), file.toString());
+        Files.delete(file);
+        if (result != 0) {
+            // the generated code is wrong or the script is too large for the class file format
+            System.err.println("Could not compile the generated code.");
+            System.exit(70);
+        }
+    }
+
+    private static void writeJar(final Path output, final String className, final Path classes) throws IOException {
+        final var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "com.craftinginterpreters.lox." + className);
+        try (final var jar = new JarOutputStream(Files.newOutputStream(output), manifest)) {
+            addFiles(jar, classes);
+            addRuntime(jar);
+        } catch (IOException e) {
+            System.err.println("Could not write '" + output + "': " + e.getMessage());
+            System.exit(74);
+        }
+    }
+
+    private static void addFiles(final JarOutputStream jar, final Path root) throws IOException {
+        final List<Path> files;
+        try (final var walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (final var file : files) {
+            final var name = root.relativize(file).toString().replace(File.separatorChar, '/');
+            if (!name.equals(JarFile.MANIFEST_NAME)) {
+                addEntry(jar, name, Files.readAllBytes(file));
+            }
+        }
+    }
+
+    // copies the classes of jlox, from the directory or the jar loxc was loaded from
+    private static void addRuntime(final JarOutputStream jar) throws IOException {
+        final Path location;
+        try {
+            location = Paths.get(LoxCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (Files.isDirectory(location)) {
+            addFiles(jar, location);
+            return;
+        }
+        try (final var runtime = new JarFile(location.toFile())) {
+            final var entries = new ArrayList<JarEntry>();
+            runtime.stream().filter(entry -> !entry.isDirectory()).forEach(entries::add);
+            entries.sort(Comparator.comparing(JarEntry::getName));
+            for (final var entry : entries) {
+                if (!entry.getName().equals(JarFile.MANIFEST_NAME)) {
+                    try (final var in = runtime.getInputStream(entry)) {
+                        addEntry(jar, entry.getName(), in.readAllBytes());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addEntry(final JarOutputStream jar, final String name, final byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    private static void delete(final Path directory) throws IOException {
+        try (final var walk = Files.walk(directory)) {
+            for (final var path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+}
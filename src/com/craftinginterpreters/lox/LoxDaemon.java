@@ -0,0 +1,295 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// `jlox --daemon`: serves runs of scripts on a Unix domain socket, so that they share a warmed-up JVM instead of
+// starting one each. Every request runs on a virtual thread with an interpreter of its own; scripts that were
+// analyzed before are taken from a cache and only executed. Tools/LoxClient.py is the client.
+//
+// A request is the arguments of jlox (options and the absolute path of the script) and the standard input, from
+// which the script is read when there is no path. The response is a sequence of frames of what the script writes
+// to stdout and stderr, ended by the exit code Lox.runFile() would exit with. All integers are big-endian:
+//   request:  int argumentCount, argumentCount * (int length, UTF-8 bytes), int stdinLength, stdin bytes
+//   response: (byte STDOUT or STDERR, int length, bytes)*, byte EXIT, int exitCode
+class LoxDaemon {
+    static final byte EXIT = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+
+    // analyzed scripts kept for later runs, the least recently used is dropped first
+    private static final int MAX_CACHED_SCRIPTS = 256;
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+    private static final String USAGE = "Usage: jlox [--engine=tree|closures|patterns] [--lazy [--validate]] "
+            + "[--max-steps=<steps>] [--time-limit=<milliseconds>] [--memory-limit=<kilobytes>] [script]";
+
+    // a script as it was on disk, with the options that change its analysis, also the key of the modules the
+    // ModuleLoader caches
+    static final class CacheKey {
+        final Path path;
+        final FileTime modified;
+        final long size;
+        final Engine engine;
+        final boolean validateBodies;
+
+        CacheKey(Path path, FileTime modified, long size, Engine engine, boolean validateBodies) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.engine = engine;
+            this.validateBodies = validateBodies;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CacheKey)) {
+                return false;
+            }
+            final var key = (CacheKey)other;
+            return path.equals(key.path) && modified.equals(key.modified) && size == key.size
+                    && engine == key.engine && validateBodies == key.validateBodies;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, modified, size, engine, validateBodies);
+        }
+    }
+
+    // A script ready to run: the interpreter that resolved it, whose resolutions new interpreters share, and
+    // its statements or the closures they were compiled to.
+    private static final class Analyzed {
+        final Interpreter resolved;
+        final List<Stmt> statements;
+        final Executor compiled;
+
+        Analyzed(Interpreter resolved, List<Stmt> statements, Executor compiled) {
+            this.resolved = resolved;
+            this.statements = statements;
+            this.compiled = compiled;
+        }
+    }
+
+    private final Map<CacheKey, Analyzed> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Analyzed> eldest) {
+            return size() > MAX_CACHED_SCRIPTS;
+        }
+    };
+
+    static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "jlox-" + System.getProperty("user.name") + ".sock");
+    }
+
+    void serve(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        try (final var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.err.println("jlox daemon listening on " + socket);
+            while (true) {
+                final var channel = server.accept();
+                Thread.ofVirtual().name("jlox-request").start(() -> handle(channel));
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            final var in = new DataInputStream(Channels.newInputStream(channel));
+            final var arguments = new ArrayList<String>();
+            final var argumentCount = in.readInt();
+            for (int i = 0; i < argumentCount; ++i) {
+                arguments.add(new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8));
+            }
+            final var stdin = in.readNBytes(in.readInt());
+
+            final var out = new PrintStream(new BufferedOutputStream(new FrameStream(channel, STDOUT),
+                    OUTPUT_BUFFER_SIZE), false, Charset.defaultCharset());
+            final var err = new PrintStream(new FrameStream(channel, STDERR), true, Charset.defaultCharset());
+            Lox.beginRun(out, err);
+            int exitCode;
+            try {
+                exitCode = run(arguments, stdin);
+            } catch (Throwable e) {
+                // A bug in jlox, or the JVM running out of memory, fails only this request: the client is told
+                // like a runtime error would, and the daemon goes on serving the others.
+                out.flush();
+                err.println("Internal error: " + e);
+                exitCode = 70;
+            }
+            out.flush();
+            err.flush();
+
+            final var exit = ByteBuffer.allocate(5).put(EXIT).putInt(exitCode).flip();
+            synchronized (channel) {
+                while (exit.hasRemaining()) {
+                    channel.write(exit);
+                }
+            }
+        } catch (IOException e) {
+            // the client went away, there is nobody to report to
+        }
+    }
+
+    // runs a request like `jlox <arguments>` and returns the exit code
+    private int run(List<String> arguments, byte[] stdin) {
+        final var err = Lox.runState().err;
+        var engine = Engine.TREE;
+        var lazyBodies = false;
+        var validateBodies = false;
+        var maxSteps = 0L;
+        var timeLimit = 0L;
+        var memoryLimit = 0L;
+        String path = null;
+        for (final var argument : arguments) {
+            if (argument.startsWith("--max-steps=") || argument.startsWith("--time-limit=")
+                    || argument.startsWith("--memory-limit=")) {
+                final var limit = parseLimit(argument.substring(argument.indexOf('=') + 1));
+                if (limit <= 0) {
+                    err.println(USAGE);
+                    return 64;
+                }
+                if (argument.startsWith("--max-steps=")) {
+                    maxSteps = limit;
+                } else if (argument.startsWith("--time-limit=")) {
+                    timeLimit = limit * 1_000_000;
+                } else {
+                    memoryLimit = limit * 1024;
+                }
+            } else if (argument.startsWith("--engine=")) {
+                engine = Engine.named(argument.substring("--engine=".length()));
+                if (engine == null) {
+                    err.println(USAGE);
+                    return 64;
+                }
+            } else if (argument.equals("--lazy")) {
+                lazyBodies = true;
+            } else if (argument.equals("--validate")) {
+                validateBodies = true;
+            } else if (path == null && !argument.startsWith("--")) {
+                path = argument;
+            } else {
+                err.println(USAGE);
+                return 64;
+            }
+        }
+
+        final String source;
+        CacheKey key = null;
+        try {
+            if (path == null) {
+                source = new String(stdin, Charset.defaultCharset());
+            } else {
+                final var script = Paths.get(path);
+                if (!lazyBodies) {
+                    // lazy bodies are resolved when they are first called, by which time others may share them
+                    key = new CacheKey(script, Files.getLastModifiedTime(script), Files.size(script),
+                            engine, validateBodies);
+                }
+                source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            }
+        } catch (IOException e) {
+            err.println("Could not read '" + path + "': " + e.getMessage());
+            return 74;
+        }
+
+        Analyzed analyzed;
+        synchronized (cache) {
+            analyzed = key != null ? cache.get(key) : null;
+        }
+        if (analyzed == null) {
+            final var interpreter = new Interpreter();
+            interpreter.engine = engine;
+            final var statements = Lox.analyze(interpreter, source, null, lazyBodies, validateBodies);
+            if (statements == null) {
+                return 65;
+            }
+            final var compiled = engine.compile(interpreter, statements);
+            analyzed = new Analyzed(interpreter, statements, compiled);
+            if (key != null) {
+                synchronized (cache) {
+                    cache.put(key, analyzed);
+                }
+            }
+        }
+
+        // The modules are looked up again on every run, which only analyzes the ones that changed since they
+        // were last loaded, see ModuleLoader.
+        final var directory = path != null ? Paths.get(path).toAbsolutePath().getParent() : Paths.get("");
+        final var modules = new ModuleLoader(engine, lazyBodies, validateBodies).load(directory,
+                analyzed.statements);
+        if (modules == null) {
+            return 65;
+        }
+
+        final var interpreter = new Interpreter(analyzed.resolved);
+        interpreter.addModules(modules);
+        if (maxSteps > 0 || timeLimit > 0) {
+            interpreter.limit(maxSteps, timeLimit);
+        }
+        interpreter.heap.limit(memoryLimit);
+        if (analyzed.compiled != null) {
+            interpreter.interpret(analyzed.compiled);
+        } else {
+            interpreter.interpret(analyzed.statements);
+        }
+        return Lox.hadRuntimeError() ? 70 : 0;
+    }
+
+    // a positive limit, 0 if the argument is not one
+    private static long parseLimit(String limit) {
+        try {
+            return Math.max(Long.parseLong(limit), 0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // writes everything as frames of one kind to the client, interleaved with the frames of the other stream
+    private static final class FrameStream extends OutputStream {
+        private final SocketChannel channel;
+        private final byte kind;
+
+        FrameStream(SocketChannel channel, byte kind) {
+            this.channel = channel;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            final var frame = ByteBuffer.allocate(5 + length).put(kind).putInt(length).put(bytes, offset, length)
+                    .flip();
+            synchronized (channel) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        }
+    }
+}
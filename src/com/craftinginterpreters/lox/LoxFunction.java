@@ -3,20 +3,30 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Fun declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Fun declaration;
+    final FrameLayout layout;
+    final Cell[] closure;
+    final boolean isInitializer;
+    final LoxClass superclass;
+    final LoxInstance receiver;
 
-    LoxFunction(Stmt.Fun declaration, Environment closure, boolean isInitializer) {
-        this.closure = closure;
+    LoxFunction(Stmt.Fun declaration, FrameLayout layout, Cell[] closure, boolean isInitializer,
+                LoxClass superclass) {
+        this(declaration, layout, closure, isInitializer, superclass, null);
+    }
+
+    LoxFunction(Stmt.Fun declaration, FrameLayout layout, Cell[] closure, boolean isInitializer,
+                LoxClass superclass, LoxInstance receiver) {
         this.declaration = declaration;
+        this.layout = layout;
+        this.closure = closure;
         this.isInitializer = isInitializer;
+        this.superclass = superclass;
+        this.receiver = receiver;
     }
 
     LoxFunction bind(LoxInstance instance) {
-        final var environment = new Environment(closure);
-        environment.defineByName("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, layout, closure, isInitializer, superclass, instance);
     }
 
     @Override
@@ -26,22 +36,64 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        final var environment = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); ++i) {
-            environment.define(declaration.parameters.get(i), arguments.get(i));
+        return call(interpreter, arguments, receiver);
+    }
+
+    // calls the function as a method of the given receiver without binding it first
+    Object call(Interpreter interpreter, List<Object> arguments, LoxInstance receiver) {
+        final var frame = enter(interpreter);
+        try {
+            for (int i = 0; i < arguments.size(); ++i) {
+                bindParameter(frame, i, arguments.get(i));
+            }
+            return execute(interpreter, frame, receiver);
+        } finally {
+            leave(interpreter, frame);
+        }
+    }
+
+    // A call takes a frame from the interpreter's pool with enter(), stores the arguments with bindParameter(),
+    // runs the body with execute() and returns the frame with leave(), also when the call fails.
+    Object[] enter(Interpreter interpreter) {
+        interpreter.step(declaration.name);
+        if (declaration.lazyBody != null) {
+            Lox.prepareBody(interpreter, declaration);
         }
+        return interpreter.acquireFrame(layout.slotCount, declaration.name);
+    }
 
+    void bindParameter(Object[] frame, int index, Object argument) {
+        store(frame, layout.parameters.get(index), argument);
+    }
+
+    void leave(Interpreter interpreter, Object[] frame) {
+        interpreter.releaseFrame(frame, layout.slotCount);
+    }
+
+    Object execute(Interpreter interpreter, Object[] frame, LoxInstance receiver) {
+        store(frame, layout.receiver, receiver);
+        store(frame, layout.superclass, superclass);
         try {
-            interpreter.executeBlock(declaration.functionBody, environment);
+            if (declaration.compiledBody != null) {
+                interpreter.executeBody(declaration.compiledBody, frame, closure);
+            } else {
+                interpreter.executeBody(declaration.functionBody, frame, closure);
+            }
         } catch (Interpreter.Return e) {
-            return isInitializer ? closure.getAt(0, "this") : e.getValue();
+            return isInitializer ? receiver : e.getValue();
         }
         if (isInitializer) {
-            return closure.getAt(0, "this");
+            return receiver;
         }
         return null;
     }
 
+    private static void store(Object[] frame, LocalVariable variable, Object value) {
+        if (variable != null) {
+            frame[variable.slot] = variable.captured ? new Cell(value) : value;
+        }
+    }
+
     @Override
     public String toString() {
         return "<fn " + declaration.name.lexeme + ">";
@@ -6,6 +6,8 @@ import java.util.Map;
 public class LoxInstance {
     final LoxClass klass;
     private final Map<String, Object> fields = new HashMap<>();
+    // what the instance holds, null unless the interpreter tracks values, see HeapAccount.instantiate()
+    HeapAccount.Tracked tracked;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
@@ -25,8 +27,31 @@ public class LoxInstance {
                 + name.lexeme + "'.");
     }
 
+    boolean hasField(String name) {
+        return fields.containsKey(name);
+    }
+
+    // the value of a field, null if there is no such field
+    Object field(String name) {
+        return fields.get(name);
+    }
+
+    Map<String, Object> fields() {
+        return fields;
+    }
+
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        set(name.lexeme, value, name);
+    }
+
+    // a new field is charged to the instance, the token is reported if that exceeds the memory limit, see
+    // HeapAccount.track()
+    void set(String name, Object value, Token token) {
+        final var size = fields.size();
+        fields.put(name, value);
+        if (fields.size() != size && tracked != null) {
+            tracked.grow(HeapAccount.FIELD_BYTES, token);
+        }
     }
 
     @Override
@@ -0,0 +1,149 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A growable list. As long as it only ever held numbers, the elements are stored unboxed in a double[];
+// storing anything else switches it to an Object[] for good. The list and its array are charged to the lists of
+// the interpreter that created it.
+public class LoxList implements NativeObject {
+    private double[] numbers = new double[8];
+    private Object[] objects = null;
+    private int size = 0;
+    // null unless the interpreter tracks values, see HeapAccount.track()
+    private final HeapAccount.Tracked tracked;
+    // the methods bound to the list, created on their first access and kept, so that calling them in a loop does
+    // not allocate
+    private NativeFunction getMethod;
+    private NativeFunction setMethod;
+    private NativeFunction pushMethod;
+    private NativeFunction popMethod;
+
+    LoxList(HeapAccount heap) {
+        final var bytes = HeapAccount.LIST_BYTES + HeapAccount.ARRAY_BYTES + 8L * numbers.length;
+        tracked = heap.track(this, heap.lists, bytes, null);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        return objects == null ? (Object)numbers[index] : objects[index];
+    }
+
+    void set(int index, Object value) {
+        if (objects == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            box();
+        }
+        objects[index] = value;
+    }
+
+    void add(Object value) {
+        if (objects == null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) {
+                    if (tracked != null) {
+                        tracked.grow(8L * size, null);
+                    }
+                    numbers = Arrays.copyOf(numbers, size * 2);
+                }
+                numbers[size++] = (double)value;
+                return;
+            }
+            box();
+        }
+        if (size == objects.length) {
+            if (tracked != null) {
+                tracked.grow(4L * size, null);
+            }
+            objects = Arrays.copyOf(objects, size * 2);
+        }
+        objects[size++] = value;
+    }
+
+    Object removeLast() {
+        final var last = get(size - 1);
+        if (objects != null) {
+            objects[size - 1] = null;
+        }
+        --size;
+        return last;
+    }
+
+    private void box() {
+        // an array of references takes half of what one of doubles does
+        if (tracked != null) {
+            tracked.grow(-4L * numbers.length, null);
+        }
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; ++i) {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)size;
+            case "get":
+                if (getMethod == null) {
+                    getMethod = NativeFunction.of("get", (interpreter, index) ->
+                            get(NativeFunction.index("get", index, size)));
+                }
+                return getMethod;
+            case "set":
+                if (setMethod == null) {
+                    setMethod = NativeFunction.of("set", (interpreter, index, value) -> {
+                        set(NativeFunction.index("set", index, size), value);
+                        return value;
+                    });
+                }
+                return setMethod;
+            case "push":
+                if (pushMethod == null) {
+                    pushMethod = NativeFunction.of("push", (interpreter, value) -> {
+                        add(value);
+                        return value;
+                    });
+                }
+                return pushMethod;
+            case "pop":
+                if (popMethod == null) {
+                    popMethod = NativeFunction.of("pop", (interpreter) -> {
+                        if (size == 0) {
+                            throw new NativeError("Cannot pop from an empty list.");
+                        }
+                        return removeLast();
+                    });
+                }
+                return popMethod;
+            default:
+                throw new RuntimeError(name, "List does not contain a property called '" + name.lexeme + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (!Interpreter.beginStringify(this)) {
+            return "[...]";
+        }
+        try {
+            final var builder = new StringBuilder("[");
+            for (int i = 0; i < size; ++i) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append(Interpreter.stringify(get(i)));
+            }
+            return builder.append("]").toString();
+        } finally {
+            Interpreter.endStringify(this);
+        }
+    }
+}
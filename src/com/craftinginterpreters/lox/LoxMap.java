@@ -0,0 +1,213 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A hash map with Lox equality semantics for its keys. Entries are kept in insertion order in dense key and
+// value arrays, and an open addressing table with linear probing maps hashes to entry indices.
+public class LoxMap implements NativeObject {
+    private static final Object DELETED = new Object();
+
+    private Object[] keys = new Object[8];
+    private Object[] values = new Object[8];
+    // 0 marks an empty slot, any other value is the index of an entry plus one
+    private int[] table = new int[16];
+    // number of used entries, including deleted ones
+    private int entries = 0;
+    private int size = 0;
+    private final HeapAccount heap;
+    // null unless the interpreter tracks values, see HeapAccount.track()
+    private final HeapAccount.Tracked tracked;
+    // the methods bound to the map, created on their first access and kept, like those of LoxList
+    private NativeFunction getMethod;
+    private NativeFunction setMethod;
+    private NativeFunction hasMethod;
+    private NativeFunction removeMethod;
+    private NativeFunction keysMethod;
+
+    // the map and its arrays are charged to the maps of the interpreter that created it
+    LoxMap(HeapAccount heap) {
+        this.heap = heap;
+        final var bytes = HeapAccount.MAP_BYTES + HeapAccount.ARRAY_BYTES * 3 + 16L * keys.length;
+        tracked = heap.track(this, heap.maps, bytes, null);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object lookUp(Object key) {
+        final var entry = find(key);
+        return entry < 0 ? null : values[entry];
+    }
+
+    boolean has(Object key) {
+        return find(key) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        if (key instanceof Double && Double.isNaN((double)key)) {
+            // NaN is not equal to itself, so it could never be looked up again
+            throw new NativeError("NaN cannot be used as a map key.");
+        }
+        final var entry = find(key);
+        if (entry >= 0) {
+            values[entry] = value;
+            return;
+        }
+        if (entries == keys.length) {
+            rebuild();
+        }
+        keys[entries] = key;
+        values[entries] = value;
+        ++entries;
+        ++size;
+        insert(entries, hash(key));
+    }
+
+    Object remove(Object key) {
+        final var entry = find(key);
+        if (entry < 0) {
+            return null;
+        }
+        final var value = values[entry];
+        // the slot in the table stays occupied so that probing continues past it
+        keys[entry] = DELETED;
+        values[entry] = null;
+        --size;
+        return value;
+    }
+
+    LoxList keys() {
+        final var list = new LoxList(heap);
+        for (int i = 0; i < entries; ++i) {
+            if (keys[i] != DELETED) {
+                list.add(keys[i]);
+            }
+        }
+        return list;
+    }
+
+    private int find(Object key) {
+        final var mask = table.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            final var entry = table[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (keys[entry] != DELETED && Interpreter.isEqual(keys[entry], key)) {
+                return entry;
+            }
+        }
+    }
+
+    private void insert(int entryPlusOne, int hash) {
+        final var mask = table.length - 1;
+        var slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entryPlusOne;
+    }
+
+    // drops deleted entries and grows the arrays if they are still more than half full afterwards
+    private void rebuild() {
+        final var capacity = size * 2 > keys.length ? keys.length * 2 : keys.length;
+        final var oldKeys = keys;
+        final var oldValues = values;
+        final var oldEntries = entries;
+        if (tracked != null) {
+            tracked.grow(16L * (capacity - keys.length), null);
+        }
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        table = new int[capacity * 2];
+        entries = 0;
+        for (int i = 0; i < oldEntries; ++i) {
+            if (oldKeys[i] != DELETED) {
+                keys[entries] = oldKeys[i];
+                values[entries] = oldValues[i];
+                ++entries;
+                insert(entries, hash(oldKeys[i]));
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        if (key instanceof Double) {
+            // -0.0 and 0.0 are equal in Lox and must hash alike
+            final var value = (double)key == 0.0 ? 0.0 : (double)key;
+            final var bits = Double.doubleToLongBits(value);
+            return spread((int)(bits ^ (bits >>> 32)));
+        }
+        return spread(key.hashCode());
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)size;
+            case "get":
+                if (getMethod == null) {
+                    getMethod = NativeFunction.of("get", (interpreter, key) -> lookUp(key));
+                }
+                return getMethod;
+            case "set":
+                if (setMethod == null) {
+                    setMethod = NativeFunction.of("set", (interpreter, key, value) -> {
+                        put(key, value);
+                        return value;
+                    });
+                }
+                return setMethod;
+            case "has":
+                if (hasMethod == null) {
+                    hasMethod = NativeFunction.of("has", (interpreter, key) -> has(key));
+                }
+                return hasMethod;
+            case "remove":
+                if (removeMethod == null) {
+                    removeMethod = NativeFunction.of("remove", (interpreter, key) -> remove(key));
+                }
+                return removeMethod;
+            case "keys":
+                if (keysMethod == null) {
+                    keysMethod = NativeFunction.of("keys", (interpreter) -> keys());
+                }
+                return keysMethod;
+            default:
+                throw new RuntimeError(name, "Map does not contain a property called '" + name.lexeme + "'.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (!Interpreter.beginStringify(this)) {
+            return "{...}";
+        }
+        try {
+            final var builder = new StringBuilder("{");
+            var first = true;
+            for (int i = 0; i < entries; ++i) {
+                if (keys[i] == DELETED) {
+                    continue;
+                }
+                if (!first) {
+                    builder.append(", ");
+                }
+                first = false;
+                builder.append(Interpreter.stringify(keys[i])).append(": ").append(Interpreter.stringify(values[i]));
+            }
+            return builder.append("}").toString();
+        } finally {
+            Interpreter.endStringify(this);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// A file imported with `import "path";`, analyzed and compiled once by the ModuleLoader and shared by every
+// interpreter that imports it. Running a module only changes the interpreter: it defines the globals of the
+// module, and the interpreter remembers that it ran it, see Interpreter.visitImportStmt().
+final class LoxModule {
+    // the absolute path of the file
+    final Path path;
+    final List<Stmt> statements;
+    // the layout of the frame of the top-level code of the module
+    final FrameLayout layout;
+    // the statements compiled by the engine, null if the engine walks the AST itself
+    final Executor compiled;
+    // the absolute paths of the modules it imports, in the order of its import statements
+    final List<Path> imports;
+
+    LoxModule(Path path, List<Stmt> statements, FrameLayout layout, Executor compiled, List<Path> imports) {
+        this.path = path;
+        this.statements = statements;
+        this.layout = layout;
+        this.compiled = compiled;
+        this.imports = imports;
+    }
+}
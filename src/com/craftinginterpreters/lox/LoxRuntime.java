@@ -0,0 +1,316 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The operations that code compiled by loxc (see JavaGenerator) calls for everything that needs more than a
+// line of Java. They check types and report errors exactly like the Interpreter, whose classes (LoxClass,
+// LoxInstance, LoxFunction, the native libraries, ...) make up the rest of the runtime of a compiled script.
+final class LoxRuntime {
+    static final Cell[] NO_CELLS = new Cell[0];
+
+    private LoxRuntime() {
+    }
+
+    // runs the top level of a compiled script and exits like Lox.runFile() after a runtime error
+    static void run(Executor script) {
+        final var interpreter = new Interpreter();
+        interpreter.interpret(script);
+        System.out.flush();
+        if (Lox.hadRuntimeError()) {
+            System.exit(70);
+        }
+    }
+
+    // the declaration of a compiled function, which is all a LoxFunction needs to know about its code
+    static Stmt.Fun function(Token name, Executor body, Token... parameters) {
+        final var function = new Stmt.Fun(name, List.of(parameters), new ArrayList<>());
+        function.compiledBody = body;
+        return function;
+    }
+
+    // the part of a frame layout that a call uses: the slots receiving the receiver, superclass and arguments
+    static FrameLayout layout(int slotCount, LocalVariable receiver, LocalVariable superclass,
+                              LocalVariable... parameters) {
+        final var layout = new FrameLayout();
+        layout.slotCount = slotCount;
+        layout.receiver = receiver;
+        layout.superclass = superclass;
+        layout.parameters.addAll(Arrays.asList(parameters));
+        return layout;
+    }
+
+    static LocalVariable local(int slot, boolean captured) {
+        final var variable = new LocalVariable(slot);
+        variable.captured = captured;
+        return variable;
+    }
+
+    static LoxClass superclass(Token name, Object superclass) {
+        if (!(superclass instanceof LoxClass)) {
+            throw new RuntimeError(name, "Superclass must be a class.");
+        }
+        return (LoxClass)superclass;
+    }
+
+    static Object global(Interpreter interpreter, Token name) {
+        final var global = interpreter.globals.global(name);
+        if (global == null) {
+            throw new RuntimeError(name, "Use of undeclared variable '" + name.lexeme + "'.");
+        }
+        return global.get(name);
+    }
+
+    static Object assignGlobal(Interpreter interpreter, Token name, Object value) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    // evaluates an expression statement or the left operand of a comma for its side effects only
+    static void discard(Object value) {
+    }
+
+    static Object sequence(Object first, Object second) {
+        return second;
+    }
+
+    static Object add(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        if (left instanceof String || right instanceof String) {
+            // "1" + true = "1true"
+            return Interpreter.stringify(left) + Interpreter.stringify(right);
+        }
+        throw new RuntimeError(operator, "Operator '+' is only supported for numbers and strings.");
+    }
+
+    static Object subtract(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return divide(operator, (double)left, (double)right);
+    }
+
+    static double divide(Token operator, double dividend, double divisor) {
+        if (divisor == 0.0) {
+            throw new RuntimeError(operator, "Division by 0.");
+        }
+        return dividend / divisor;
+    }
+
+    static boolean greater(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static boolean greaterEqual(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static boolean less(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static boolean lessEqual(Token operator, Object left, Object right) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static Object negate(Token operator, Object operand) {
+        Interpreter.checkNumberOperand(operator, operand);
+        return -(double)operand;
+    }
+
+    // the value is evaluated before the object, like in the Interpreter
+    static Object set(Token name, Object value, Object object) {
+        if (object instanceof LoxInstance) {
+            ((LoxInstance)object).set(name, value);
+            return value;
+        }
+        throw new RuntimeError(name, "Expression does not evaluate to an instance of an object.");
+    }
+
+    static Object superMethod(Token method, Object superclass, Object receiver) {
+        final var function = ((LoxClass)superclass).findMethod(method.lexeme);
+        if (function == null) {
+            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+        }
+        return function.bind((LoxInstance)receiver);
+    }
+
+    // The callee of a method call `object.name(...)`: a method found on the class of an instance is returned
+    // unbound and invoke() passes the object as its receiver, anything else is the value of the property.
+    static Object method(Interpreter interpreter, Token name, Object object) {
+        if (object instanceof LoxInstance) {
+            final var instance = (LoxInstance)object;
+            if (!instance.hasField(name.lexeme)) {
+                final var method = instance.klass.findMethod(name.lexeme);
+                if (method != null) {
+                    return method;
+                }
+            }
+        }
+        return interpreter.property(name, object);
+    }
+
+    // Calls the callee returned by method(), the object is only used as the receiver of an unbound method. Calls
+    // with up to three arguments bind them to the frame of a function directly instead of going through an array.
+    static Object invoke(Interpreter interpreter, Token paren, Object object, Object callee) {
+        if (isDirect(callee, 0)) {
+            final var function = (LoxFunction)callee;
+            return execute(interpreter, paren, function, receiver(function, object), function.enter(interpreter));
+        }
+        return callAny(interpreter, paren, callee, new Object[0]);
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object object, Object callee, Object first) {
+        if (isDirect(callee, 1)) {
+            final var function = (LoxFunction)callee;
+            final var frame = function.enter(interpreter);
+            function.bindParameter(frame, 0, first);
+            return execute(interpreter, paren, function, receiver(function, object), frame);
+        }
+        return callAny(interpreter, paren, callee, new Object[] {first});
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object object, Object callee, Object first,
+                         Object second) {
+        if (isDirect(callee, 2)) {
+            final var function = (LoxFunction)callee;
+            final var frame = function.enter(interpreter);
+            function.bindParameter(frame, 0, first);
+            function.bindParameter(frame, 1, second);
+            return execute(interpreter, paren, function, receiver(function, object), frame);
+        }
+        return callAny(interpreter, paren, callee, new Object[] {first, second});
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object object, Object callee, Object first,
+                         Object second, Object third) {
+        if (isDirect(callee, 3)) {
+            final var function = (LoxFunction)callee;
+            final var frame = function.enter(interpreter);
+            function.bindParameter(frame, 0, first);
+            function.bindParameter(frame, 1, second);
+            function.bindParameter(frame, 2, third);
+            return execute(interpreter, paren, function, receiver(function, object), frame);
+        }
+        return callAny(interpreter, paren, callee, new Object[] {first, second, third});
+    }
+
+    static Object invoke(Interpreter interpreter, Token paren, Object object, Object callee, Object... arguments) {
+        if (isDirect(callee, arguments.length)) {
+            final var function = (LoxFunction)callee;
+            return callFunction(interpreter, paren, function, receiver(function, object), arguments);
+        }
+        return callAny(interpreter, paren, callee, arguments);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee) {
+        if (isDirect(callee, 0)) {
+            final var function = (LoxFunction)callee;
+            return execute(interpreter, paren, function, function.receiver, function.enter(interpreter));
+        }
+        return callAny(interpreter, paren, callee, new Object[0]);
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object first) {
+        if (isDirect(callee, 1)) {
+            final var function = (LoxFunction)callee;
+            final var frame = function.enter(interpreter);
+            function.bindParameter(frame, 0, first);
+            return execute(interpreter, paren, function, function.receiver, frame);
+        }
+        return callAny(interpreter, paren, callee, new Object[] {first});
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object first, Object second) {
+        if (isDirect(callee, 2)) {
+            final var function = (LoxFunction)callee;
+            final var frame = function.enter(interpreter);
+            function.bindParameter(frame, 0, first);
+            function.bindParameter(frame, 1, second);
+            return execute(interpreter, paren, function, function.receiver, frame);
+        }
+        return callAny(interpreter, paren, callee, new Object[] {first, second});
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object first, Object second,
+                       Object third) {
+        if (isDirect(callee, 3)) {
+            final var function = (LoxFunction)callee;
+            final var frame = function.enter(interpreter);
+            function.bindParameter(frame, 0, first);
+            function.bindParameter(frame, 1, second);
+            function.bindParameter(frame, 2, third);
+            return execute(interpreter, paren, function, function.receiver, frame);
+        }
+        return callAny(interpreter, paren, callee, new Object[] {first, second, third});
+    }
+
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object... arguments) {
+        if (isDirect(callee, arguments.length)) {
+            final var function = (LoxFunction)callee;
+            return callFunction(interpreter, paren, function, function.receiver, arguments);
+        }
+        return callAny(interpreter, paren, callee, arguments);
+    }
+
+    private static boolean isDirect(Object callee, int argumentCount) {
+        return callee instanceof LoxFunction && ((LoxFunction)callee).arity() == argumentCount;
+    }
+
+    private static LoxInstance receiver(LoxFunction function, Object object) {
+        if (function.receiver != null || !(object instanceof LoxInstance)) {
+            return function.receiver;
+        }
+        return (LoxInstance)object;
+    }
+
+    // natives, classes and calls with the wrong number of arguments
+    private static Object callAny(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        if (callee instanceof NativeFunction) {
+            final var function = (NativeFunction)callee;
+            if (function.arity == arguments.length && function.arity <= NativeFunction.MAX_FAST_ARITY) {
+                return interpreter.callNative(paren, function,
+                        function.arity > 0 ? arguments[0] : null,
+                        function.arity > 1 ? arguments[1] : null,
+                        function.arity > 2 ? arguments[2] : null);
+            }
+        }
+        return interpreter.call(paren, callee, Arrays.asList(arguments));
+    }
+
+    private static Object callFunction(Interpreter interpreter, Token paren, LoxFunction function,
+                                       LoxInstance receiver, Object[] arguments) {
+        final var frame = function.enter(interpreter);
+        for (int i = 0; i < arguments.length; ++i) {
+            function.bindParameter(frame, i, arguments[i]);
+        }
+        return execute(interpreter, paren, function, receiver, frame);
+    }
+
+    // runs a function whose frame was entered and bound, and leaves the frame
+    private static Object execute(Interpreter interpreter, Token paren, LoxFunction function,
+                                  LoxInstance receiver, Object[] frame) {
+        try {
+            return function.execute(interpreter, frame, receiver);
+        } catch (StackOverflowError e) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        } finally {
+            function.leave(interpreter, frame);
+        }
+    }
+}
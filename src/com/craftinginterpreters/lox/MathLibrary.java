@@ -0,0 +1,36 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.craftinginterpreters.lox.NativeFunction.number;
+
+public class MathLibrary implements NativeLibrary {
+    @Override
+    public List<NativeFunction> functions() {
+        return List.of(
+                NativeFunction.of("abs", (interpreter, x) -> Math.abs(number("abs", x))),
+                NativeFunction.of("floor", (interpreter, x) -> Math.floor(number("floor", x))),
+                NativeFunction.of("ceil", (interpreter, x) -> Math.ceil(number("ceil", x))),
+                NativeFunction.of("round", (interpreter, x) -> (double)Math.round(number("round", x))),
+                NativeFunction.of("sqrt", (interpreter, x) -> Math.sqrt(number("sqrt", x))),
+                NativeFunction.of("exp", (interpreter, x) -> Math.exp(number("exp", x))),
+                NativeFunction.of("log", (interpreter, x) -> Math.log(number("log", x))),
+                NativeFunction.of("sin", (interpreter, x) -> Math.sin(number("sin", x))),
+                NativeFunction.of("cos", (interpreter, x) -> Math.cos(number("cos", x))),
+                NativeFunction.of("tan", (interpreter, x) -> Math.tan(number("tan", x))),
+                NativeFunction.of("atan2", (interpreter, y, x) -> Math.atan2(number("atan2", y), number("atan2", x))),
+                NativeFunction.of("pow", (interpreter, x, y) -> Math.pow(number("pow", x), number("pow", y))),
+                NativeFunction.of("min", (interpreter, x, y) -> Math.min(number("min", x), number("min", y))),
+                NativeFunction.of("max", (interpreter, x, y) -> Math.max(number("max", x), number("max", y))),
+                NativeFunction.of("mod", (interpreter, x, y) -> {
+                    final var divisor = number("mod", y);
+                    if (divisor == 0.0) {
+                        throw new NativeError("Division by 0.");
+                    }
+                    return number("mod", x) % divisor;
+                }),
+                NativeFunction.of("random", (interpreter) -> ThreadLocalRandom.current().nextDouble())
+        );
+    }
+}
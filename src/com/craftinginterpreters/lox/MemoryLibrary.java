@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// What the values of the running script take up, as accounted by the interpreter's HeapAccount. Values other than
+// frames are only accounted when the run has a memory limit or --heap-stats, see HeapAccount.trackValues().
+public class MemoryLibrary implements NativeLibrary {
+    @Override
+    public List<NativeFunction> functions() {
+        return List.of(
+                // bytes taken up by the values alive and the frames of the calls in progress
+                NativeFunction.of("memoryUsed", (interpreter) -> (double)interpreter.heap.used()),
+                // instances of a class alive, not counting those of its subclasses
+                NativeFunction.of("instanceCount", (interpreter, klass) ->
+                        (double)interpreter.heap.instances(loxClass("instanceCount", klass)).count),
+                // bytes taken up by the instances of a class and their fields
+                NativeFunction.of("instanceBytes", (interpreter, klass) ->
+                        (double)interpreter.heap.instances(loxClass("instanceBytes", klass)).bytes)
+        );
+    }
+
+    private static LoxClass loxClass(String function, Object value) {
+        if (value instanceof LoxClass) {
+            return (LoxClass)value;
+        }
+        throw new NativeError("Argument to '" + function + "' must be a class.");
+    }
+}
@@ -0,0 +1,196 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Loads the modules a script imports, the modules those import and so on, before the script runs. Modules only
+// share globals, which are looked up when the code runs, so a module is analyzed from the source of its own
+// file alone: every module is read, scanned, parsed, resolved, optimized and compiled on a virtual thread of
+// its own as soon as an import of it is found. Only a module and the modules it imports load one after the
+// other, everything that is found in the meantime loads in parallel.
+//
+// An analyzed module is kept for every interpreter of the process to share, until its file changes, so that
+// the daemon only analyzes the modules that changed since the last run. Modules with errors are not kept, nor
+// are modules with lazy bodies, since those are resolved on their first call by whichever interpreter makes it.
+final class ModuleLoader {
+    // the least recently used module is dropped first
+    private static final int MAX_CACHED_MODULES = 4096;
+
+    private static final Map<LoxDaemon.CacheKey, LoxModule> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LoxDaemon.CacheKey, LoxModule> eldest) {
+            return size() > MAX_CACHED_MODULES;
+        }
+    };
+
+    // the outcome of loading one module
+    private static final class Load {
+        // null if the module has errors
+        final LoxModule module;
+        // what loading the module reported, empty if nothing went wrong
+        final String errors;
+
+        Load(LoxModule module, String errors) {
+            this.module = module;
+            this.errors = errors;
+        }
+    }
+
+    private final Engine engine;
+    private final boolean lazyBodies;
+    private final boolean validateBodies;
+    // every module that was found so far, by absolute path
+    private final Map<Path, CompletableFuture<Load>> loads = new ConcurrentHashMap<>();
+    // the threads the modules load on, for the duration of load()
+    private ExecutorService executor;
+
+    ModuleLoader(Engine engine, boolean lazyBodies, boolean validateBodies) {
+        this.engine = engine;
+        this.lazyBodies = lazyBodies;
+        this.validateBodies = validateBodies;
+    }
+
+    // Loads the modules the analyzed statements import, with the paths of the imports relative to the given
+    // directory. The errors of a module are reported after the path of the module, in the order of the imports
+    // whatever the order the modules loaded in. The modules by path, null if any of them has errors.
+    Map<Path, LoxModule> load(Path directory, List<Stmt> statements) {
+        final var imports = resolveImports(directory, statements);
+        if (Lox.hadError()) {
+            return null;
+        }
+        if (imports.isEmpty()) {
+            return Map.of();
+        }
+        try (final var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor = threads;
+            for (final var path : imports) {
+                start(path);
+            }
+            // a module starts the loads of its imports before its own load completes, so once all loads that
+            // were started have completed, no more will be started
+            while (true) {
+                final var pending = loads.values().stream().filter(load -> !load.isDone())
+                        .toArray(CompletableFuture[]::new);
+                if (pending.length == 0) {
+                    break;
+                }
+                CompletableFuture.allOf(pending).join();
+            }
+        }
+
+        final var modules = new HashMap<Path, LoxModule>();
+        report(imports, modules, new HashSet<>());
+        return Lox.hadError() ? null : modules;
+    }
+
+    private void report(List<Path> imports, Map<Path, LoxModule> modules, Set<Path> reported) {
+        final var state = Lox.runState();
+        for (final var path : imports) {
+            if (!reported.add(path)) {
+                continue;
+            }
+            final var load = loads.get(path).join();
+            if (!load.errors.isEmpty()) {
+                state.err.println(describe(path));
+                state.err.print(load.errors);
+                state.hadError = true;
+            }
+            if (load.module != null) {
+                modules.put(path, load.module);
+                report(load.module.imports, modules, reported);
+            }
+        }
+    }
+
+    // the line errors in a module are reported after, with the path of the module relative to the working directory
+    static String describe(Path module) {
+        return "In module '" + Paths.get("").toAbsolutePath().relativize(module) + "':";
+    }
+
+    private void start(Path path) {
+        loads.computeIfAbsent(path, p -> CompletableFuture.supplyAsync(() -> load(p), executor));
+    }
+
+    // runs on a thread of its own, whose errors are kept for report()
+    private Load load(Path path) {
+        final var errors = new ByteArrayOutputStream();
+        Lox.beginRun(System.out, new PrintStream(errors, true, Charset.defaultCharset()));
+        LoxModule module = null;
+        try {
+            final var key = lazyBodies ? null
+                    : new LoxDaemon.CacheKey(path, Files.getLastModifiedTime(path), Files.size(path), engine,
+                            validateBodies);
+            if (key != null) {
+                synchronized (cache) {
+                    module = cache.get(key);
+                }
+            }
+            if (module == null) {
+                module = analyze(path, new String(Files.readAllBytes(path), Charset.defaultCharset()));
+                if (module != null && key != null) {
+                    synchronized (cache) {
+                        cache.put(key, module);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Lox.runState().err.println("Could not read the module: " + e.getMessage());
+        }
+        if (module != null) {
+            for (final var imported : module.imports) {
+                start(imported);
+            }
+        }
+        return new Load(module, errors.toString(Charset.defaultCharset()));
+    }
+
+    // runs the front end and the engine on a module, null if it has errors
+    private LoxModule analyze(Path path, String source) {
+        final var interpreter = Interpreter.analyzer(engine);
+        final var statements = Lox.analyze(interpreter, source, path, lazyBodies, validateBodies);
+        if (statements == null) {
+            return null;
+        }
+        final var imports = resolveImports(path.getParent(), statements);
+        if (Lox.hadError()) {
+            return null;
+        }
+        return new LoxModule(path, statements, interpreter.scriptLayout(), engine.compile(interpreter, statements),
+                imports);
+    }
+
+    // Finds the files the import statements refer to and records them in the statements. The Resolver only
+    // allows imports at the top level, so there is no need to look further.
+    private static List<Path> resolveImports(Path directory, List<Stmt> statements) {
+        final var imports = new ArrayList<Path>();
+        for (final var statement : statements) {
+            if (statement instanceof Stmt.Import) {
+                final var stmt = (Stmt.Import)statement;
+                final var path = directory.resolve((String)stmt.path.literal).toAbsolutePath().normalize();
+                if (!Files.isRegularFile(path)) {
+                    Lox.error(stmt.path, "Module not found.");
+                    continue;
+                }
+                stmt.module = path;
+                imports.add(path);
+            }
+        }
+        return imports;
+    }
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by native functions. Natives don't know where they are called from, so the interpreter turns it
+// into a RuntimeError reported at the line of the call.
+public class NativeError extends RuntimeException {
+    public NativeError(String message) {
+        super(message);
+    }
+}
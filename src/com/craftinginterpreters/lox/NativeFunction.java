@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function implemented in Java, taking up to MAX_FAST_ARITY arguments. Calls go through the fixed-arity entry
+// points call0() to call3(), which the interpreter invokes directly with the evaluated arguments instead of
+// collecting them into a list first. There is a subclass for each arity, which declares the entry point of its
+// arity only, so a native cannot be called through one it does not implement.
+public abstract class NativeFunction implements LoxCallable {
+    static final int MAX_FAST_ARITY = 3;
+
+    public interface Body0 {
+        Object call(Interpreter interpreter);
+    }
+
+    public interface Body1 {
+        Object call(Interpreter interpreter, Object first);
+    }
+
+    public interface Body2 {
+        Object call(Interpreter interpreter, Object first, Object second);
+    }
+
+    public interface Body3 {
+        Object call(Interpreter interpreter, Object first, Object second, Object third);
+    }
+
+    final String name;
+    final int arity;
+
+    // natives are only made by of(), which picks the subclass of their arity
+    private NativeFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    abstract static class Arity0 extends NativeFunction {
+        private Arity0(String name) {
+            super(name, 0);
+        }
+
+        abstract Object call0(Interpreter interpreter);
+    }
+
+    abstract static class Arity1 extends NativeFunction {
+        private Arity1(String name) {
+            super(name, 1);
+        }
+
+        abstract Object call1(Interpreter interpreter, Object first);
+    }
+
+    abstract static class Arity2 extends NativeFunction {
+        private Arity2(String name) {
+            super(name, 2);
+        }
+
+        abstract Object call2(Interpreter interpreter, Object first, Object second);
+    }
+
+    abstract static class Arity3 extends NativeFunction {
+        private Arity3(String name) {
+            super(name, 3);
+        }
+
+        abstract Object call3(Interpreter interpreter, Object first, Object second, Object third);
+    }
+
+    public static NativeFunction of(String name, Body0 body) {
+        return new Arity0(name) {
+            @Override
+            Object call0(Interpreter interpreter) {
+                return body.call(interpreter);
+            }
+        };
+    }
+
+    public static NativeFunction of(String name, Body1 body) {
+        return new Arity1(name) {
+            @Override
+            Object call1(Interpreter interpreter, Object first) {
+                return body.call(interpreter, first);
+            }
+        };
+    }
+
+    public static NativeFunction of(String name, Body2 body) {
+        return new Arity2(name) {
+            @Override
+            Object call2(Interpreter interpreter, Object first, Object second) {
+                return body.call(interpreter, first, second);
+            }
+        };
+    }
+
+    public static NativeFunction of(String name, Body3 body) {
+        return new Arity3(name) {
+            @Override
+            Object call3(Interpreter interpreter, Object first, Object second, Object third) {
+                return body.call(interpreter, first, second, third);
+            }
+        };
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    // the caller has checked that there are as many arguments as the arity
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        switch (arity) {
+            case 0:
+                return ((Arity0)this).call0(interpreter);
+            case 1:
+                return ((Arity1)this).call1(interpreter, arguments.get(0));
+            case 2:
+                return ((Arity2)this).call2(interpreter, arguments.get(0), arguments.get(1));
+            default:
+                return ((Arity3)this).call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+        }
+    }
+
+    static double number(String function, Object value) {
+        if (value instanceof Double) {
+            return (double)value;
+        }
+        throw new NativeError("Argument to '" + function + "' must be a number.");
+    }
+
+    static String string(String function, Object value) {
+        if (value instanceof String) {
+            return (String)value;
+        }
+        throw new NativeError("Argument to '" + function + "' must be a string.");
+    }
+
+    // an index has to be a whole number in [0, size)
+    static int index(String function, Object value, int size) {
+        final var number = number(function, value);
+        if (number != Math.floor(number) || number < 0 || number >= size) {
+            throw new NativeError("Index " + Interpreter.stringify(value) + " passed to '" + function
+                    + "' is out of range.");
+        }
+        return (int)number;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
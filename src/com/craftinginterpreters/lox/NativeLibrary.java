@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Service provider interface for native functions. Implementations are discovered with a ServiceLoader
+// (listed in META-INF/services/com.craftinginterpreters.lox.NativeLibrary) and their functions are defined
+// as globals of every new Interpreter.
+public interface NativeLibrary {
+    List<NativeFunction> functions();
+}
@@ -0,0 +1,6 @@
+package com.craftinginterpreters.lox;
+
+// A value implemented in Java whose properties can be read with the '.' operator like those of an instance.
+public interface NativeObject {
+    Object get(Token name);
+}
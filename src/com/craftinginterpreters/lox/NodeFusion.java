@@ -0,0 +1,357 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Rewrites small, frequent shapes of the resolved AST into fused nodes that the interpreter executes in a
+// single dispatch:
+//   i = i + 1          -> IncrementLocal       (also i = i - k for a number literal k)
+//   i < n              -> CompareLocalToConst  (<, <=, > and >= of a local and a number literal)
+//   o.f = o.f + 1      -> IncrementField       (o is a variable or this, k a number literal)
+//   o.m(...)           -> InvokeMethod         (calls the method without allocating a bound method)
+// Every fused node keeps the node it replaces. Whenever the values at run time do not fit the fast path (the
+// local is not a number, the field is missing, ...), the original node is evaluated instead, so the rewrite
+// never changes the semantics or the error messages of a program. Runs after the other analyses, which
+// therefore never see fused nodes.
+public class NodeFusion implements Expr.Visitor<Expr>, Stmt.Visitor<Void> {
+    enum Pattern {
+        INCREMENT_LOCAL,
+        COMPARE_LOCAL_TO_CONST,
+        INCREMENT_FIELD,
+        INVOKE_METHOD
+    }
+
+    // how often each pattern was rewritten and how often its fused node took the fast path or fell back
+    static class Statistics {
+        final long[] sites = new long[Pattern.values().length];
+        final long[] hits = new long[Pattern.values().length];
+        final long[] fallbacks = new long[Pattern.values().length];
+
+        void hit(Pattern pattern) {
+            ++hits[pattern.ordinal()];
+        }
+
+        void fallback(Pattern pattern) {
+            ++fallbacks[pattern.ordinal()];
+        }
+
+        void print() {
+            System.err.println("pattern                 sites         hits    fallbacks");
+            for (final var pattern : Pattern.values()) {
+                final var index = pattern.ordinal();
+                System.err.println(String.format("%-22s %6d %12d %12d", pattern, sites[index], hits[index],
+                        fallbacks[index]));
+            }
+        }
+    }
+
+    private final Interpreter interpreter;
+
+    public NodeFusion(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void fuse(List<Stmt> statements) {
+        for (final var statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private Expr fuse(Expr expression) {
+        return expression == null ? null : expression.accept(this);
+    }
+
+    private void fuseAll(List<Expr> expressions) {
+        for (int i = 0; i < expressions.size(); ++i) {
+            expressions.set(i, fuse(expressions.get(i)));
+        }
+    }
+
+    private Expr rewritten(Pattern pattern, Expr fused) {
+        final var statistics = interpreter.fusionStatistics();
+        if (statistics != null) {
+            ++statistics.sites[pattern.ordinal()];
+        }
+        return fused;
+    }
+
+    private static boolean sameVariable(Binding first, Binding second) {
+        if (first == null || second == null) {
+            return false;
+        }
+        if (first.local != null) {
+            return first.local == second.local;
+        }
+        return second.local == null && first.upvalue == second.upvalue;
+    }
+
+    // an expression that can be evaluated twice without observable difference and names the same object
+    private boolean sameObject(Expr first, Expr second) {
+        if (first instanceof Expr.This && second instanceof Expr.This) {
+            return true;
+        }
+        if (first instanceof Expr.Variable && second instanceof Expr.Variable) {
+            final var firstBinding = interpreter.binding(first);
+            final var secondBinding = interpreter.binding(second);
+            if (firstBinding == null && secondBinding == null) {
+                // both are the same global
+                return ((Expr.Variable)first).name.lexeme.equals(((Expr.Variable)second).name.lexeme);
+            }
+            return sameVariable(firstBinding, secondBinding);
+        }
+        return false;
+    }
+
+    private static Double numberLiteral(Expr expression) {
+        if (expression instanceof Expr.Literal && ((Expr.Literal)expression).value instanceof Double) {
+            return (Double)((Expr.Literal)expression).value;
+        }
+        return null;
+    }
+
+    // the amount added by `target + k` or `target - k`, null if the expression has a different shape
+    private static Double increment(Expr.Binary binary) {
+        final var amount = numberLiteral(binary.right);
+        if (amount == null) {
+            return null;
+        }
+        switch (binary.operator.type) {
+            case PLUS:
+                return amount;
+            case MINUS:
+                return -amount;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        expr.value = fuse(expr.value);
+        final var binding = interpreter.binding(expr);
+        if (binding != null && expr.value instanceof Expr.Binary) {
+            final var binary = (Expr.Binary)expr.value;
+            final var amount = increment(binary);
+            if (amount != null && binary.left instanceof Expr.Variable
+                    && sameVariable(binding, interpreter.binding(binary.left))) {
+                return rewritten(Pattern.INCREMENT_LOCAL, new Expr.IncrementLocal(expr, binding, amount));
+            }
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        expr.left = fuse(expr.left);
+        expr.right = fuse(expr.right);
+        switch (expr.operator.type) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                final var constant = numberLiteral(expr.right);
+                final var binding = expr.left instanceof Expr.Variable ? interpreter.binding(expr.left) : null;
+                if (constant != null && binding != null) {
+                    return rewritten(Pattern.COMPARE_LOCAL_TO_CONST,
+                            new Expr.CompareLocalToConst(expr, binding, constant));
+                }
+                return expr;
+            default:
+                return expr;
+        }
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        expr.left = fuse(expr.left);
+        expr.right = fuse(expr.right);
+        return expr;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        fuseAll(expr.arguments);
+        if (expr.callee instanceof Expr.Get && ((Expr.Get)expr.callee).scalarField == null) {
+            final var method = (Expr.Get)expr.callee;
+            method.object = fuse(method.object);
+            return rewritten(Pattern.INVOKE_METHOD, new Expr.InvokeMethod(expr, method));
+        }
+        expr.callee = fuse(expr.callee);
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        expr.object = fuse(expr.object);
+        return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        if (expr.scalarField == null && expr.value instanceof Expr.Binary) {
+            final var binary = (Expr.Binary)expr.value;
+            final var amount = increment(binary);
+            if (amount != null && binary.left instanceof Expr.Get) {
+                final var field = (Expr.Get)binary.left;
+                if (field.scalarField == null && field.name.lexeme.equals(expr.name.lexeme)
+                        && sameObject(expr.object, field.object)) {
+                    return rewritten(Pattern.INCREMENT_FIELD, new Expr.IncrementField(expr, field, amount));
+                }
+            }
+        }
+        expr.value = fuse(expr.value);
+        expr.object = fuse(expr.object);
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression = fuse(expr.expression);
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        expr.right = fuse(expr.right);
+        return expr;
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        expr.condition = fuse(expr.condition);
+        expr.thenBranch = fuse(expr.thenBranch);
+        expr.elseBranch = fuse(expr.elseBranch);
+        return expr;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitIncrementFieldExpr(Expr.IncrementField expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        return expr;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression = fuse(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition = fuse(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.loopCondition = fuse(stmt.loopCondition);
+        stmt.loopBody.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        stmt.loopCondition = fuse(stmt.loopCondition);
+        stmt.increment = fuse(stmt.increment);
+        stmt.loopBody.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression = fuse(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        fuse(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        stmt.value = fuse(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.scalar != null) {
+            // the interpreter instantiates the scalar object from the call itself, so only its arguments change
+            fuseAll(((Expr.Call)stmt.initializer).arguments);
+            return null;
+        }
+        stmt.initializer = fuse(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        fuse(stmt.functionBody);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        for (final var method : stmt.methods) {
+            method.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+}
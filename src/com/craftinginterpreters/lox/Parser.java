@@ -1,9 +1,10 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
@@ -12,6 +13,7 @@ program        → declaration* EOF ;
 declaration    → classDecl,
                | funDecl,
                | varDecl
+               | importDecl
                | statement ;
 classDecl      → "class" IDENTIFIER ( "<" IDENTIFIER )?
                  "{" function* "}" ;
@@ -19,6 +21,7 @@ funDecl        → "fun" function ;
 function       → IDENTIFIER "(" parameters? ")" block ;
 parameters     → IDENTIFIER ( "," IDENTIFIER )* ;
 varDecl        → "var" IDENTIFIER ( "=" expression )? ";" ;
+importDecl     → "import" STRING ";" ;
 statement      → exprStmt
                | ifStmt
                | whileStmt
@@ -72,18 +75,127 @@ public class Parser {
         LOOP,
     }
 
+    // How tightly the infix and postfix operators bind, from the loosest to the tightest, see parsePrecedence().
+    private enum Precedence {
+        NONE,
+        ASSIGNMENT,  // =
+        SEQUENCE,    // ,
+        CONDITIONAL, // ?:
+        OR,          // or
+        AND,         // and
+        EQUALITY,    // == !=
+        COMPARISON,  // < <= > >=
+        TERM,        // + -
+        FACTOR,      // * /
+        UNARY,       // ! -
+        CALL;        // () .
+
+        private static final Precedence[] VALUES = values();
+
+        // the precedence of the right operand of a left-associative operator
+        Precedence next() {
+            return VALUES[ordinal() + 1];
+        }
+    }
+
+    // the precedence of every token type as an infix or postfix operator, NONE if it is not one
+    private static final Precedence[] INFIX_PRECEDENCE = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(INFIX_PRECEDENCE, Precedence.NONE);
+        INFIX_PRECEDENCE[EQUAL.ordinal()] = Precedence.ASSIGNMENT;
+        INFIX_PRECEDENCE[COMMA.ordinal()] = Precedence.SEQUENCE;
+        INFIX_PRECEDENCE[QUESTION_MARK.ordinal()] = Precedence.CONDITIONAL;
+        INFIX_PRECEDENCE[OR.ordinal()] = Precedence.OR;
+        INFIX_PRECEDENCE[AND.ordinal()] = Precedence.AND;
+        INFIX_PRECEDENCE[BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX_PRECEDENCE[EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX_PRECEDENCE[GREATER.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[LESS.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[MINUS.ordinal()] = Precedence.TERM;
+        INFIX_PRECEDENCE[PLUS.ordinal()] = Precedence.TERM;
+        INFIX_PRECEDENCE[SLASH.ordinal()] = Precedence.FACTOR;
+        INFIX_PRECEDENCE[STAR.ordinal()] = Precedence.FACTOR;
+        INFIX_PRECEDENCE[LEFT_PAREN.ordinal()] = Precedence.CALL;
+        INFIX_PRECEDENCE[DOT.ordinal()] = Precedence.CALL;
+    }
+
+    // The tokens of a function body whose parsing was deferred, together with the nesting it appears in.
+    // Until the body has been parsed and resolved, the functionBody of its Stmt.Fun is empty.
+    static class LazyBody {
+        private final List<Token> tokens;
+        private final NestingType[] nesting;
+        // the parsed body if it was parsed ahead of time to validate it
+        private List<Stmt> statements = null;
+
+        private LazyBody(List<Token> tokens, NestingType[] nesting) {
+            this.tokens = tokens;
+            this.nesting = nesting;
+        }
+
+        boolean isInitializer() {
+            return Arrays.asList(nesting).contains(NestingType.INITIALIZER);
+        }
+
+        void write(SnapshotWriter out) throws IOException {
+            out.write(tokens);
+            out.writeVarint(nesting.length);
+            for (final var type : nesting) {
+                out.writeVarint(type.ordinal());
+            }
+            out.write(statements);
+        }
+
+        @SuppressWarnings("unchecked")
+        static LazyBody read(SnapshotReader in) throws IOException {
+            final var tokens = (List<Token>)in.read();
+            final var nesting = new NestingType[in.readVarint()];
+            for (int i = 0; i < nesting.length; ++i) {
+                nesting[i] = NestingType.values()[in.readVarint()];
+            }
+            final var body = new LazyBody(tokens, nesting);
+            body.statements = (List<Stmt>)in.read();
+            return body;
+        }
+    }
+
     private final List<Token> tokens;
     private int current = 0;
     private boolean allowExpression;
     private boolean foundExpression = false;
-    private final Stack<NestingType> nestingStack = new Stack<>();
+    // the classes, functions and loops around the current token, the innermost last
+    private final List<NestingType> nesting = new ArrayList<>();
+    // how many of each type there are in nesting, by ordinal
+    private final int[] nestingLevels = new int[NestingType.values().length];
+    // only brace-match the bodies of top-level functions and methods, see LazyBody
+    private final boolean deferBodies;
+    private int blockDepth = 0;
+    private final List<LazyBody> lazyBodies = new ArrayList<>();
 
     Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    Parser(List<Token> tokens, boolean deferBodies) {
         this.tokens = tokens;
+        this.deferBodies = deferBodies;
     }
 
     int getNestingLevel(NestingType type) {
-        return (int)nestingStack.stream().filter(t -> t == type).count();
+        return nestingLevels[type.ordinal()];
+    }
+
+    private void enter(NestingType type) {
+        nesting.add(type);
+        ++nestingLevels[type.ordinal()];
+    }
+
+    private void leave(NestingType type) {
+        assert nesting.get(nesting.size() - 1) == type;
+        nesting.remove(nesting.size() - 1);
+        --nestingLevels[type.ordinal()];
     }
 
     List<Stmt> parse() {
@@ -95,23 +207,30 @@ public class Parser {
         return statements;
     }
 
-    Object parseRepl() {
+    // the statements of a line of the REPL, a single Stmt.Expression if the line is an expression to print, see
+    // foundExpression()
+    List<Stmt> parseRepl() {
         allowExpression = true;
         List<Stmt> statements = new ArrayList<>();
         while (!isAtEnd()) {
             statements.add(declaration());
             if (foundExpression) {
-                var last = statements.get(statements.size() - 1);
-                return ((Stmt.Expression) last).expression;
+                return statements;
             }
             allowExpression = false;
         }
         return statements;
     }
 
+    // whether the line parseRepl() parsed is an expression rather than statements
+    boolean foundExpression() {
+        return foundExpression;
+    }
+
     // declaration    → classDecl,
     //                | funDecl,
     //                | varDecl
+    //                | importDecl
     //                | statement ;
     private Stmt declaration() {
         try {
@@ -124,6 +243,9 @@ public class Parser {
             if (match(VAR)) {
                 return variableDeclaration();
             }
+            if (match(IMPORT)) {
+                return importDeclaration();
+            }
             return statement();
         } catch (ParseError error) {
             synchronize();
@@ -141,19 +263,17 @@ public class Parser {
         }
         consume(LEFT_BRACE, "Expected '{' to begin class declaration body.");
         final var classType = superclass == null ? NestingType.CLASS : NestingType.SUBCLASS;
-        nestingStack.push(classType);
+        enter(classType);
         final var methods = new ArrayList<Stmt.Fun>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            nestingStack.push(NestingType.METHOD);
+            enter(NestingType.METHOD);
             final var method = function("method");
-            assert nestingStack.peek() == NestingType.METHOD;
-            nestingStack.pop();
+            leave(NestingType.METHOD);
             assert method instanceof Stmt.Fun;
             methods.add((Stmt.Fun) method);
         }
         consume(RIGHT_BRACE, "Expected '}' after class declaration body.");
-        assert nestingStack.peek() == classType;
-        nestingStack.pop();
+        leave(classType);
         return new Stmt.Class(identifier, superclass, methods);
     }
 
@@ -165,23 +285,64 @@ public class Parser {
     // function       → IDENTIFIER "(" parameters? ")" block ;
     private Stmt function(String declarationKeyword) {
         final var name = consume(IDENTIFIER, "Expected " + declarationKeyword + " identifier.");
-        boolean isInitializer = !nestingStack.empty() && nestingStack.peek() == NestingType.METHOD && name.lexeme.equals("init");
+        boolean isInitializer = !nesting.isEmpty() && nesting.get(nesting.size() - 1) == NestingType.METHOD && name.lexeme.equals("init");
         if (isInitializer) {
-            nestingStack.push(NestingType.INITIALIZER);
+            enter(NestingType.INITIALIZER);
         }
         consume(LEFT_PAREN, "Expected '(' before parameter list of " + declarationKeyword + " declaration.");
         final var parameters = parameters();
         consume(RIGHT_PAREN, "Expected ')' after parameter list of " + declarationKeyword + " declaration.");
         consume(LEFT_BRACE, "Expected '{' to start " + declarationKeyword + " body.");
-        nestingStack.push(NestingType.FUNCTION);
-        final var functionBody = block();
-        assert nestingStack.peek() == NestingType.FUNCTION;
-        nestingStack.pop();
+        enter(NestingType.FUNCTION);
+        // functions nested in blocks may capture locals, so only top-level ones can be resolved on their own
+        final var lazyBody = deferBodies && blockDepth == 0 ? skipBody() : null;
+        final List<Stmt> functionBody = lazyBody == null ? block() : new ArrayList<>();
+        leave(NestingType.FUNCTION);
         if (isInitializer) {
-            assert nestingStack.peek() == NestingType.INITIALIZER;
-            nestingStack.pop();
+            leave(NestingType.INITIALIZER);
+        }
+        final var function = new Stmt.Fun(name, parameters, functionBody);
+        function.lazyBody = lazyBody;
+        return function;
+    }
+
+    // skips to the matching closing brace, the tokens in between are parsed by parseBody() when needed
+    private LazyBody skipBody() {
+        final var start = current;
+        var depth = 0;
+        while (!isAtEnd() && (depth > 0 || !check(RIGHT_BRACE))) {
+            if (check(LEFT_BRACE)) {
+                ++depth;
+            } else if (check(RIGHT_BRACE)) {
+                --depth;
+            }
+            advance();
+        }
+        consume(RIGHT_BRACE, "Expected '}' to close block.");
+        // the body ends with its closing brace, followed by an EOF so that errors cannot run past it
+        final var body = new ArrayList<>(tokens.subList(start, current));
+        body.add(new Token(EOF, "", null, previous().line, previous().module));
+        final var lazyBody = new LazyBody(body, nesting.toArray(new NestingType[0]));
+        lazyBodies.add(lazyBody);
+        return lazyBody;
+    }
+
+    static List<Stmt> parseBody(LazyBody body) {
+        if (body.statements != null) {
+            return body.statements;
+        }
+        final var parser = new Parser(body.tokens);
+        for (final var type : body.nesting) {
+            parser.enter(type);
+        }
+        return parser.block();
+    }
+
+    // parses all deferred bodies ahead of time to report their syntax errors
+    void validateBodies() {
+        for (final var body : lazyBodies) {
+            body.statements = parseBody(body);
         }
-        return new Stmt.Fun(name, parameters, functionBody);
     }
 
     // parameters     → IDENTIFIER ( "," IDENTIFIER )* ;
@@ -210,6 +371,14 @@ public class Parser {
         return new Stmt.Var(identifier, initializer);
     }
 
+    // importDecl     → "import" STRING ";" ;
+    private Stmt importDeclaration() {
+        final var keyword = previous();
+        final var path = consume(STRING, "Expected module path after 'import'.");
+        consume(SEMICOLON, "Expected ';' after import.");
+        return new Stmt.Import(keyword, path);
+    }
+
     // statement      → exprStmt
     //               | ifStmt
     //               | whileStmt
@@ -262,18 +431,19 @@ public class Parser {
 
     // whileStmt      → "while" "(" expression ")" statement ;
     private Stmt whileStmt() {
+        final var keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after while.");
         final var loopCondition = expression();
         consume(RIGHT_PAREN, "Expected ')' after condition of while-statement.");
-        nestingStack.push(NestingType.LOOP);
+        enter(NestingType.LOOP);
         final var loopBody = statement();
-        assert nestingStack.peek() == NestingType.LOOP;
-        nestingStack.pop();
-        return new Stmt.While(loopCondition, loopBody);
+        leave(NestingType.LOOP);
+        return new Stmt.While(keyword, loopCondition, loopBody);
     }
 
     // forStmt        → "for" "(" ( varDecl | exprStmt | ";" ) expression? ";" expression? ")" statement ;
     private Stmt forStmt() {
+        final var keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after for.");
         Stmt initialization = null;
         if (match(VAR)) {
@@ -291,21 +461,10 @@ public class Parser {
             step = expression();
         }
         consume(RIGHT_PAREN, "Expected ')' before body of for-loop.");
-        nestingStack.push(NestingType.LOOP);
+        enter(NestingType.LOOP);
         final var loopBody = statement();
-        assert nestingStack.peek() == NestingType.LOOP;
-        nestingStack.pop();
-        final var statements = new ArrayList<Stmt>();
-        if (initialization != null) {
-            statements.add(initialization);
-        }
-        final var bodyStatements = new ArrayList<Stmt>();
-        bodyStatements.add(loopBody);
-        if (step != null) {
-            bodyStatements.add(new Stmt.Expression(step));
-        }
-        statements.add(new Stmt.While(condition != null ? condition : new Expr.Literal(true), new Stmt.Block(bodyStatements)));
-        return new Stmt.Block(statements);
+        leave(NestingType.LOOP);
+        return new Stmt.For(keyword, initialization, condition, step, loopBody);
     }
 
     // breakStmt      → "break" ";" ;
@@ -331,7 +490,7 @@ public class Parser {
         if (getNestingLevel(NestingType.FUNCTION) == 0) {
             throw error(previous(), "'return' may only appear inside functions.");
         }
-        final boolean isInitializer = nestingStack.size() >= 2 && nestingStack.get(nestingStack.size() - 2) == NestingType.INITIALIZER;
+        final boolean isInitializer = nesting.size() >= 2 && nesting.get(nesting.size() - 2) == NestingType.INITIALIZER;
         Expr returnValue = null;
         if (!check(SEMICOLON)) {
             returnValue = expression();
@@ -364,144 +523,101 @@ public class Parser {
     // block          → "{" declaration* "}" ;
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
+        ++blockDepth;
         while (!isAtEnd() && !check(RIGHT_BRACE)) {
             statements.add(declaration());
         }
+        --blockDepth;
         consume(RIGHT_BRACE, "Expected '}' to close block.");
         return statements;
     }
 
     // expression     → assignment ;
     private Expr expression() {
-        return assignment();
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
+    // Parses the rules from assignment down to call by precedence climbing: an operand, followed by every infix
+    // or postfix operator of the given precedence or above, whose right operands bind tighter than the operator.
+    //
     // assignment     → ( call "." )? IDENTIFIER "=" assignment
     //                | sequence ;
-    private Expr assignment() {
-        final var expr = sequence();
-        if (match(EQUAL)) {
-            final var lastTokenBeforeEquals = previous();
-            final var value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                final var name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                final var get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-            // the result of the call to error(), which is an exception, is purposely not thrown
-            // because the parser should not enter "panic mode" here
-            error(lastTokenBeforeEquals, "l-value is required left of an assignment.");
-        }
-
-        return expr;
-    }
-
     // sequence       → conditional ( "," conditional)* ;
-    private Expr sequence() {
-        Expr expr = conditional();
-
-        while (match(COMMA)) {
-            Token operator = previous();
-            Expr right = conditional();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
     // conditional    → logical_or ( "?" expression ":" conditional )? ;
-    private Expr conditional() {
-        Expr expr = logicalOr();
-        if (match(QUESTION_MARK)) {
-            Expr thenBranch = expression();
-            consume(COLON, "Expected ':' after then-branch of conditional expression.");
-            Expr elseBranch = conditional();
-            expr = new Expr.Conditional(expr, thenBranch, elseBranch);
-        }
-
-        return expr;
-    }
-
     // logical_or     → logical_and ( "or" logical_and )* ;
-    private Expr logicalOr() {
-        var expression = logicalAnd();
-        while (match(OR)) {
-            expression = new Expr.Logical(expression, previous(), logicalAnd());
-        }
-        return expression;
-    }
-
     // logical_and    → equality ( "and" equality )* ;
-    private Expr logicalAnd() {
-        var expression = equality();
-        while (match(AND)) {
-            expression = new Expr.Logical(expression, previous(), equality());
-        }
-        return expression;
-    }
-
     // equality       → comparison ( ( "!=" | "==" ) comparison )* ;
-    private Expr equality() {
-        var expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
     // comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-    private Expr comparison() {
-        Expr expr = term();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
     // term           → factor ( ( "-" | "+" ) factor )* ;
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+    // factor         → unary ( ( "/" | "*" ) unary )* ;
+    // call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
+    private Expr parsePrecedence(Precedence minimum) {
+        var expr = unary();
+        while (true) {
+            final var operator = peek();
+            // NONE is below every minimum, which ends the expression at any token that is not an operator
+            final var precedence = INFIX_PRECEDENCE[operator.type.ordinal()];
+            if (precedence.compareTo(minimum) < 0) {
+                return expr;
+            }
+            advance();
+            switch (precedence) {
+                case ASSIGNMENT:
+                    return assignment(expr, operator);
+                case SEQUENCE:
+                    expr = new Expr.Binary(expr, operator, parsePrecedence(Precedence.CONDITIONAL));
+                    break;
+                case CONDITIONAL: {
+                    final var thenBranch = expression();
+                    consume(COLON, "Expected ':' after then-branch of conditional expression.");
+                    final var elseBranch = parsePrecedence(Precedence.CONDITIONAL);
+                    expr = new Expr.Conditional(expr, thenBranch, elseBranch);
+                    break;
+                }
+                case OR:
+                case AND:
+                    expr = new Expr.Logical(expr, operator, parsePrecedence(precedence.next()));
+                    break;
+                case CALL:
+                    if (operator.type == LEFT_PAREN) {
+                        expr = finishCall(expr);
+                    } else {
+                        final var name = consume(IDENTIFIER, "Expected property name after '.'.");
+                        expr = new Expr.Get(expr, name);
+                    }
+                    break;
+                default:
+                    expr = new Expr.Binary(expr, operator, parsePrecedence(precedence.next()));
+                    break;
+            }
         }
-
-        return expr;
     }
 
-    // factor         → unary ( ( "/" | "*" ) unary )* ;
-    private Expr factor() {
-        Expr expr = unary();
-
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+    // the value of an assignment is parsed at its own precedence, which makes it right-associative
+    private Expr assignment(Expr target, Token equals) {
+        final var value = parsePrecedence(Precedence.ASSIGNMENT);
+        if (target instanceof Expr.Variable) {
+            final var name = ((Expr.Variable) target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Expr.Get) {
+            final var get = (Expr.Get)target;
+            return new Expr.Set(get.object, get.name, value);
         }
-
-        return expr;
+        // the result of the call to error(), which is an exception, is purposely not thrown
+        // because the parser should not enter "panic mode" here
+        error(equals, "l-value is required left of an assignment.");
+        return target;
     }
 
     // unary          → ( "!" | "-" ) unary
     //               | call ;
     private Expr unary() {
-        if (match(BANG, MINUS)) {
-            return new Expr.Unary(previous(), unary());
+        final var operator = peek();
+        if (operator.type == BANG || operator.type == MINUS) {
+            advance();
+            return new Expr.Unary(operator, parsePrecedence(Precedence.UNARY));
         }
-        return call();
+        return primary();
     }
 
     private Expr finishCall(Expr expression) {
@@ -510,22 +626,6 @@ public class Parser {
         return new Expr.Call(expression, closingParen, arguments);
     }
 
-    // call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
-    private Expr call() {
-        Expr expression = primary();
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expression = finishCall(expression);
-            } else if (match(DOT)) {
-                final var name = consume(IDENTIFIER, "Expected property name after '.'.");
-                expression = new Expr.Get(expression, name);
-            } else {
-                break;
-            }
-        }
-        return expression;
-    }
-
     // arguments      → conditional ("," conditional)* ;
     private List<Expr> arguments() {
         final List<Expr> arguments = new ArrayList<>();
@@ -536,7 +636,7 @@ public class Parser {
             if (arguments.size() >= 255) {
                 error(peek(), "Maximum number of function call arguments exceeded. Maximum is 255.");
             }
-            arguments.add(conditional());
+            arguments.add(parsePrecedence(Precedence.CONDITIONAL));
         } while (match(COMMA));
         return arguments;
     }
@@ -547,65 +647,69 @@ public class Parser {
     //                | IDENTIFIER
     //                | "super" "." IDENTIFIER ;
     private Expr primary() {
-        if (match(FALSE)) {
-            return new Expr.Literal(false);
-        }
-        if (match(TRUE)) {
-            return new Expr.Literal(true);
-        }
-        if (match(NIL)) {
-            return new Expr.Literal(null);
-        }
-        if (match(THIS)) {
-            if (getNestingLevel(NestingType.CLASS) + getNestingLevel(NestingType.SUBCLASS) <= 0) {
-                throw error(previous(), "'this' can only be used inside class methods.");
-            }
-            return new Expr.This(previous());
-        }
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-        if (match(LEFT_PAREN)) {
-            var expr = expression();
-            consume(RIGHT_PAREN, "Expected ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-        if (match(SUPER)) {
-            if (getNestingLevel(NestingType.SUBCLASS) + getNestingLevel(NestingType.CLASS) <= 0) {
-                throw error(previous(), "'super' is only allowed in classes.");
+        final var token = peek();
+        switch (token.type) {
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case THIS:
+                advance();
+                if (getNestingLevel(NestingType.CLASS) + getNestingLevel(NestingType.SUBCLASS) <= 0) {
+                    throw error(token, "'this' can only be used inside class methods.");
+                }
+                return new Expr.This(token);
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(token.literal);
+            case LEFT_PAREN: {
+                advance();
+                var expr = expression();
+                consume(RIGHT_PAREN, "Expected ')' after expression.");
+                return new Expr.Grouping(expr);
             }
-            if (!isDirectlyInsideSubclass()) {
-                throw error(previous(), "'super' is not allowed in non-inheriting classes.");
+            case IDENTIFIER:
+                advance();
+                return new Expr.Variable(token);
+            case SUPER: {
+                advance();
+                if (getNestingLevel(NestingType.SUBCLASS) + getNestingLevel(NestingType.CLASS) <= 0) {
+                    throw error(token, "'super' is only allowed in classes.");
+                }
+                if (!isDirectlyInsideSubclass()) {
+                    throw error(token, "'super' is not allowed in non-inheriting classes.");
+                }
+                consume(DOT, "Expected '.' after 'super'.");
+                final var methodIdentifier = consume(IDENTIFIER, "Expected identifier after 'super.'.");
+                return new Expr.Super(token, methodIdentifier);
             }
-            final var superKeyword = previous();
-            consume(DOT, "Expected '.' after 'super'.");
-            final var methodIdentifier = consume(IDENTIFIER, "Expected identifier after 'super.'.");
-            return new Expr.Super(superKeyword, methodIdentifier);
+            default:
+                throw error(token, "Expected expression.");
         }
-        throw error(peek(), "Expected expression.");
     }
 
     private boolean isDirectlyInsideSubclass() {
-        for (var i = nestingStack.size() - 1; i >= 0; --i) {
-            if (nestingStack.get(i) == NestingType.CLASS) {
+        for (var i = nesting.size() - 1; i >= 0; --i) {
+            if (nesting.get(i) == NestingType.CLASS) {
                 return false;
             }
-            if (nestingStack.get(i) == NestingType.SUBCLASS) {
+            if (nesting.get(i) == NestingType.SUBCLASS) {
                 return true;
             }
         }
         return false;
     }
 
-    private boolean match(TokenType... types) {
-        for (var type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
         return false;
     }
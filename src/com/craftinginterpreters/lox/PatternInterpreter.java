@@ -0,0 +1,462 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Walks the AST like the visitors of the Interpreter, but dispatches on the class of a node with an exhaustive
+// switch over the sealed node classes instead of a call of accept(). Otherwise the nodes do the same as in the
+// Interpreter, on its frames and cells, so comparing the two compares their dispatch. javac compiles each
+// switch to a type switch bootstrapped by the JDK, which on JDK 21 tests the cases one after another and walks
+// the benchmarks up to 1.8 times slower than the visitors' accept() calls. What executes rarely (class
+// declarations, super and scalar-replaced objects) is handed to the visitors.
+final class PatternInterpreter {
+    private PatternInterpreter() {
+    }
+
+    // the script, whose function bodies run here as well once they are compiled
+    static Executor compile(List<Stmt> statements) {
+        compileBodies(statements);
+        return interpreter -> executeAll(interpreter, statements);
+    }
+
+    // a deferred body is compiled once it has been parsed, see Parser.LazyBody
+    static void compileBody(Stmt.Fun function) {
+        if (function.lazyBody == null) {
+            final var body = function.functionBody;
+            compileBodies(body);
+            function.compiledBody = interpreter -> executeAll(interpreter, body);
+        }
+    }
+
+    private static void compileBodies(List<? extends Stmt> statements) {
+        for (final var statement : statements) {
+            compileBodies(statement);
+        }
+    }
+
+    private static void compileBodies(Stmt statement) {
+        switch (statement) {
+            case Stmt.Fun function -> compileBody(function);
+            case Stmt.Class klass -> compileBodies(klass.methods);
+            case Stmt.Block block -> compileBodies(block.statements);
+            case Stmt.If conditional -> {
+                compileBodies(conditional.thenBranch);
+                if (conditional.elseBranch != null) {
+                    compileBodies(conditional.elseBranch);
+                }
+            }
+            case Stmt.While loop -> compileBodies(loop.loopBody);
+            case Stmt.For loop -> {
+                if (loop.initializer != null) {
+                    compileBodies(loop.initializer);
+                }
+                compileBodies(loop.loopBody);
+            }
+            case Stmt.Expression expression -> {
+            }
+            case Stmt.Print print -> {
+            }
+            case Stmt.Break loopBreak -> {
+            }
+            case Stmt.Continue loopContinue -> {
+            }
+            case Stmt.Return result -> {
+            }
+            case Stmt.Var variable -> {
+            }
+            case Stmt.Import module -> {
+            }
+        }
+    }
+
+    private static void executeAll(Interpreter interpreter, List<Stmt> statements) {
+        for (final var statement : statements) {
+            execute(interpreter, statement);
+        }
+    }
+
+    static Object evaluate(Interpreter interpreter, Expr expression) {
+        return switch (expression) {
+            case Expr.Assign assign -> {
+                final var value = evaluate(interpreter, assign.value);
+                if (assign.binding != null) {
+                    write(interpreter, assign.binding, value);
+                } else {
+                    interpreter.assignGlobal(assign, value);
+                }
+                yield value;
+            }
+            case Expr.Binary binary -> binary(interpreter, binary);
+            case Expr.Logical logical -> {
+                final var left = evaluate(interpreter, logical.left);
+                if (logical.operator.type == TokenType.AND) {
+                    yield Interpreter.isTruthy(left) ? evaluate(interpreter, logical.right) : left;
+                }
+                yield Interpreter.isTruthy(left) ? left : evaluate(interpreter, logical.right);
+            }
+            case Expr.Call call -> call(interpreter, call);
+            case Expr.Get get -> {
+                if (get.scalarField != null) {
+                    yield get.accept(interpreter);
+                }
+                yield interpreter.property(get.name, evaluate(interpreter, get.object));
+            }
+            case Expr.Set set -> {
+                if (set.scalarField != null) {
+                    yield set.accept(interpreter);
+                }
+                final var value = evaluate(interpreter, set.value);
+                final var object = evaluate(interpreter, set.object);
+                if (object instanceof LoxInstance instance) {
+                    instance.set(set.name, value);
+                    yield value;
+                }
+                throw new RuntimeError(set.name, "Expression does not evaluate to an instance of an object.");
+            }
+            case Expr.This self -> self.binding != null ? read(interpreter, self.binding) : self.accept(interpreter);
+            case Expr.Super superclass -> superclass.accept(interpreter);
+            case Expr.Grouping grouping -> evaluate(interpreter, grouping.expression);
+            case Expr.Literal literal -> literal.value;
+            case Expr.Unary unary -> {
+                if (unary.operator.type == TokenType.BANG) {
+                    yield !Interpreter.isTruthy(evaluate(interpreter, unary.right));
+                }
+                if (unary.operandType == StaticType.NUMBER) {
+                    yield -number(interpreter, unary.right);
+                }
+                final var value = evaluate(interpreter, unary.right);
+                Interpreter.checkNumberOperand(unary.operator, value);
+                yield -(double)value;
+            }
+            case Expr.Conditional conditional -> Interpreter.isTruthy(evaluate(interpreter, conditional.condition))
+                    ? evaluate(interpreter, conditional.thenBranch)
+                    : evaluate(interpreter, conditional.elseBranch);
+            case Expr.Variable variable -> variable.binding != null
+                    ? read(interpreter, variable.binding)
+                    : interpreter.readGlobal(variable);
+            case Expr.IncrementLocal increment -> incrementLocal(interpreter, increment);
+            case Expr.CompareLocalToConst compare -> compareLocalToConst(interpreter, compare);
+            case Expr.IncrementField increment -> incrementField(interpreter, increment);
+            case Expr.InvokeMethod invoke -> invokeMethod(interpreter, invoke);
+        };
+    }
+
+    private static Object binary(Interpreter interpreter, Expr.Binary binary) {
+        final var operator = binary.operator;
+        if (binary.operandType == StaticType.NUMBER && operator.type != TokenType.COMMA) {
+            final var left = number(interpreter, binary.left);
+            final var right = number(interpreter, binary.right);
+            return switch (operator.type) {
+                case BANG_EQUAL -> left != right;
+                case EQUAL_EQUAL -> left == right;
+                case GREATER -> left > right;
+                case GREATER_EQUAL -> left >= right;
+                case LESS -> left < right;
+                case LESS_EQUAL -> left <= right;
+                case MINUS -> left - right;
+                case STAR -> left * right;
+                case PLUS -> left + right;
+                case SLASH -> {
+                    if (right == 0.0) {
+                        throw new RuntimeError(operator, "Division by 0.");
+                    }
+                    yield left / right;
+                }
+                default -> throw new IllegalStateException("unexpected binary operator " + operator.type);
+            };
+        }
+        final var left = evaluate(interpreter, binary.left);
+        final var right = evaluate(interpreter, binary.right);
+        switch (operator.type) {
+            case COMMA:
+                return right;
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+            case PLUS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double)left + (double)right;
+                }
+                if (left instanceof String || right instanceof String) {
+                    // "1" + true = "1true"
+                    return interpreter.heap.string(Interpreter.stringify(left) + Interpreter.stringify(right),
+                            operator);
+                }
+                throw new RuntimeError(operator, "Operator '+' is only supported for numbers and strings.");
+            default:
+                break;
+        }
+        Interpreter.checkNumberOperands(operator, left, right);
+        final var first = (double)left;
+        final var second = (double)right;
+        switch (operator.type) {
+            case GREATER:
+                return first > second;
+            case GREATER_EQUAL:
+                return first >= second;
+            case LESS:
+                return first < second;
+            case LESS_EQUAL:
+                return first <= second;
+            case MINUS:
+                return first - second;
+            case STAR:
+                return first * second;
+            case SLASH:
+                if (second == 0.0) {
+                    throw new RuntimeError(operator, "Division by 0.");
+                }
+                return first / second;
+            default:
+                throw new IllegalStateException("unexpected binary operator " + operator.type);
+        }
+    }
+
+    // evaluates an expression that is proven to produce a number, staying unboxed where the types allow it
+    private static double number(Interpreter interpreter, Expr expression) {
+        return switch (expression) {
+            case Expr.Literal literal -> (double)literal.value;
+            case Expr.Grouping grouping -> number(interpreter, grouping.expression);
+            case Expr.Binary binary when binary.operandType == StaticType.NUMBER
+                    && binary.operator.type == TokenType.MINUS ->
+                    number(interpreter, binary.left) - number(interpreter, binary.right);
+            case Expr.Binary binary when binary.operandType == StaticType.NUMBER
+                    && binary.operator.type == TokenType.STAR ->
+                    number(interpreter, binary.left) * number(interpreter, binary.right);
+            case Expr.Binary binary when binary.operandType == StaticType.NUMBER
+                    && binary.operator.type == TokenType.PLUS ->
+                    number(interpreter, binary.left) + number(interpreter, binary.right);
+            case Expr.Unary unary when unary.operandType == StaticType.NUMBER
+                    && unary.operator.type == TokenType.MINUS -> -number(interpreter, unary.right);
+            default -> (double)evaluate(interpreter, expression);
+        };
+    }
+
+    private static Object read(Interpreter interpreter, Binding binding) {
+        if (binding.local == null) {
+            return interpreter.upvalues[binding.upvalue].value;
+        }
+        final var value = interpreter.frame[binding.local.slot];
+        return binding.local.captured ? ((Cell)value).value : value;
+    }
+
+    private static void write(Interpreter interpreter, Binding binding, Object value) {
+        if (binding.local == null) {
+            interpreter.upvalues[binding.upvalue].value = value;
+        } else if (binding.local.captured) {
+            ((Cell)interpreter.frame[binding.local.slot]).value = value;
+        } else {
+            interpreter.frame[binding.local.slot] = value;
+        }
+    }
+
+    private static Object call(Interpreter interpreter, Expr.Call call) {
+        final var constant = interpreter.constantCallee(call);
+        if (constant != null) {
+            if (constant.function != null) {
+                return callFunction(interpreter, call, constant.function, constant.function.receiver);
+            }
+            return callNative(interpreter, call, constant.nativeFunction);
+        }
+        final var callee = evaluate(interpreter, call.callee);
+        interpreter.speculate(call, callee);
+        return callValue(interpreter, call, callee);
+    }
+
+    private static Object callValue(Interpreter interpreter, Expr.Call call, Object callee) {
+        final var arity = call.arguments.size();
+        if (callee instanceof LoxFunction function && Interpreter.canCallDirectly(function, arity)) {
+            return callFunction(interpreter, call, function, function.receiver);
+        }
+        if (callee instanceof NativeFunction function && function.arity == arity
+                && arity <= NativeFunction.MAX_FAST_ARITY) {
+            return callNative(interpreter, call, function);
+        }
+        return interpreter.call(call.paren, callee, evaluateAll(interpreter, call.arguments));
+    }
+
+    // calls a Lox function with its arguments evaluated straight into its frame
+    private static Object callFunction(Interpreter interpreter, Expr.Call call, LoxFunction function,
+                                       LoxInstance receiver) {
+        final var frame = function.enter(interpreter);
+        try {
+            final var arguments = call.arguments;
+            for (int i = 0; i < arguments.size(); ++i) {
+                function.bindParameter(frame, i, evaluate(interpreter, arguments.get(i)));
+            }
+            try {
+                return function.execute(interpreter, frame, receiver);
+            } catch (StackOverflowError e) {
+                throw new RuntimeError(call.paren, "Stack overflow.");
+            }
+        } finally {
+            function.leave(interpreter, frame);
+        }
+    }
+
+    // calls a native through its fixed-arity entry point with as many arguments as it takes
+    private static Object callNative(Interpreter interpreter, Expr.Call call, NativeFunction function) {
+        final var arguments = call.arguments;
+        final var first = function.arity > 0 ? evaluate(interpreter, arguments.get(0)) : null;
+        final var second = function.arity > 1 ? evaluate(interpreter, arguments.get(1)) : null;
+        final var third = function.arity > 2 ? evaluate(interpreter, arguments.get(2)) : null;
+        return interpreter.callNative(call.paren, function, first, second, third);
+    }
+
+    private static List<Object> evaluateAll(Interpreter interpreter, List<Expr> expressions) {
+        final var values = new ArrayList<Object>(expressions.size());
+        for (final var expression : expressions) {
+            values.add(evaluate(interpreter, expression));
+        }
+        return values;
+    }
+
+    private static Object incrementLocal(Interpreter interpreter, Expr.IncrementLocal increment) {
+        final var statistics = interpreter.fusionStatistics();
+        if (read(interpreter, increment.binding) instanceof Double value) {
+            if (statistics != null) {
+                statistics.hit(NodeFusion.Pattern.INCREMENT_LOCAL);
+            }
+            final Object result = value + increment.amount;
+            write(interpreter, increment.binding, result);
+            return result;
+        }
+        if (statistics != null) {
+            statistics.fallback(NodeFusion.Pattern.INCREMENT_LOCAL);
+        }
+        return evaluate(interpreter, increment.original);
+    }
+
+    private static Object compareLocalToConst(Interpreter interpreter, Expr.CompareLocalToConst compare) {
+        final var statistics = interpreter.fusionStatistics();
+        if (read(interpreter, compare.binding) instanceof Double value) {
+            if (statistics != null) {
+                statistics.hit(NodeFusion.Pattern.COMPARE_LOCAL_TO_CONST);
+            }
+            return switch (compare.original.operator.type) {
+                case GREATER -> value > compare.constant;
+                case GREATER_EQUAL -> value >= compare.constant;
+                case LESS -> value < compare.constant;
+                default -> value <= compare.constant;
+            };
+        }
+        // the local is not a number, so the original comparison reports the error
+        if (statistics != null) {
+            statistics.fallback(NodeFusion.Pattern.COMPARE_LOCAL_TO_CONST);
+        }
+        return evaluate(interpreter, compare.original);
+    }
+
+    private static Object incrementField(Interpreter interpreter, Expr.IncrementField increment) {
+        final var statistics = interpreter.fusionStatistics();
+        // the object is a variable or this, so evaluating it once more on the fallback path is not observable
+        if (evaluate(interpreter, increment.field.object) instanceof LoxInstance instance
+                && instance.field(increment.field.name.lexeme) instanceof Double value) {
+            if (statistics != null) {
+                statistics.hit(NodeFusion.Pattern.INCREMENT_FIELD);
+            }
+            final Object result = value + increment.amount;
+            instance.set(increment.original.name, result);
+            return result;
+        }
+        if (statistics != null) {
+            statistics.fallback(NodeFusion.Pattern.INCREMENT_FIELD);
+        }
+        return evaluate(interpreter, increment.original);
+    }
+
+    private static Object invokeMethod(Interpreter interpreter, Expr.InvokeMethod invoke) {
+        final var statistics = interpreter.fusionStatistics();
+        final var name = invoke.method.name;
+        final var call = invoke.original;
+        final var object = evaluate(interpreter, invoke.method.object);
+        if (object instanceof LoxInstance instance && !instance.hasField(name.lexeme)) {
+            final var method = instance.klass.findMethod(name.lexeme);
+            if (method != null) {
+                if (statistics != null) {
+                    statistics.hit(NodeFusion.Pattern.INVOKE_METHOD);
+                }
+                if (Interpreter.canCallDirectly(method, call.arguments.size())) {
+                    return callFunction(interpreter, call, method, instance);
+                }
+                return interpreter.invoke(call.paren, method, instance, evaluateAll(interpreter, call.arguments));
+            }
+        }
+        if (statistics != null) {
+            statistics.fallback(NodeFusion.Pattern.INVOKE_METHOD);
+        }
+        // a field holding a callable, a property of a native object or an error, exactly as Expr.Get reports it
+        return callValue(interpreter, call, interpreter.property(name, object));
+    }
+
+    static void execute(Interpreter interpreter, Stmt statement) {
+        switch (statement) {
+            case Stmt.Expression expression -> evaluate(interpreter, expression.expression);
+            case Stmt.If conditional -> {
+                if (Interpreter.isTruthy(evaluate(interpreter, conditional.condition))) {
+                    execute(interpreter, conditional.thenBranch);
+                } else if (conditional.elseBranch != null) {
+                    execute(interpreter, conditional.elseBranch);
+                }
+            }
+            case Stmt.While loop -> {
+                while (Interpreter.isTruthy(evaluate(interpreter, loop.loopCondition))) {
+                    interpreter.step(loop.keyword);
+                    try {
+                        execute(interpreter, loop.loopBody);
+                    } catch (Interpreter.LoopBreak e) {
+                        break;
+                    } catch (Interpreter.LoopContinue e) {
+                        continue;
+                    }
+                }
+            }
+            case Stmt.For loop -> {
+                if (loop.initializer != null) {
+                    execute(interpreter, loop.initializer);
+                }
+                while (loop.loopCondition == null
+                        || Interpreter.isTruthy(evaluate(interpreter, loop.loopCondition))) {
+                    interpreter.step(loop.keyword);
+                    try {
+                        execute(interpreter, loop.loopBody);
+                    } catch (Interpreter.LoopBreak e) {
+                        break;
+                    } catch (Interpreter.LoopContinue e) {
+                        // the increment still runs after a continue
+                    }
+                    if (loop.increment != null) {
+                        evaluate(interpreter, loop.increment);
+                    }
+                }
+            }
+            case Stmt.Print print ->
+                    interpreter.out.println(Interpreter.stringify(evaluate(interpreter, print.expression)));
+            case Stmt.Block block -> executeAll(interpreter, block.statements);
+            case Stmt.Break loopBreak -> throw Interpreter.LOOP_BREAK;
+            case Stmt.Continue loopContinue -> throw Interpreter.LOOP_CONTINUE;
+            case Stmt.Return result ->
+                    throw interpreter.returning(result.value != null ? evaluate(interpreter, result.value) : null);
+            case Stmt.Var variable -> {
+                if (variable.scalar != null) {
+                    // the visitors instantiate scalar-replaced objects directly into their slots
+                    variable.accept(interpreter);
+                } else if (variable.variable == null) {
+                    if (variable.initializer == null) {
+                        interpreter.globals.define(variable.name);
+                    } else {
+                        interpreter.globals.define(variable.name, evaluate(interpreter, variable.initializer));
+                    }
+                } else {
+                    final var local = variable.variable;
+                    final var value = variable.initializer != null ? evaluate(interpreter, variable.initializer) : null;
+                    interpreter.frame[local.slot] = local.captured ? new Cell(value) : value;
+                }
+            }
+            case Stmt.Fun function -> function.accept(interpreter);
+            case Stmt.Class klass -> klass.accept(interpreter);
+            case Stmt.Import module -> module.accept(interpreter);
+        }
+    }
+}
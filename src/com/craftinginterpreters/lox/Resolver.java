@@ -12,11 +12,68 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         DEFINED,
     }
 
+    private static class Scope {
+        final FunctionScope function;
+        final Map<String, VariableState> states = new HashMap<>();
+        final Map<String, LocalVariable> variables = new HashMap<>();
+
+        Scope(FunctionScope function) {
+            this.function = function;
+        }
+    }
+
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final FrameLayout layout;
+        final Map<LocalVariable, Integer> upvalueIndices = new HashMap<>();
+        int nextSlot = 0;
+
+        FunctionScope(FunctionScope enclosing, FrameLayout layout) {
+            this.enclosing = enclosing;
+            this.layout = layout;
+        }
+    }
+
     private final Interpreter interpreter;
-    private final Stack<Map<String, VariableState>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    private FunctionScope currentFunction;
 
     public Resolver(Interpreter interpreter) {
+        this(interpreter, new FrameLayout());
+        interpreter.resolveScript(currentFunction.layout);
+    }
+
+    private Resolver(Interpreter interpreter, FrameLayout script) {
         this.interpreter = interpreter;
+        currentFunction = new FunctionScope(null, script);
+    }
+
+    // Resolves the body of a top-level function or method whose parsing was deferred. Such a function can only
+    // refer to its own locals and to globals, so its parameters and hidden locals are all it needs in scope.
+    static void resolveBody(Interpreter interpreter, Stmt.Fun function) {
+        final var resolver = new Resolver(interpreter, interpreter.scriptLayout());
+        final var layout = interpreter.layout(function);
+        resolver.currentFunction = new FunctionScope(resolver.currentFunction, layout);
+        resolver.beginScope();
+        if (layout.receiver != null) {
+            resolver.redeclare("this", layout.receiver);
+        }
+        if (layout.superclass != null) {
+            resolver.redeclare("super", layout.superclass);
+        }
+        for (int i = 0; i < function.parameters.size(); ++i) {
+            resolver.redeclare(function.parameters.get(i).lexeme, layout.parameters.get(i));
+        }
+        resolver.resolve(function.functionBody);
+        resolver.endScope();
+    }
+
+    // brings a variable of an already resolved function header back into scope
+    private void redeclare(String name, LocalVariable variable) {
+        final var scope = scopes.peek();
+        scope.states.put(name, VariableState.DEFINED);
+        scope.variables.put(name, variable);
+        currentFunction.nextSlot = Math.max(currentFunction.nextSlot, variable.slot + 1);
     }
 
     void resolve(Expr expression) {
@@ -34,36 +91,79 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<>());
+        scopes.push(new Scope(currentFunction));
     }
 
     private void endScope() {
-        scopes.pop();
+        final var scope = scopes.pop();
+        // slots of the variables going out of scope are reused by the following declarations
+        scope.function.nextSlot -= scope.variables.size();
     }
 
-    private void declare(String name) {
+    private LocalVariable declare(Token name) {
         if (scopes.empty()) {
-            return;
+            return null;
         }
-        scopes.peek().put(name, VariableState.DECLARED);
+        if (scopes.peek().states.containsKey(name.lexeme)) {
+            Lox.error(name, "A variable named '" + name.lexeme + "' has already been declared before.");
+        }
+        return declare(name.lexeme);
+    }
+
+    private LocalVariable declare(String name) {
+        final var scope = scopes.peek();
+        final var variable = new LocalVariable(currentFunction.nextSlot++);
+        currentFunction.layout.slotCount = Math.max(currentFunction.layout.slotCount, currentFunction.nextSlot);
+        scope.states.put(name, VariableState.DECLARED);
+        scope.variables.put(name, variable);
+        return variable;
     }
 
     private void define(String name) {
         if (scopes.empty()) {
             return;
         }
-        assert scopes.peek().containsKey(name) && scopes.peek().get(name) == VariableState.DECLARED;
-        scopes.peek().put(name, VariableState.DEFINED);
+        assert scopes.peek().states.containsKey(name) && scopes.peek().states.get(name) == VariableState.DECLARED;
+        scopes.peek().states.put(name, VariableState.DEFINED);
     }
 
     private void resolveLocal(Expr expression, Token name) {
+        final var binding = lookUp(name.lexeme);
+        if (binding != null) {
+            interpreter.resolve(expression, binding);
+        }
+    }
+
+    private Binding lookUp(String name) {
         for (int i = scopes.size() - 1; i >= 0; --i) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                final var numScopeHops = scopes.size() - 1 - i;
-                interpreter.resolve(expression, numScopeHops);
-                return;
+            final var scope = scopes.get(i);
+            final var variable = scope.variables.get(name);
+            if (variable == null) {
+                continue;
+            }
+            if (scope.function == currentFunction) {
+                return Binding.local(variable);
             }
+            variable.captured = true;
+            return Binding.upvalue(addUpvalue(currentFunction, scope.function, variable));
+        }
+        return null;
+    }
+
+    // makes the variable declared in the function 'owner' available as an upvalue of 'function' by threading
+    // it through all functions in between
+    private int addUpvalue(FunctionScope function, FunctionScope owner, LocalVariable variable) {
+        final var existing = function.upvalueIndices.get(variable);
+        if (existing != null) {
+            return existing;
         }
+        final var binding = function.enclosing == owner
+                ? Binding.local(variable)
+                : Binding.upvalue(addUpvalue(function.enclosing, owner, variable));
+        final var index = function.layout.upvalues.size();
+        function.layout.upvalues.add(binding);
+        function.upvalueIndices.put(variable, index);
+        return index;
     }
 
     @Override
@@ -118,6 +218,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         resolveLocal(expr, expr.keyword);
+        final var receiver = lookUp("this");
+        assert receiver != null;
+        interpreter.resolveReceiver(expr, receiver);
         return null;
     }
 
@@ -148,13 +251,38 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.empty() && scopes.peek().get(expr.name.lexeme) == VariableState.DECLARED) {
+        if (!scopes.empty() && scopes.peek().states.get(expr.name.lexeme) == VariableState.DECLARED) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
         }
         resolveLocal(expr, expr.name);
         return null;
     }
 
+    // fused nodes are only created after this pass has run, each one stands for the node it replaced
+    @Override
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        resolve(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        resolve(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementFieldExpr(Expr.IncrementField expr) {
+        resolve(expr.original);
+        return null;
+    }
+
+    @Override
+    public Void visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        resolve(expr.original);
+        return null;
+    }
+
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         resolve(stmt.expression);
@@ -178,6 +306,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // a variable declared in the initializer is scoped to the loop
+        beginScope();
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        if (stmt.loopCondition != null) {
+            resolve(stmt.loopCondition);
+        }
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+        resolve(stmt.loopBody);
+        endScope();
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -212,36 +358,57 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name.lexeme);
+        final var variable = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name.lexeme);
+        resolveDeclaration(stmt, variable);
         return null;
     }
 
-    private void resolveFunction(Stmt.Fun function, FunctionType type) {
+    private void resolveDeclaration(Stmt declaration, LocalVariable variable) {
+        if (variable != null) {
+            interpreter.resolve(declaration, variable);
+        }
+    }
+
+    private void resolveFunction(Stmt.Fun function, FunctionType type, boolean isSubclassMethod) {
+        final var layout = new FrameLayout();
+        currentFunction = new FunctionScope(currentFunction, layout);
         beginScope();
+        if (type == METHOD) {
+            layout.receiver = declare("this");
+            define("this");
+            if (isSubclassMethod) {
+                layout.superclass = declare("super");
+                define("super");
+            }
+        }
         for (final var parameter : function.parameters) {
-            declare(parameter.lexeme);
+            layout.parameters.add(declare(parameter));
             define(parameter.lexeme);
         }
         resolve(function.functionBody);
         endScope();
+        currentFunction = currentFunction.enclosing;
+        interpreter.resolve(function, layout);
     }
 
     @Override
     public Void visitFunStmt(Stmt.Fun stmt) {
-        declare(stmt.name.lexeme);
+        final var variable = declare(stmt.name);
         define(stmt.name.lexeme);
-        resolveFunction(stmt, FUNCTION);
+        resolveDeclaration(stmt, variable);
+        resolveFunction(stmt, FUNCTION, false);
         return null;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        declare(stmt.name.lexeme);
+        final var variable = declare(stmt.name);
         define(stmt.name.lexeme);
+        resolveDeclaration(stmt, variable);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
             Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
@@ -251,24 +418,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.superclass);
         }
 
-        if (stmt.superclass != null) {
-            beginScope();
-            scopes.peek().put("super", VariableState.DEFINED);
-        }
-
-        beginScope();
-
-        scopes.peek().put("this", VariableState.DECLARED);
-
         for (final var method : stmt.methods) {
-            final var declaration = FunctionType.METHOD;
-            resolveFunction(method, declaration);
+            resolveFunction(method, METHOD, stmt.superclass != null);
         }
+        return null;
+    }
 
-        endScope();
-
-        if (stmt.superclass != null) {
-            endScope();
+    // The module itself is loaded by the ModuleLoader once the script has been resolved. Its globals are the
+    // globals of the script, so there is nothing to declare here.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (!scopes.isEmpty()) {
+            Lox.error(stmt.keyword, "Can only import modules at the top level.");
         }
         return null;
     }
@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+// Attached to a property access on a scalar-replaced object.
+class ScalarField {
+    final ScalarObject object;
+    final int slot;
+
+    ScalarField(ScalarObject object, int slot) {
+        this.object = object;
+        this.slot = slot;
+    }
+}
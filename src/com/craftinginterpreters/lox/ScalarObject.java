@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+// A local variable holding an instance that never escapes its frame. While the instance is virtual, the
+// class slot holds its LoxClass and each field lives in a slot of its own; once it has to be materialized
+// the class slot is cleared and the variable's slot holds a regular LoxInstance.
+class ScalarObject {
+    static final Object UNSET = new Object();
+
+    final int variableSlot;
+    final int classSlot;
+    final Map<String, Integer> fieldSlots;
+
+    // the slots of the fields written by the last initializer used to create the object
+    private FieldInitializer lastInitializer;
+    private int[] lastSlots;
+
+    ScalarObject(int variableSlot, int classSlot, Map<String, Integer> fieldSlots) {
+        this.variableSlot = variableSlot;
+        this.classSlot = classSlot;
+        this.fieldSlots = fieldSlots;
+    }
+
+    // returns null if the initializer writes a field that has no slot
+    int[] slotsOf(FieldInitializer initializer) {
+        if (initializer == lastInitializer) {
+            return lastSlots;
+        }
+        var slots = new int[initializer.fields.length];
+        for (int i = 0; i < slots.length; ++i) {
+            final var slot = fieldSlots.get(initializer.fields[i]);
+            if (slot == null) {
+                slots = null;
+                break;
+            }
+            slots[i] = slot;
+        }
+        lastInitializer = initializer;
+        lastSlots = slots;
+        return slots;
+    }
+}
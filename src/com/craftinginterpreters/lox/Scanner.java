@@ -1,44 +1,99 @@
 package com.craftinginterpreters.lox;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
+// Turns the source into tokens. The source is scanned as an array of characters, and the runs of characters
+// that make up blanks, comments, identifiers, numbers and strings are skipped by CharRuns in one go.
 public class Scanner {
+    // finds the ends of runs of characters, with the Vector API if the JVM has it
+    private static final CharRuns RUNS = CharRuns.create();
+
     private final String source;
+    private final char[] chars;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
     private int line = 1;
-    private static final Map<String, TokenType> keywords;
+    // the module the source is the code of, null for the script
+    private final Path module;
+
+    // The keywords by a perfect hash of their first and last characters and their length, see keywordHash().
+    // An identifier is compared with the one keyword of its hash in place, and a keyword is given the lexeme
+    // stored here, so that no string is taken out of the source for them.
+    private static final String[] keywordLexemes = new String[32];
+    private static final TokenType[] keywordTypes = new TokenType[32];
+    private static final int MAX_KEYWORD_LENGTH = 8;
+    // the lexemes of the tokens that are always spelled the same, by the ordinal of their type
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",      AND);
-        keywords.put("class",    CLASS);
-        keywords.put("else",     ELSE);
-        keywords.put("false",    FALSE);
-        keywords.put("for",      FOR);
-        keywords.put("fun",      FUN);
-        keywords.put("if",       IF);
-        keywords.put("nil",      NIL);
-        keywords.put("or",       OR);
-        keywords.put("print",    PRINT);
-        keywords.put("return",   RETURN);
-        keywords.put("super",    SUPER);
-        keywords.put("this",     THIS);
-        keywords.put("true",     TRUE);
-        keywords.put("var",      VAR);
-        keywords.put("while",    WHILE);
-        keywords.put("break",    BREAK);
-        keywords.put("continue", CONTINUE);
+        keyword("and",      AND);
+        keyword("class",    CLASS);
+        keyword("else",     ELSE);
+        keyword("false",    FALSE);
+        keyword("for",      FOR);
+        keyword("fun",      FUN);
+        keyword("if",       IF);
+        keyword("nil",      NIL);
+        keyword("or",       OR);
+        keyword("print",    PRINT);
+        keyword("return",   RETURN);
+        keyword("super",    SUPER);
+        keyword("this",     THIS);
+        keyword("true",     TRUE);
+        keyword("var",      VAR);
+        keyword("while",    WHILE);
+        keyword("break",    BREAK);
+        keyword("continue", CONTINUE);
+        keyword("import",   IMPORT);
+
+        fixedLexemes[LEFT_PAREN.ordinal()]    = "(";
+        fixedLexemes[RIGHT_PAREN.ordinal()]   = ")";
+        fixedLexemes[LEFT_BRACE.ordinal()]    = "{";
+        fixedLexemes[RIGHT_BRACE.ordinal()]   = "}";
+        fixedLexemes[COMMA.ordinal()]         = ",";
+        fixedLexemes[DOT.ordinal()]           = ".";
+        fixedLexemes[MINUS.ordinal()]         = "-";
+        fixedLexemes[PLUS.ordinal()]          = "+";
+        fixedLexemes[SEMICOLON.ordinal()]     = ";";
+        fixedLexemes[SLASH.ordinal()]         = "/";
+        fixedLexemes[STAR.ordinal()]          = "*";
+        fixedLexemes[BANG.ordinal()]          = "!";
+        fixedLexemes[BANG_EQUAL.ordinal()]    = "!=";
+        fixedLexemes[EQUAL.ordinal()]         = "=";
+        fixedLexemes[EQUAL_EQUAL.ordinal()]   = "==";
+        fixedLexemes[GREATER.ordinal()]       = ">";
+        fixedLexemes[GREATER_EQUAL.ordinal()] = ">=";
+        fixedLexemes[LESS.ordinal()]          = "<";
+        fixedLexemes[LESS_EQUAL.ordinal()]    = "<=";
+        fixedLexemes[QUESTION_MARK.ordinal()] = "?";
+        fixedLexemes[COLON.ordinal()]         = ":";
+    }
+
+    private static void keyword(String lexeme, TokenType type) {
+        final var hash = keywordHash(lexeme.charAt(0), lexeme.charAt(lexeme.length() - 1), lexeme.length());
+        assert keywordLexemes[hash] == null : "keywords '" + keywordLexemes[hash] + "' and '" + lexeme + "' collide";
+        keywordLexemes[hash] = lexeme;
+        keywordTypes[hash] = type;
+    }
+
+    // tells all keywords apart, found by trying small factors
+    private static int keywordHash(char first, char last, int length) {
+        return (3 * first + 5 * last + 5 * length) & 31;
     }
 
     Scanner(final String source) {
+        this(source, null);
+    }
+
+    Scanner(final String source, final Path module) {
         this.source = source;
+        this.chars = source.toCharArray();
+        this.module = module;
     }
 
     List<Token> scanTokens() {
@@ -48,7 +103,7 @@ public class Scanner {
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        tokens.add(new Token(EOF, "", null, line, module));
         return tokens;
     }
 
@@ -106,9 +161,7 @@ public class Scanner {
             case '/':
                 if (match('/')) {
                     // a comment goes until the end of the line
-                    while (peek() != '\n' && !isAtEnd()) {
-                        advance();
-                    }
+                    current = RUNS.lineEnd(chars, current);
                 } else if (match('*')) {
                     blockComment();
                 } else {
@@ -119,10 +172,13 @@ public class Scanner {
             case '\r':
             case '\t':
                 // Ignore whitespace.
+                current = RUNS.blankEnd(chars, current);
                 break;
 
             case '\n':
                 line++;
+                // the indentation of the next line
+                current = RUNS.blankEnd(chars, current);
                 break;
             case '"':
                 string();
@@ -166,36 +222,44 @@ public class Scanner {
     }
 
     private void identifier() {
-        while (isAlphaNumeric(peek())) {
-            advance();
+        current = RUNS.identifierEnd(chars, current);
+        final var length = current - start;
+        if (length <= MAX_KEYWORD_LENGTH) {
+            final var hash = keywordHash(chars[start], chars[current - 1], length);
+            final var keyword = keywordLexemes[hash];
+            if (keyword != null && keyword.length() == length && isAt(keyword, start)) {
+                tokens.add(new Token(keywordTypes[hash], keyword, null, line, module));
+                return;
+            }
         }
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) {
-            type = IDENTIFIER;
+        tokens.add(new Token(IDENTIFIER, source.substring(start, current), null, line, module));
+    }
+
+    // whether the source has the given text at the given index
+    private boolean isAt(String text, int index) {
+        for (int i = 0; i < text.length(); ++i) {
+            if (chars[index + i] != text.charAt(i)) {
+                return false;
+            }
         }
-        addToken(type);
+        return true;
     }
 
     private void number() {
-        while (isDigit(peek())) {
-            advance();
-        }
+        current = RUNS.digitsEnd(chars, current);
         if (peek() == '.' && isDigit(peekNext())) {
             advance();
-            while (isDigit(peek())) {
-                advance();
-            }
+            current = RUNS.digitsEnd(chars, current);
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        final var text = source.substring(start, current);
+        tokens.add(new Token(NUMBER, text, Double.parseDouble(text), line, module));
     }
 
     private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') {
-                ++line;
-            }
-            advance();
+        current = RUNS.stringEnd(chars, current);
+        while (peek() == '\n') {
+            ++line;
+            current = RUNS.stringEnd(chars, current + 1);
         }
 
         if (isAtEnd()) {
@@ -210,7 +274,7 @@ public class Scanner {
     }
 
     private boolean match(char expected) {
-        if (isAtEnd() || source.charAt(current) != expected) {
+        if (isAtEnd() || chars[current] != expected) {
             return false;
         }
         ++current;
@@ -218,11 +282,11 @@ public class Scanner {
     }
 
     private char peek() {
-        return isAtEnd() ? '\0' : source.charAt(current);
+        return isAtEnd() ? '\0' : chars[current];
     }
 
     private char peekNext() {
-        return current + 1 >= source.length() ? '\0' : source.charAt(current + 1);
+        return current + 1 >= chars.length ? '\0' : chars[current + 1];
     }
 
     private static boolean isDigit(char c) {
@@ -235,24 +299,21 @@ public class Scanner {
                 c == '_';
     }
 
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || isDigit(c);
-    }
-
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= chars.length;
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return chars[current++];
     }
 
+    // a token that is always spelled the same
     private void addToken(TokenType type) {
-        addToken(type, null);
+        tokens.add(new Token(type, fixedLexemes[type.ordinal()], null, line, module));
     }
 
     private void addToken(TokenType type, Object literal) {
         String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(new Token(type, text, literal, line, module));
     }
 }
@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// The state of an interpreter after a prelude has run: its globals, everything reachable from them (classes,
+// functions, instances, collections and the resolved AST of their code), the resolution data of that AST and
+// the top-level statements of the prelude, written to a compact binary image.
+//
+// The image is a single object graph. Every object is written once, the first time it is reached, and refers
+// to earlier objects by their index in the order they were written, which keeps the identity of shared
+// objects such as fused nodes and their originals or the bindings of a frame layout. Numbers are written as
+// varints where possible and strings once each. The resolution data of a node follows the node itself, and
+// the contents of mutable containers (cells, instances, lists and maps) are only written after the rest of
+// the graph, so that the cycles they may close never have to be followed while an object is being read.
+// The native functions of the libraries are written by name and looked up again in the interpreter restoring
+// the image.
+class Snapshot {
+    // "LOXS" followed by the version of the image format
+    static final int MAGIC = 0x4c4f5853;
+    static final int VERSION = 4;
+
+    // tags of the values in an image
+    static final byte NULL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte NUMBER = 3;
+    static final byte STRING = 4;
+    // an object that was written before, followed by its index
+    static final byte REFERENCE = 5;
+    static final byte UNINITIALIZED = 6;
+    static final byte STATIC_TYPE = 7;
+    static final byte EXPR = 8;
+    static final byte STMT = 9;
+    static final byte TOKEN = 10;
+    static final byte LIST = 11;
+    static final byte BINDING = 12;
+    static final byte LOCAL_VARIABLE = 13;
+    static final byte FRAME_LAYOUT = 14;
+    static final byte SCALAR_OBJECT = 15;
+    static final byte SCALAR_FIELD = 16;
+    static final byte FIELD_INITIALIZER = 17;
+    static final byte LAZY_BODY = 18;
+    static final byte NATIVE_FUNCTION = 19;
+    static final byte CLASS = 20;
+    static final byte FUNCTION = 21;
+    static final byte CELL = 22;
+    static final byte INSTANCE = 23;
+    static final byte LOX_LIST = 24;
+    static final byte LOX_MAP = 25;
+
+    static void write(Interpreter interpreter, List<Stmt> statements, Path path) throws IOException {
+        final var out = new SnapshotWriter(interpreter);
+        out.writeHeader();
+        out.writeGlobals();
+        out.write(statements);
+        out.writeContents();
+        try {
+            Files.write(path, out.toByteArray());
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    // restores the image into the interpreter and returns the statements of the prelude
+    @SuppressWarnings("unchecked")
+    static List<Stmt> read(Interpreter interpreter, Path path) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            final var in = new SnapshotReader(interpreter, buffer);
+            in.readHeader();
+            in.readGlobals();
+            final var statements = (List<Stmt>)in.read();
+            in.readContents();
+            return statements;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | ClassCastException e) {
+            throw new StreamCorruptedException("not a snapshot of this version of jlox");
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.Snapshot.*;
+
+// Decodes an image written by SnapshotWriter into an interpreter, see Snapshot for the format.
+class SnapshotReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final StaticType[] STATIC_TYPES = StaticType.values();
+
+    private final Interpreter interpreter;
+    private final ByteBuffer buffer;
+    // every object read so far by its index; objects are reserved before their parts are read
+    private final ArrayList<Object> objects = new ArrayList<>();
+    // containers whose contents still have to be read, in the order they were written
+    private final ArrayDeque<Object> containers = new ArrayDeque<>();
+
+    SnapshotReader(Interpreter interpreter, ByteBuffer buffer) {
+        this.interpreter = interpreter;
+        this.buffer = buffer;
+    }
+
+    void readHeader() throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new StreamCorruptedException("not a snapshot of this version of jlox");
+        }
+    }
+
+    void readGlobals() throws IOException {
+        final var count = readVarint();
+        for (int i = 0; i < count; ++i) {
+            final var name = (String)read();
+            interpreter.globals.restore(name, read());
+        }
+    }
+
+    void readContents() throws IOException {
+        while (!containers.isEmpty()) {
+            final var container = containers.poll();
+            if (container instanceof Cell) {
+                ((Cell)container).value = read();
+            } else if (container instanceof LoxInstance) {
+                final var instance = (LoxInstance)container;
+                final var count = readVarint();
+                for (int i = 0; i < count; ++i) {
+                    final var name = (String)read();
+                    instance.set(name, read(), null);
+                }
+            } else if (container instanceof LoxList) {
+                final var list = (LoxList)container;
+                final var count = readVarint();
+                for (int i = 0; i < count; ++i) {
+                    list.add(read());
+                }
+            } else {
+                final var map = (LoxMap)container;
+                final var count = readVarint();
+                for (int i = 0; i < count; ++i) {
+                    final var key = read();
+                    map.put(key, read());
+                }
+            }
+        }
+        if (buffer.hasRemaining()) {
+            throw new StreamCorruptedException("trailing data after the snapshot");
+        }
+    }
+
+    int readKind() {
+        return readVarint();
+    }
+
+    Object read() throws IOException {
+        final var tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case NUMBER:
+                return buffer.getDouble();
+            case STRING: {
+                final var string = readString();
+                objects.add(string);
+                return string;
+            }
+            case REFERENCE:
+                return objects.get(readVarint());
+            case UNINITIALIZED:
+                return Environment.UNINITIALIZED;
+            case STATIC_TYPE:
+                return STATIC_TYPES[readVarint()];
+            default:
+                final var index = objects.size();
+                objects.add(null);
+                final var object = readObject(tag);
+                objects.set(index, object);
+                return object;
+        }
+    }
+
+    double readDouble() {
+        return buffer.getDouble();
+    }
+
+    // Reads an object that was not written before. Except for the containers, whose contents are read later,
+    // the parts of an object are read before the object is created, so nothing may refer to it before then.
+    private Object readObject(byte tag) throws IOException {
+        switch (tag) {
+            case EXPR: {
+                final var expr = Expr.read(this);
+                final var binding = (Binding)read();
+                if (binding != null) {
+                    interpreter.resolve(expr, binding);
+                }
+                if (expr instanceof Expr.Super) {
+                    final var receiver = (Binding)read();
+                    if (receiver != null) {
+                        interpreter.resolveReceiver((Expr.Super)expr, receiver);
+                    }
+                }
+                return expr;
+            }
+            case STMT: {
+                final var stmt = Stmt.read(this);
+                final var variable = (LocalVariable)read();
+                if (variable != null) {
+                    interpreter.resolve(stmt, variable);
+                }
+                if (stmt instanceof Stmt.Fun) {
+                    final var layout = (FrameLayout)read();
+                    if (layout != null) {
+                        interpreter.resolve((Stmt.Fun)stmt, layout);
+                    }
+                }
+                return stmt;
+            }
+            case TOKEN: {
+                final var type = TOKEN_TYPES[readVarint()];
+                final var lexeme = (String)read();
+                final var literal = read();
+                final var line = readVarint();
+                final var module = (String)read();
+                return new Token(type, lexeme, literal, line, module != null ? Path.of(module) : null);
+            }
+            case LIST: {
+                final var size = readVarint();
+                final var list = new ArrayList<>(size);
+                for (int i = 0; i < size; ++i) {
+                    list.add(read());
+                }
+                return list;
+            }
+            case BINDING: {
+                final var local = (LocalVariable)read();
+                final var upvalue = readVarint() - 1;
+                return local != null ? Binding.local(local) : Binding.upvalue(upvalue);
+            }
+            case LOCAL_VARIABLE: {
+                final var variable = new LocalVariable(readVarint());
+                variable.captured = buffer.get() == TRUE;
+                return variable;
+            }
+            case FRAME_LAYOUT:
+                return readFrameLayout();
+            case SCALAR_OBJECT: {
+                final var variableSlot = readVarint();
+                final var classSlot = readVarint();
+                final var count = readVarint();
+                final var fieldSlots = new HashMap<String, Integer>();
+                for (int i = 0; i < count; ++i) {
+                    final var name = (String)read();
+                    fieldSlots.put(name, readVarint());
+                }
+                return new ScalarObject(variableSlot, classSlot, fieldSlots);
+            }
+            case SCALAR_FIELD: {
+                final var object = (ScalarObject)read();
+                return new ScalarField(object, readVarint());
+            }
+            case FIELD_INITIALIZER: {
+                final var arity = readVarint();
+                final var count = readVarint();
+                final var fields = new String[count];
+                final var parameters = new int[count];
+                final var literals = new Object[count];
+                for (int i = 0; i < count; ++i) {
+                    fields[i] = (String)read();
+                    parameters[i] = readVarint() - 1;
+                    literals[i] = read();
+                }
+                return new FieldInitializer(arity, fields, parameters, literals);
+            }
+            case LAZY_BODY:
+                return Parser.LazyBody.read(this);
+            case NATIVE_FUNCTION: {
+                final var name = (String)read();
+                final var function = interpreter.nativeFunction(name);
+                if (function == null) {
+                    throw new InvalidObjectException("unknown native function '" + name + "'");
+                }
+                return function;
+            }
+            case CLASS: {
+                final var name = (String)read();
+                final var superclass = (LoxClass)read();
+                final var count = readVarint();
+                final var methods = new HashMap<String, LoxFunction>();
+                for (int i = 0; i < count; ++i) {
+                    final var methodName = (String)read();
+                    methods.put(methodName, (LoxFunction)read());
+                }
+                return new LoxClass(name, superclass, methods);
+            }
+            case FUNCTION: {
+                final var declaration = (Stmt.Fun)read();
+                final var layout = (FrameLayout)read();
+                final var closure = new Cell[readVarint()];
+                for (int i = 0; i < closure.length; ++i) {
+                    closure[i] = (Cell)read();
+                }
+                final var isInitializer = buffer.get() == TRUE;
+                final var superclass = (LoxClass)read();
+                final var receiver = (LoxInstance)read();
+                return new LoxFunction(declaration, layout, closure, isInitializer, superclass, receiver);
+            }
+            case CELL:
+                return container(new Cell(null));
+            case INSTANCE:
+                return container(interpreter.heap.instantiate((LoxClass)read(), null));
+            case LOX_LIST:
+                return container(new LoxList(interpreter.heap));
+            case LOX_MAP:
+                return container(new LoxMap(interpreter.heap));
+            default:
+                throw new StreamCorruptedException("unknown tag " + tag);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private FrameLayout readFrameLayout() throws IOException {
+        final var layout = new FrameLayout();
+        layout.slotCount = readVarint();
+        layout.receiver = (LocalVariable)read();
+        layout.superclass = (LocalVariable)read();
+        layout.parameters.addAll((List<LocalVariable>)read());
+        layout.upvalues.addAll((List<Binding>)read());
+        return layout;
+    }
+
+    private Object container(Object container) {
+        containers.add(container);
+        return container;
+    }
+
+    int readVarint() {
+        var value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final var b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private String readString() {
+        final var length = readVarint();
+        final var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
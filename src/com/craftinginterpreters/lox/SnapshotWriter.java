@@ -0,0 +1,306 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.Snapshot.*;
+
+// Encodes the state of an interpreter into an image, see Snapshot for the format.
+class SnapshotWriter {
+    private final Interpreter interpreter;
+    private byte[] bytes = new byte[1 << 16];
+    private int size = 0;
+
+    // the index of every object written so far; strings are shared by value
+    private final IdentityHashMap<Object, Integer> objects = new IdentityHashMap<>();
+    private final HashMap<String, Integer> strings = new HashMap<>();
+    private int objectCount = 0;
+    // containers whose contents still have to be written
+    private final ArrayDeque<Object> containers = new ArrayDeque<>();
+
+    SnapshotWriter(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    void writeHeader() {
+        writeInt(MAGIC);
+        writeInt(VERSION);
+    }
+
+    // the globals that differ from the ones a new interpreter starts with
+    void writeGlobals() throws IOException {
+        final var globals = interpreter.globals.values();
+        var count = 0;
+        for (final var global : globals.entrySet()) {
+            if (global.getValue() != interpreter.nativeFunction(global.getKey())) {
+                ++count;
+            }
+        }
+        writeVarint(count);
+        for (final var global : globals.entrySet()) {
+            if (global.getValue() != interpreter.nativeFunction(global.getKey())) {
+                write(global.getKey());
+                write(global.getValue());
+            }
+        }
+    }
+
+    // writes the contents of the containers reached so far, and of the ones reached while doing so
+    void writeContents() throws IOException {
+        while (!containers.isEmpty()) {
+            final var container = containers.poll();
+            if (container instanceof Cell) {
+                write(((Cell)container).value);
+            } else if (container instanceof LoxInstance) {
+                final var fields = ((LoxInstance)container).fields();
+                writeVarint(fields.size());
+                for (final var field : fields.entrySet()) {
+                    write(field.getKey());
+                    write(field.getValue());
+                }
+            } else if (container instanceof LoxList) {
+                final var list = (LoxList)container;
+                writeVarint(list.size());
+                for (int i = 0; i < list.size(); ++i) {
+                    write(list.get(i));
+                }
+            } else {
+                final var map = (LoxMap)container;
+                final var keys = map.keys();
+                writeVarint(keys.size());
+                for (int i = 0; i < keys.size(); ++i) {
+                    write(keys.get(i));
+                    write(map.lookUp(keys.get(i)));
+                }
+            }
+        }
+    }
+
+    void writeKind(int kind) {
+        writeVarint(kind);
+    }
+
+    void write(Object value) throws IOException {
+        if (value == null) {
+            writeByte(NULL);
+            return;
+        }
+        if (value instanceof Boolean) {
+            writeByte((boolean)value ? TRUE : FALSE);
+            return;
+        }
+        if (value instanceof Double) {
+            writeByte(NUMBER);
+            writeDouble((double)value);
+            return;
+        }
+        if (value instanceof String) {
+            final var index = strings.get(value);
+            if (index != null) {
+                writeByte(REFERENCE);
+                writeVarint(index);
+                return;
+            }
+            strings.put((String)value, objectCount++);
+            writeByte(STRING);
+            writeString((String)value);
+            return;
+        }
+        if (value == Environment.UNINITIALIZED) {
+            writeByte(UNINITIALIZED);
+            return;
+        }
+        if (value instanceof StaticType) {
+            writeByte(STATIC_TYPE);
+            writeVarint(((StaticType)value).ordinal());
+            return;
+        }
+        final var index = objects.get(value);
+        if (index != null) {
+            writeByte(REFERENCE);
+            writeVarint(index);
+            return;
+        }
+        objects.put(value, objectCount++);
+        writeObject(value);
+    }
+
+    private void writeObject(Object value) throws IOException {
+        if (value instanceof Expr) {
+            final var expr = (Expr)value;
+            writeByte(EXPR);
+            expr.write(this);
+            write(interpreter.binding(expr));
+            if (expr instanceof Expr.Super) {
+                write(interpreter.receiver((Expr.Super)expr));
+            }
+        } else if (value instanceof Stmt) {
+            final var stmt = (Stmt)value;
+            writeByte(STMT);
+            stmt.write(this);
+            write(interpreter.declaration(stmt));
+            if (stmt instanceof Stmt.Fun) {
+                write(interpreter.layout((Stmt.Fun)stmt));
+            }
+        } else if (value instanceof Token) {
+            final var token = (Token)value;
+            writeByte(TOKEN);
+            writeVarint(token.type.ordinal());
+            write(token.lexeme);
+            write(token.literal);
+            writeVarint(token.line);
+            write(token.module != null ? token.module.toString() : null);
+        } else if (value instanceof List) {
+            final var list = (List<?>)value;
+            writeByte(LIST);
+            writeVarint(list.size());
+            for (final var element : list) {
+                write(element);
+            }
+        } else if (value instanceof Binding) {
+            final var binding = (Binding)value;
+            writeByte(BINDING);
+            write(binding.local);
+            writeVarint(binding.upvalue + 1);
+        } else if (value instanceof LocalVariable) {
+            final var variable = (LocalVariable)value;
+            writeByte(LOCAL_VARIABLE);
+            writeVarint(variable.slot);
+            writeByte(variable.captured ? TRUE : FALSE);
+        } else if (value instanceof FrameLayout) {
+            final var layout = (FrameLayout)value;
+            writeByte(FRAME_LAYOUT);
+            writeVarint(layout.slotCount);
+            write(layout.receiver);
+            write(layout.superclass);
+            write(layout.parameters);
+            write(layout.upvalues);
+        } else if (value instanceof ScalarObject) {
+            final var object = (ScalarObject)value;
+            writeByte(SCALAR_OBJECT);
+            writeVarint(object.variableSlot);
+            writeVarint(object.classSlot);
+            writeVarint(object.fieldSlots.size());
+            for (final var field : object.fieldSlots.entrySet()) {
+                write(field.getKey());
+                writeVarint(field.getValue());
+            }
+        } else if (value instanceof ScalarField) {
+            final var field = (ScalarField)value;
+            writeByte(SCALAR_FIELD);
+            write(field.object);
+            writeVarint(field.slot);
+        } else if (value instanceof FieldInitializer) {
+            final var initializer = (FieldInitializer)value;
+            writeByte(FIELD_INITIALIZER);
+            writeVarint(initializer.arity);
+            writeVarint(initializer.fields.length);
+            for (int i = 0; i < initializer.fields.length; ++i) {
+                write(initializer.fields[i]);
+                writeVarint(initializer.parameters[i] + 1);
+                write(initializer.literals[i]);
+            }
+        } else if (value instanceof Parser.LazyBody) {
+            writeByte(LAZY_BODY);
+            ((Parser.LazyBody)value).write(this);
+        } else if (value instanceof NativeFunction) {
+            final var function = (NativeFunction)value;
+            if (interpreter.nativeFunction(function.name) != function) {
+                // e.g. a method of a list that was stored in a variable
+                throw new NotSerializableException("native function '" + function.name
+                        + "' does not belong to a library");
+            }
+            writeByte(NATIVE_FUNCTION);
+            write(function.name);
+        } else if (value instanceof LoxClass) {
+            final var klass = (LoxClass)value;
+            writeByte(CLASS);
+            write(klass.name);
+            write(klass.superclass);
+            writeVarint(klass.methods.size());
+            for (final var method : klass.methods.entrySet()) {
+                write(method.getKey());
+                write(method.getValue());
+            }
+        } else if (value instanceof LoxFunction) {
+            final var function = (LoxFunction)value;
+            writeByte(FUNCTION);
+            write(function.declaration);
+            write(function.layout);
+            writeVarint(function.closure.length);
+            for (final var cell : function.closure) {
+                write(cell);
+            }
+            writeByte(function.isInitializer ? TRUE : FALSE);
+            write(function.superclass);
+            write(function.receiver);
+        } else if (value instanceof Cell) {
+            writeByte(CELL);
+            containers.add(value);
+        } else if (value instanceof LoxInstance) {
+            writeByte(INSTANCE);
+            write(((LoxInstance)value).klass);
+            containers.add(value);
+        } else if (value instanceof LoxList) {
+            writeByte(LOX_LIST);
+            containers.add(value);
+        } else if (value instanceof LoxMap) {
+            writeByte(LOX_MAP);
+            containers.add(value);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    void writeDouble(double value) {
+        final var bits = Double.doubleToRawLongBits(value);
+        writeInt((int)bits);
+        writeInt((int)(bits >>> 32));
+    }
+
+    void writeVarint(int value) {
+        assert value >= 0;
+        while ((value & ~0x7f) != 0) {
+            writeByte((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((byte)value);
+    }
+
+    private void writeString(String value) {
+        final var encoded = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(encoded.length);
+        ensureCapacity(encoded.length);
+        System.arraycopy(encoded, 0, bytes, size, encoded.length);
+        size += encoded.length;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        bytes[size++] = (byte)value;
+        bytes[size++] = (byte)(value >>> 8);
+        bytes[size++] = (byte)(value >>> 16);
+        bytes[size++] = (byte)(value >>> 24);
+    }
+
+    private void writeByte(byte value) {
+        ensureCapacity(1);
+        bytes[size++] = value;
+    }
+
+    private void ensureCapacity(int count) {
+        if (size + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+        }
+    }
+}
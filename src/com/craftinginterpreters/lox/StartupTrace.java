@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+// The time spent in each phase of a run for --trace-startup, printed to stderr when the run ends. The JVM boot
+// is the time from the creation of the JVM to the entry of Lox.main(), in milliseconds only; it is looked up
+// at the end so that loading the management classes does not count towards any phase. The phases of the modules
+// the ModuleLoader analyzes on threads of their own count towards the loading of modules, not the phases here.
+class StartupTrace {
+    private final Thread thread = Thread.currentThread();
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> nanos = new ArrayList<>();
+    private final long mainEntered = System.currentTimeMillis();
+    private long last = System.nanoTime();
+
+    // ends the current phase
+    void mark(String phase) {
+        if (Thread.currentThread() != thread) {
+            return;
+        }
+        final var now = System.nanoTime();
+        phases.add(phase);
+        nanos.add(now - last);
+        last = now;
+    }
+
+    void print() {
+        final var jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+        print("jvm boot", (mainEntered - jvmStart) * 1_000_000);
+        var total = 0L;
+        for (int i = 0; i < phases.size(); ++i) {
+            print(phases.get(i), nanos.get(i));
+            total += nanos.get(i);
+        }
+        print("total after boot", total);
+    }
+
+    private static void print(String phase, long nanos) {
+        System.err.println(String.format("[startup] %-16s %9.2f ms", phase, nanos / 1e6));
+    }
+}
@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox;
+
+// What the type inference could prove about the value of an expression.
+enum StaticType {
+    NUMBER,
+    BOOLEAN,
+    STRING,
+    ANY;
+
+    StaticType join(StaticType other) {
+        return this == other ? this : ANY;
+    }
+
+    static StaticType of(Object value) {
+        if (value instanceof Double) {
+            return NUMBER;
+        }
+        if (value instanceof Boolean) {
+            return BOOLEAN;
+        }
+        if (value instanceof String) {
+            return STRING;
+        }
+        return ANY;
+    }
+}
@@ -1,15 +1,19 @@
 package com.craftinginterpreters.lox;
 
 import javax.annotation.processing.Generated;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Path;
 import java.util.List;
 
 @Generated("Tools/GenerateAst.py")
-abstract class Stmt {
+abstract sealed class Stmt {
 
   interface Visitor<R> {
     R visitExpressionStmt(Expression stmt);
     R visitIfStmt(If stmt);
     R visitWhileStmt(While stmt);
+    R visitForStmt(For stmt);
     R visitPrintStmt(Print stmt);
     R visitBlockStmt(Block stmt);
     R visitBreakStmt(Break stmt);
@@ -18,9 +22,13 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitFunStmt(Fun stmt);
     R visitClassStmt(Class stmt);
+    R visitImportStmt(Import stmt);
   }
 
-  static class Expression extends Stmt {
+  // the local variable the statement declares, set by the Resolver
+  LocalVariable variable;
+
+  static final class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
     }
@@ -30,10 +38,16 @@ abstract class Stmt {
       return visitor.visitExpressionStmt(this);
     }
 
-    final Expr expression;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(0);
+      out.write(expression);
+    }
+
+    Expr expression;
   }
 
-  static class If extends Stmt {
+  static final class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -45,13 +59,22 @@ abstract class Stmt {
       return visitor.visitIfStmt(this);
     }
 
-    final Expr condition;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(1);
+      out.write(condition);
+      out.write(thenBranch);
+      out.write(elseBranch);
+    }
+
+    Expr condition;
     final Stmt thenBranch;
     final Stmt elseBranch;
   }
 
-  static class While extends Stmt {
-    While(Expr loopCondition, Stmt loopBody) {
+  static final class While extends Stmt {
+    While(Token keyword, Expr loopCondition, Stmt loopBody) {
+      this.keyword = keyword;
       this.loopCondition = loopCondition;
       this.loopBody = loopBody;
     }
@@ -61,11 +84,51 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
-    final Expr loopCondition;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(2);
+      out.write(keyword);
+      out.write(loopCondition);
+      out.write(loopBody);
+    }
+
+    final Token keyword;
+    Expr loopCondition;
     final Stmt loopBody;
   }
 
-  static class Print extends Stmt {
+  static final class For extends Stmt {
+    For(Token keyword, Stmt initializer, Expr loopCondition, Expr increment, Stmt loopBody) {
+      this.keyword = keyword;
+      this.initializer = initializer;
+      this.loopCondition = loopCondition;
+      this.increment = increment;
+      this.loopBody = loopBody;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(3);
+      out.write(keyword);
+      out.write(initializer);
+      out.write(loopCondition);
+      out.write(increment);
+      out.write(loopBody);
+    }
+
+    final Token keyword;
+    final Stmt initializer;
+    Expr loopCondition;
+    Expr increment;
+    final Stmt loopBody;
+  }
+
+  static final class Print extends Stmt {
     Print(Expr expression) {
       this.expression = expression;
     }
@@ -75,10 +138,16 @@ abstract class Stmt {
       return visitor.visitPrintStmt(this);
     }
 
-    final Expr expression;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(4);
+      out.write(expression);
+    }
+
+    Expr expression;
   }
 
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
     Block(List<Stmt> statements) {
       this.statements = statements;
     }
@@ -88,10 +157,16 @@ abstract class Stmt {
       return visitor.visitBlockStmt(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(5);
+      out.write(statements);
+    }
+
     final List<Stmt> statements;
   }
 
-  static class Break extends Stmt {
+  static final class Break extends Stmt {
     Break() {
     }
 
@@ -100,9 +175,14 @@ abstract class Stmt {
       return visitor.visitBreakStmt(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(6);
+    }
+
   }
 
-  static class Continue extends Stmt {
+  static final class Continue extends Stmt {
     Continue() {
     }
 
@@ -111,9 +191,14 @@ abstract class Stmt {
       return visitor.visitContinueStmt(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(7);
+    }
+
   }
 
-  static class Return extends Stmt {
+  static final class Return extends Stmt {
     Return(Expr value) {
       this.value = value;
     }
@@ -123,10 +208,16 @@ abstract class Stmt {
       return visitor.visitReturnStmt(this);
     }
 
-    final Expr value;
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(8);
+      out.write(value);
+    }
+
+    Expr value;
   }
 
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
     Var(Token name, Expr initializer) {
       this.name = name;
       this.initializer = initializer;
@@ -137,11 +228,22 @@ abstract class Stmt {
       return visitor.visitVarStmt(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(9);
+      out.write(name);
+      out.write(initializer);
+      out.write(scalar);
+    }
+
     final Token name;
-    final Expr initializer;
+    Expr initializer;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    ScalarObject scalar;
   }
 
-  static class Fun extends Stmt {
+  static final class Fun extends Stmt {
     Fun(Token name, List<Token> parameters, List<Stmt> functionBody) {
       this.name = name;
       this.parameters = parameters;
@@ -153,12 +255,28 @@ abstract class Stmt {
       return visitor.visitFunStmt(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(10);
+      out.write(name);
+      out.write(parameters);
+      out.write(functionBody);
+      out.write(lazyBody);
+      out.write(fieldInitializer);
+    }
+
     final Token name;
     final List<Token> parameters;
     final List<Stmt> functionBody;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    Parser.LazyBody lazyBody;
+    FieldInitializer fieldInitializer;
+    transient Executor compiledBody;
+    transient FrameLayout layout;
   }
 
-  static class Class extends Stmt {
+  static final class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Fun> methods) {
       this.name = name;
       this.superclass = superclass;
@@ -170,11 +288,110 @@ abstract class Stmt {
       return visitor.visitClassStmt(this);
     }
 
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(11);
+      out.write(name);
+      out.write(superclass);
+      out.write(methods);
+    }
+
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Fun> methods;
   }
 
+  static final class Import extends Stmt {
+    Import(Token keyword, Token path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    @Override
+    void write(SnapshotWriter out) throws IOException {
+      out.writeKind(12);
+      out.write(keyword);
+      out.write(path);
+    }
+
+    final Token keyword;
+    final Token path;
+
+    // not part of the syntax, set by the parser or the passes that run after it
+    transient Path module;
+  }
+
   abstract <R> R accept(Visitor<R> visitor);
 
+  abstract void write(SnapshotWriter out) throws IOException;
+
+  @SuppressWarnings("unchecked")
+  static Stmt read(SnapshotReader in) throws IOException {
+    final var kind = in.readKind();
+    switch (kind) {
+      case 0: {
+        final var node = new Expression((Expr)in.read());
+        return node;
+      }
+      case 1: {
+        final var node = new If((Expr)in.read(), (Stmt)in.read(), (Stmt)in.read());
+        return node;
+      }
+      case 2: {
+        final var node = new While((Token)in.read(), (Expr)in.read(), (Stmt)in.read());
+        return node;
+      }
+      case 3: {
+        final var node = new For((Token)in.read(), (Stmt)in.read(), (Expr)in.read(), (Expr)in.read(), (Stmt)in.read());
+        return node;
+      }
+      case 4: {
+        final var node = new Print((Expr)in.read());
+        return node;
+      }
+      case 5: {
+        final var node = new Block((List<Stmt>)in.read());
+        return node;
+      }
+      case 6: {
+        final var node = new Break();
+        return node;
+      }
+      case 7: {
+        final var node = new Continue();
+        return node;
+      }
+      case 8: {
+        final var node = new Return((Expr)in.read());
+        return node;
+      }
+      case 9: {
+        final var node = new Var((Token)in.read(), (Expr)in.read());
+        node.scalar = (ScalarObject)in.read();
+        return node;
+      }
+      case 10: {
+        final var node = new Fun((Token)in.read(), (List<Token>)in.read(), (List<Stmt>)in.read());
+        node.lazyBody = (Parser.LazyBody)in.read();
+        node.fieldInitializer = (FieldInitializer)in.read();
+        return node;
+      }
+      case 11: {
+        final var node = new Class((Token)in.read(), (Expr.Variable)in.read(), (List<Stmt.Fun>)in.read());
+        return node;
+      }
+      case 12: {
+        final var node = new Import((Token)in.read(), (Token)in.read());
+        return node;
+      }
+      default:
+        throw new StreamCorruptedException("unknown kind of Stmt: " + kind);
+    }
+  }
+
 }
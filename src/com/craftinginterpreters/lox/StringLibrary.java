@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.craftinginterpreters.lox.NativeFunction.index;
+import static com.craftinginterpreters.lox.NativeFunction.number;
+import static com.craftinginterpreters.lox.NativeFunction.string;
+
+// The strings the natives build are charged to the interpreter like those built by '+', see HeapAccount. A native
+// that returns the string it was given, such as upper() of one that is upper case already, builds nothing.
+public class StringLibrary implements NativeLibrary {
+    // what num() takes: a number as Lox scans it, with an optional sign, where Double.parseDouble() would also
+    // take "1e3", "1d", "0x1p3" or "NaN"
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+    // the longest string the JVM can hold
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    @Override
+    public List<NativeFunction> functions() {
+        return List.of(
+                NativeFunction.of("str", (interpreter, value) ->
+                        built(interpreter, Interpreter.stringify(value), value)),
+                NativeFunction.of("num", (interpreter, value) -> {
+                    final var text = string("num", value).trim();
+                    if (!NUMBER.matcher(text).matches()) {
+                        return null;
+                    }
+                    return Double.parseDouble(text);
+                }),
+                NativeFunction.of("upper", (interpreter, s) -> built(interpreter, string("upper", s).toUpperCase(), s)),
+                NativeFunction.of("lower", (interpreter, s) -> built(interpreter, string("lower", s).toLowerCase(), s)),
+                NativeFunction.of("trim", (interpreter, s) -> built(interpreter, string("trim", s).trim(), s)),
+                NativeFunction.of("charAt", (interpreter, s, i) -> {
+                    final var string = string("charAt", s);
+                    return interpreter.heap.string(String.valueOf(string.charAt(index("charAt", i, string.length()))),
+                            null);
+                }),
+                NativeFunction.of("indexOf", (interpreter, s, part) ->
+                        (double)string("indexOf", s).indexOf(string("indexOf", part))),
+                NativeFunction.of("substring", (interpreter, s, start, end) -> {
+                    final var string = string("substring", s);
+                    final var from = index("substring", start, string.length() + 1);
+                    final var to = index("substring", end, string.length() + 1);
+                    if (from > to) {
+                        throw new NativeError("Start index passed to 'substring' is greater than the end index.");
+                    }
+                    return built(interpreter, string.substring(from, to), string);
+                }),
+                NativeFunction.of("replace", (interpreter, s, target, replacement) -> built(interpreter,
+                        string("replace", s).replace(string("replace", target), string("replace", replacement)), s)),
+                NativeFunction.of("repeat", (interpreter, s, count) -> {
+                    final var times = number("repeat", count);
+                    if (times < 0 || times != Math.floor(times)) {
+                        throw new NativeError("Count passed to 'repeat' must be a non-negative whole number.");
+                    }
+                    final var string = string("repeat", s);
+                    // checked before the string is built, which may not even fit into the memory of the JVM
+                    final var length = string.length() * times;
+                    interpreter.heap.reserve(HeapAccount.STRING_BYTES + (long)Math.min(length, MAX_LENGTH + 1.0), null);
+                    if (length > MAX_LENGTH) {
+                        throw new NativeError("The string 'repeat' would build is too long.");
+                    }
+                    return built(interpreter, string.repeat((int)times), string);
+                })
+        );
+    }
+
+    // charges the string a native returns, unless it is the one the native was given
+    private static String built(Interpreter interpreter, String result, Object argument) {
+        if (result == argument) {
+            return result;
+        }
+        return interpreter.heap.string(result, null);
+    }
+}
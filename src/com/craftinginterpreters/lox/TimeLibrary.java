@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+import java.time.Instant;
+import java.util.List;
+
+public class TimeLibrary implements NativeLibrary {
+    @Override
+    public List<NativeFunction> functions() {
+        return List.of(
+                // seconds since the epoch, with the best resolution the system clock offers
+                NativeFunction.of("clock", (interpreter) -> {
+                    final var now = Instant.now();
+                    return (double)now.getEpochSecond() + now.getNano() / 1e9;
+                }),
+                // nanoseconds from a monotonic clock with an arbitrary origin, for measuring elapsed time
+                NativeFunction.of("nanoTime", (interpreter) -> (double)System.nanoTime())
+        );
+    }
+}
@@ -1,16 +1,25 @@
 package com.craftinginterpreters.lox;
 
+import java.nio.file.Path;
+
 class Token {
     final TokenType type;
     final String lexeme;
     final Object literal;
     final int line;
+    // the module the token was scanned from, null for the script, see Lox.runtimeError()
+    final Path module;
 
     Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, null);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, int line, Path module) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.module = module;
     }
 
     @Override
@@ -0,0 +1,380 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Flow-sensitive inference of the types of the locals of every function. It tracks which uncaptured local
+// is known to hold a number, a boolean or a string at each point of the function and annotates
+// Expr.Variable nodes with the type of the value they read and Expr.Binary/Expr.Unary nodes with the
+// common type of their operands. The interpreter evaluates operators whose operands are proven numbers
+// without boxing or type checks. Captured locals may be changed by any call, so they, like parameters,
+// globals and upvalues, are always of type ANY.
+public class TypeInference implements Expr.Visitor<StaticType>, Stmt.Visitor<Void> {
+    // the join of the states at all break and continue statements of a loop
+    private static class Loop {
+        Map<LocalVariable, StaticType> breakState = null;
+        Map<LocalVariable, StaticType> continueState = null;
+    }
+
+    private final Interpreter interpreter;
+    // type of each local at the current point of the analysis, null if that point is unreachable
+    private Map<LocalVariable, StaticType> state = new HashMap<>();
+    private Stack<Loop> loops = new Stack<>();
+
+    public TypeInference(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    void infer(List<Stmt> statements) {
+        inferAll(statements);
+    }
+
+    private void inferAll(List<Stmt> statements) {
+        for (final var statement : statements) {
+            if (state == null) {
+                // the rest of the block cannot be reached
+                return;
+            }
+            statement.accept(this);
+        }
+    }
+
+    private void infer(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private StaticType infer(Expr expression) {
+        return expression.accept(this);
+    }
+
+    private static Map<LocalVariable, StaticType> copy(Map<LocalVariable, StaticType> state) {
+        return state == null ? null : new HashMap<>(state);
+    }
+
+    // a variable missing from one of the states is not declared on that path, so the other path determines it
+    private static Map<LocalVariable, StaticType> join(Map<LocalVariable, StaticType> first,
+                                                       Map<LocalVariable, StaticType> second) {
+        if (first == null) {
+            return copy(second);
+        }
+        if (second == null) {
+            return copy(first);
+        }
+        final var result = new HashMap<>(first);
+        for (final var entry : second.entrySet()) {
+            result.merge(entry.getKey(), entry.getValue(), StaticType::join);
+        }
+        return result;
+    }
+
+    private LocalVariable trackedVariable(Binding binding) {
+        if (binding == null || binding.local == null || binding.local.captured) {
+            return null;
+        }
+        return binding.local;
+    }
+
+    private void assign(LocalVariable variable, StaticType type) {
+        if (variable != null && state != null) {
+            state.put(variable, type);
+        }
+    }
+
+    @Override
+    public StaticType visitAssignExpr(Expr.Assign expr) {
+        final var type = infer(expr.value);
+        assign(trackedVariable(interpreter.binding(expr)), type);
+        return type;
+    }
+
+    @Override
+    public StaticType visitBinaryExpr(Expr.Binary expr) {
+        final var left = infer(expr.left);
+        final var right = infer(expr.right);
+        switch (expr.operator.type) {
+            case COMMA:
+                return right;
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                expr.operandType = left.join(right);
+                return StaticType.BOOLEAN;
+            case MINUS:
+            case SLASH:
+            case STAR:
+                // these either produce a number or fail
+                expr.operandType = left.join(right);
+                return StaticType.NUMBER;
+            case PLUS:
+                expr.operandType = left.join(right);
+                if (left == StaticType.STRING || right == StaticType.STRING) {
+                    return StaticType.STRING;
+                }
+                return expr.operandType == StaticType.NUMBER ? StaticType.NUMBER : StaticType.ANY;
+            default:
+                return StaticType.ANY;
+        }
+    }
+
+    @Override
+    public StaticType visitLogicalExpr(Expr.Logical expr) {
+        final var left = infer(expr.left);
+        final var before = copy(state);
+        final var right = infer(expr.right);
+        state = join(before, state);
+        return left.join(right);
+    }
+
+    @Override
+    public StaticType visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (final var argument : expr.arguments) {
+            infer(argument);
+        }
+        return StaticType.ANY;
+    }
+
+    @Override
+    public StaticType visitGetExpr(Expr.Get expr) {
+        infer(expr.object);
+        return StaticType.ANY;
+    }
+
+    @Override
+    public StaticType visitSetExpr(Expr.Set expr) {
+        final var type = infer(expr.value);
+        infer(expr.object);
+        return type;
+    }
+
+    @Override
+    public StaticType visitThisExpr(Expr.This expr) {
+        return StaticType.ANY;
+    }
+
+    @Override
+    public StaticType visitSuperExpr(Expr.Super expr) {
+        return StaticType.ANY;
+    }
+
+    @Override
+    public StaticType visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public StaticType visitLiteralExpr(Expr.Literal expr) {
+        return StaticType.of(expr.value);
+    }
+
+    @Override
+    public StaticType visitUnaryExpr(Expr.Unary expr) {
+        expr.operandType = infer(expr.right);
+        return expr.operator.type == TokenType.MINUS ? StaticType.NUMBER : StaticType.BOOLEAN;
+    }
+
+    @Override
+    public StaticType visitConditionalExpr(Expr.Conditional expr) {
+        infer(expr.condition);
+        final var before = copy(state);
+        final var thenType = infer(expr.thenBranch);
+        final var afterThen = state;
+        state = before;
+        final var elseType = infer(expr.elseBranch);
+        state = join(afterThen, state);
+        return thenType.join(elseType);
+    }
+
+    @Override
+    public StaticType visitVariableExpr(Expr.Variable expr) {
+        final var variable = trackedVariable(interpreter.binding(expr));
+        var type = StaticType.ANY;
+        if (variable != null && state != null) {
+            type = state.getOrDefault(variable, StaticType.ANY);
+        }
+        expr.type = type;
+        return type;
+    }
+
+    // fused nodes are only created after this pass has run, each one stands for the node it replaced
+    @Override
+    public StaticType visitIncrementLocalExpr(Expr.IncrementLocal expr) {
+        return infer(expr.original);
+    }
+
+    @Override
+    public StaticType visitCompareLocalToConstExpr(Expr.CompareLocalToConst expr) {
+        return infer(expr.original);
+    }
+
+    @Override
+    public StaticType visitIncrementFieldExpr(Expr.IncrementField expr) {
+        return infer(expr.original);
+    }
+
+    @Override
+    public StaticType visitInvokeMethodExpr(Expr.InvokeMethod expr) {
+        return infer(expr.original);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        final var before = copy(state);
+        infer(stmt.thenBranch);
+        final var afterThen = state;
+        state = before;
+        if (stmt.elseBranch != null) {
+            infer(stmt.elseBranch);
+        }
+        state = join(afterThen, state);
+        return null;
+    }
+
+    // Iterates the loop until the state at its head stops changing. Types only ever widen to ANY, so this
+    // terminates, and the annotations written by the last iteration hold for every execution of the loop.
+    private void inferLoop(Expr condition, Expr increment, Stmt body) {
+        final var loop = new Loop();
+        loops.push(loop);
+        var head = copy(state);
+        Map<LocalVariable, StaticType> exit;
+        while (true) {
+            loop.breakState = null;
+            loop.continueState = null;
+            state = copy(head);
+            if (condition != null) {
+                infer(condition);
+            }
+            exit = copy(state);
+            infer(body);
+            state = join(state, loop.continueState);
+            if (increment != null && state != null) {
+                infer(increment);
+            }
+            final var next = join(head, state);
+            if (next.equals(head)) {
+                break;
+            }
+            head = next;
+        }
+        loops.pop();
+        // without a condition the loop can only be left through a break
+        state = join(condition != null ? exit : null, loop.breakState);
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        inferLoop(stmt.loopCondition, null, stmt.loopBody);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) {
+            infer(stmt.initializer);
+        }
+        inferLoop(stmt.loopCondition, stmt.increment, stmt.loopBody);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        inferAll(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        // the parser accepts a break in a function nested inside a loop, it never continues the function
+        if (!loops.empty()) {
+            loops.peek().breakState = join(loops.peek().breakState, state);
+        }
+        state = null;
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if (!loops.empty()) {
+            loops.peek().continueState = join(loops.peek().continueState, state);
+        }
+        state = null;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            infer(stmt.value);
+        }
+        state = null;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        var type = StaticType.ANY;
+        if (stmt.initializer != null) {
+            type = infer(stmt.initializer);
+        }
+        final var variable = interpreter.declaration(stmt);
+        if (variable != null && !variable.captured && stmt.scalar == null) {
+            assign(variable, type);
+        }
+        return null;
+    }
+
+    // infers the body of a function that was parsed on first use, see Parser.LazyBody
+    void inferBody(Stmt.Fun function) {
+        inferFunction(function);
+    }
+
+    private void inferFunction(Stmt.Fun function) {
+        final var enclosingState = state;
+        final var enclosingLoops = loops;
+        state = new HashMap<>();
+        loops = new Stack<>();
+        inferAll(function.functionBody);
+        state = enclosingState;
+        loops = enclosingLoops;
+    }
+
+    @Override
+    public Void visitFunStmt(Stmt.Fun stmt) {
+        inferFunction(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superclass != null) {
+            infer(stmt.superclass);
+        }
+        for (final var method : stmt.methods) {
+            inferFunction(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        return null;
+    }
+}